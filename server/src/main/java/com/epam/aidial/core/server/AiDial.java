@@ -33,6 +33,8 @@ import com.epam.aidial.core.storage.service.TimerService;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.annotations.VisibleForTesting;
 import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.registry.otlp.OtlpMeterRegistry;
 import io.opentelemetry.api.OpenTelemetry;
 import io.opentelemetry.sdk.autoconfigure.AutoConfiguredOpenTelemetrySdk;
@@ -48,6 +50,7 @@ import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.metrics.MetricsOptions;
 import io.vertx.micrometer.MicrometerMetricsOptions;
+import io.vertx.micrometer.backends.BackendRegistries;
 import io.vertx.tracing.opentelemetry.OpenTelemetryOptions;
 import lombok.Getter;
 import lombok.Setter;
@@ -85,7 +88,9 @@ public class AiDial {
     private AccessTokenValidator accessTokenValidator;
 
     private BlobStorage storage;
+    private LockService lockService;
     private ResourceService resourceService;
+    private RateLimiter rateLimiter;
 
     private LongSupplier clock = System::currentTimeMillis;
     private Supplier<String> generator = () -> UUID.randomUUID().toString().replace("-", "");
@@ -117,12 +122,13 @@ public class AiDial {
 
             redis = CacheClientFactory.create(toJsonNode(settings("redis")));
 
-            LockService lockService = new LockService(redis, storage.getPrefix());
+            lockService = new LockService(redis, storage.getPrefix());
             TimerService timerService = new VertxTimerService(vertx);
             ResourceService.Settings resourceServiceSettings = Json.decodeValue(settings("resources").toBuffer(), ResourceService.Settings.class);
             resourceService = new ResourceService(timerService, redis, storage, lockService, resourceServiceSettings, storage.getPrefix());
+            registerMetrics(resourceService);
             InvitationService invitationService = new InvitationService(resourceService, encryptionService, settings("invitations"));
-            ApiKeyStore apiKeyStore = new ApiKeyStore(resourceService, vertx);
+            ApiKeyStore apiKeyStore = new ApiKeyStore(resourceService, redis, vertx, encryptionService, settings("apiKeys"));
             ConfigStore configStore = new FileConfigStore(vertx, settings("config"), apiKeyStore);
             ApplicationOperatorService operatorService = new ApplicationOperatorService(client, settings("applications"));
             ApplicationService applicationService = new ApplicationService(vertx, redis, encryptionService,
@@ -135,11 +141,11 @@ public class AiDial {
                     resourceService, invitationService, shareService, lockService);
             PublicationService publicationService = new PublicationService(encryptionService, resourceService, accessService,
                     ruleService, notificationService, applicationService, resourceOperationService, generator, clock);
-            RateLimiter rateLimiter = new RateLimiter(vertx, resourceService);
+            rateLimiter = new RateLimiter(vertx, resourceService, settings("limiter"));
             CodeInterpreterService codeInterpreterService = new CodeInterpreterService(vertx, redis, resourceService,
                     accessService, encryptionService, operatorService, generator, settings("codeInterpreter"));
 
-            TokenStatsTracker tokenStatsTracker = new TokenStatsTracker(vertx, resourceService);
+            TokenStatsTracker tokenStatsTracker = new TokenStatsTracker(vertx, redis, storage.getPrefix());
 
             HeartbeatService heartbeatService = new HeartbeatService(
                     vertx, settings("resources").getLong("heartbeatPeriod"));
@@ -164,7 +170,9 @@ public class AiDial {
         try {
             close(server, HttpServer::close);
             close(client, HttpClient::close);
+            close(rateLimiter);
             close(resourceService);
+            close(lockService);
             close(vertx, Vertx::close);
             close(storage);
             close(redis);
@@ -313,6 +321,24 @@ public class AiDial {
         options.setMetricsOptions(micrometer);
     }
 
+    private static void registerMetrics(ResourceService resourceService) {
+        MeterRegistry registry = BackendRegistries.getDefaultNow();
+        if (registry == null) {
+            return;
+        }
+
+        Gauge.builder("aidial.resources.near_cache.hit_ratio", resourceService, ResourceService::getNearCacheHitRatio)
+                .description("Hit ratio of the in-process cache of resources")
+                .register(registry);
+        Gauge.builder("aidial.resources.sync.backlog", resourceService, ResourceService::getSyncBacklog)
+                .description("Number of resources waiting to be synced to the blob store")
+                .register(registry);
+        Gauge.builder("aidial.resources.sync.lag", resourceService, ResourceService::getSyncLag)
+                .description("Time in milliseconds the oldest due resource has been waiting to be synced to the blob store")
+                .baseUnit("milliseconds")
+                .register(registry);
+    }
+
     private static void setupTracing(VertxOptions vertxOptions) {
         String otlMetricExporter = getOtlSetting("OTEL_METRICS_EXPORTER", "otel.metrics.exporter");
         if (otlMetricExporter == null) {
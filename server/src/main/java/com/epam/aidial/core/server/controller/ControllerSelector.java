@@ -69,6 +69,7 @@ public class ControllerSelector {
     private static final Pattern RESOURCE_OPERATIONS = Pattern.compile("^/v1/ops/resource/(move|subscribe)$");
 
     private static final Pattern DEPLOYMENT_LIMITS = Pattern.compile("^/v1/deployments/(?<id>.+?)/limits$");
+    private static final Pattern ALL_DEPLOYMENT_LIMITS = Pattern.compile("^/v1/deployments/limits$");
 
     private static final Pattern NOTIFICATIONS = Pattern.compile("^/v1/ops/notification/(list|delete)$");
 
@@ -163,6 +164,10 @@ public class ControllerSelector {
             InvitationController controller = new InvitationController(proxy, context);
             return controller::getInvitations;
         });
+        get(ALL_DEPLOYMENT_LIMITS, (proxy, context, pathMatcher) -> {
+            LimitController controller = new LimitController(proxy, context);
+            return controller::getAllLimits;
+        });
         get(DEPLOYMENT_LIMITS, (proxy, context, pathMatcher) -> {
             String deploymentId = UrlUtil.decodePath(pathMatcher.group(1));
             LimitController controller = new LimitController(proxy, context);
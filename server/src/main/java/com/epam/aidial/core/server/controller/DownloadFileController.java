@@ -6,15 +6,38 @@ import com.epam.aidial.core.server.util.ProxyUtil;
 import com.epam.aidial.core.server.vertx.stream.InputStreamReader;
 import com.epam.aidial.core.storage.http.HttpStatus;
 import com.epam.aidial.core.storage.resource.ResourceDescriptor;
+import com.epam.aidial.core.storage.util.Compression;
 import com.epam.aidial.core.storage.util.EtagHeader;
+import com.epam.aidial.core.storage.util.RangeHeader;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.ByteStreams;
+import io.netty.handler.codec.http.HttpHeaderNames;
 import io.vertx.core.Future;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerResponse;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nullable;
+
 @Slf4j
 public class DownloadFileController extends AccessControlBaseController {
 
+    private static final String ANY_ENCODING = "*";
+
     public DownloadFileController(Proxy proxy, ProxyContext context) {
         super(proxy, context, false);
     }
@@ -25,20 +48,77 @@ public class DownloadFileController extends AccessControlBaseController {
             return context.respond(HttpStatus.BAD_REQUEST, "Can't download a folder");
         }
         EtagHeader etagHeader = ProxyUtil.etag(context.getRequest());
-        proxy.getVertx().executeBlocking(() -> proxy.getResourceService().getResourceStream(resource, etagHeader), false)
+        Set<String> acceptedEncodings = acceptedEncodings(context.getRequest().getHeader(HttpHeaders.ACCEPT_ENCODING));
+        RangeHeader rangeHeader = RangeHeader.fromHeader(context.getRequest().getHeader(HttpHeaderNames.RANGE),
+                context.getRequest().getHeader(HttpHeaderNames.IF_RANGE));
+        ProxyUtil.executeFileOperation(proxy.getVertx(), proxy.getStorage(), () -> proxy.getResourceService()
+                        .getResourceStream(resource, etagHeader, acceptedEncodings, rangeHeader))
                 .compose(resourceStream -> {
                     if (resourceStream == null) {
                         return context.respond(HttpStatus.NOT_FOUND);
                     }
 
-                    HttpServerResponse response = context.putHeader(HttpHeaders.CONTENT_TYPE, resourceStream.contentType())
+                    context.putHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+                    if (resourceStream.contentEncoding() == null) {
+                        context.putHeader(HttpHeaders.ETAG, resourceStream.etag());
+                    } else {
+                        // the encoded representation differs from the identity one byte by byte, so its etag is weak
+                        context.putHeader(HttpHeaders.ETAG, EtagHeader.WEAK_PREFIX + resourceStream.etag())
+                                .putHeader(HttpHeaders.CONTENT_ENCODING, resourceStream.contentEncoding())
+                                .putHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING.toString());
+                    }
+
+                    List<RangeHeader.Range> ranges = resourceStream.ranges();
+                    InputStream body = resourceStream.inputStream();
+                    long length = resourceStream.contentLength();
+                    HttpStatus status = ranges.isEmpty() ? HttpStatus.OK : HttpStatus.PARTIAL_CONTENT;
+
+                    if (ranges.size() > 1) {
+                        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+                        List<byte[]> headers = ranges.stream()
+                                .map(range -> partHeader(boundary, resourceStream.contentType(), range, resourceStream.contentLength()))
+                                .toList();
+                        byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+
+                        body = multipart(body, ranges, headers, trailer);
+                        length = trailer.length;
+                        for (int i = 0; i < ranges.size(); i++) {
+                            length += headers.get(i).length + ranges.get(i).length();
+                        }
+
+                        context.putHeader(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+                    } else {
+                        context.putHeader(HttpHeaders.CONTENT_TYPE, resourceStream.contentType());
+
+                        if (ranges.size() == 1) {
+                            RangeHeader.Range range = ranges.get(0);
+                            length = range.length();
+                            context.putHeader(HttpHeaders.CONTENT_RANGE, contentRange(range, resourceStream.contentLength()));
+                        }
+                    }
+
+                    HttpServerResponse response = context
                             // content-length removed by vertx
-                            .putHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(resourceStream.contentLength()))
-                            .putHeader(HttpHeaders.ETAG, resourceStream.etag())
+                            .putHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(length))
                             .exposeHeaders()
-                            .getResponse();
+                            .getResponse()
+                            .setStatusCode(status.getCode());
+
+                    // the local file is sent by the kernel without copying it through the heap,
+                    // the stream is closed once the file is sent, so the cached file is not deleted in between
+                    if (resourceStream.file() != null && ranges.size() <= 1) {
+                        long offset = ranges.isEmpty() ? 0 : ranges.get(0).start();
+                        response.sendFile(resourceStream.file().toString(), offset, length)
+                                .onComplete(ignore -> closeQuietly(resourceStream))
+                                .onFailure(error -> {
+                                    log.warn("Failed to send file: {}", resource.getUrl(), error);
+                                    response.reset();
+                                });
+                        return Future.succeededFuture();
+                    }
 
-                    InputStreamReader stream = new InputStreamReader(proxy.getVertx(), resourceStream.inputStream());
+                    InputStreamReader stream = new InputStreamReader(proxy.getVertx(), body, proxy.getStorage().getIoExecutor());
                     stream.pipeTo(response)
                             .onFailure(error -> {
                                 stream.close();
@@ -52,4 +132,87 @@ public class DownloadFileController extends AccessControlBaseController {
 
         return Future.succeededFuture();
     }
+
+    private static void closeQuietly(Closeable stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            log.warn("Failed to close stream", e);
+        }
+    }
+
+    private static String contentRange(RangeHeader.Range range, long length) {
+        return "bytes " + range.start() + "-" + range.end() + "/" + length;
+    }
+
+    private static byte[] partHeader(String boundary, String contentType, RangeHeader.Range range, long length) {
+        String header = "\r\n--" + boundary + "\r\n"
+                + (contentType == null ? "" : HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n")
+                + HttpHeaders.CONTENT_RANGE + ": " + contentRange(range, length) + "\r\n\r\n";
+        return header.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Builds multipart/byteranges body from the stream of the ranges read one after another.
+     */
+    private static InputStream multipart(InputStream ranges, List<RangeHeader.Range> parts, List<byte[]> headers, byte[] trailer) {
+        // the parts are read from the same stream which is closed once the body is closed
+        InputStream shared = new FilterInputStream(ranges) {
+            @Override
+            public void close() {
+            }
+        };
+
+        List<InputStream> streams = new ArrayList<>();
+        for (int i = 0; i < parts.size(); i++) {
+            streams.add(new ByteArrayInputStream(headers.get(i)));
+            streams.add(ByteStreams.limit(shared, parts.get(i).length()));
+        }
+        streams.add(new ByteArrayInputStream(trailer));
+
+        return new FilterInputStream(new SequenceInputStream(Collections.enumeration(streams))) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    ranges.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Parses the encodings of Accept-Encoding header, e.g. "gzip, zstd;q=0.9, br;q=0".
+     * The encodings with zero quality are not accepted.
+     * The wildcard "*" accepts the content codings supported by the storage which are not listed explicitly.
+     */
+    @VisibleForTesting
+    static Set<String> acceptedEncodings(@Nullable String header) {
+        if (header == null) {
+            return Set.of();
+        }
+
+        Set<String> encodings = new HashSet<>();
+        Set<String> rejectedEncodings = new HashSet<>();
+        for (String token : header.split(",")) {
+            String[] parts = token.split(";");
+            String encoding = parts[0].trim().toLowerCase();
+            boolean rejected = Arrays.stream(parts).skip(1)
+                    .map(String::trim)
+                    .anyMatch(param -> param.matches("q\\s*=\\s*0(\\.0*)?"));
+
+            if (!encoding.isEmpty()) {
+                (rejected ? rejectedEncodings : encodings).add(encoding);
+            }
+        }
+
+        if (encodings.remove(ANY_ENCODING)) {
+            Compression.contentCodings().stream()
+                    .filter(encoding -> !rejectedEncodings.contains(encoding))
+                    .forEach(encodings::add);
+        }
+
+        return encodings;
+    }
 }
@@ -3,6 +3,7 @@ package com.epam.aidial.core.server.controller;
 import com.epam.aidial.core.server.Proxy;
 import com.epam.aidial.core.server.ProxyContext;
 import com.epam.aidial.core.server.security.AccessService;
+import com.epam.aidial.core.server.util.ProxyUtil;
 import com.epam.aidial.core.storage.data.MetadataBase;
 import com.epam.aidial.core.storage.http.HttpStatus;
 import com.epam.aidial.core.storage.resource.ResourceDescriptor;
@@ -40,7 +41,7 @@ public class FileMetadataController extends AccessControlBaseController {
             return context.respond(HttpStatus.BAD_REQUEST, "Limit is out of allowed range: [0, 1000]");
         }
 
-        proxy.getVertx().executeBlocking(() -> {
+        ProxyUtil.executeFileOperation(proxy.getVertx(), proxy.getStorage(), () -> {
             try {
                 MetadataBase metadata = resourceService.getMetadata(resource, token, limit, recursive);
                 if (metadata != null) {
@@ -59,7 +60,7 @@ public class FileMetadataController extends AccessControlBaseController {
             }
 
             return null;
-        }, false);
+        });
 
         return Future.succeededFuture();
     }
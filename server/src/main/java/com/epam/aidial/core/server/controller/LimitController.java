@@ -1,5 +1,7 @@
 package com.epam.aidial.core.server.controller;
 
+import com.epam.aidial.core.config.Config;
+import com.epam.aidial.core.config.Deployment;
 import com.epam.aidial.core.server.Proxy;
 import com.epam.aidial.core.server.ProxyContext;
 import com.epam.aidial.core.server.service.PermissionDeniedException;
@@ -8,6 +10,12 @@ import com.epam.aidial.core.storage.http.HttpStatus;
 import io.vertx.core.Future;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
 @Slf4j
 public class LimitController {
 
@@ -34,6 +42,42 @@ public class LimitController {
         return Future.succeededFuture();
     }
 
+    /**
+     * Returns limit stats of the deployments from the config which are accessible by the caller.
+     * The deployments can be narrowed down with the comma-separated list in the {@code deployments} query parameter,
+     * unknown and inaccessible ones are skipped.
+     */
+    public Future<?> getAllLimits() {
+        Config config = context.getConfig();
+        String filter = context.getRequest().getParam("deployments");
+        Stream<Deployment> deployments;
+        if (filter == null) {
+            deployments = Stream.of(config.getApplications().values(), config.getModels().values(), config.getAssistant().getAssistants().values())
+                    .flatMap(Collection::stream);
+        } else {
+            deployments = Arrays.stream(filter.split(","))
+                    .map(String::trim)
+                    .distinct()
+                    .map(config::selectDeployment)
+                    .filter(Objects::nonNull);
+        }
+
+        List<Deployment> accessible = deployments.filter(deployment -> deployment.hasAccess(context.getUserRoles())).toList();
+        proxy.getRateLimiter().getLimitStats(accessible, context)
+                .onSuccess(limitStats -> {
+                    if (limitStats == null) {
+                        context.respond(HttpStatus.NOT_FOUND);
+                    } else {
+                        context.respond(HttpStatus.OK, limitStats);
+                    }
+                }).onFailure(error -> {
+                    log.error("LimitController. Failed to get limit stats", error);
+                    context.respond(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to get limit stats");
+                });
+
+        return Future.succeededFuture();
+    }
+
     private void handleRequestError(String deploymentId, Throwable error) {
         if (error instanceof PermissionDeniedException) {
             log.error("LimitController. Forbidden deployment {}. Project: {}. User sub: {}", deploymentId, context.getProject(), context.getUserSub());
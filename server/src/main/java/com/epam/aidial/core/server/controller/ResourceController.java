@@ -255,8 +255,12 @@ public class ResourceController extends AccessControlBaseController {
 
         EtagHeader etag = ProxyUtil.etag(context.getRequest());
 
-        vertx.executeBlocking(() -> proxy.getResourceOperationService().deleteResource(descriptor, etag), false)
-                .onSuccess(deleted -> {
+        // the file is deleted from the blob store right away, so it's deleted on the I/O pool of the blob storage
+        Future<Boolean> result = (descriptor.getType() == ResourceTypes.FILE)
+                ? ProxyUtil.executeFileOperation(vertx, proxy.getStorage(), () -> proxy.getResourceOperationService().deleteResource(descriptor, etag))
+                : vertx.executeBlocking(() -> proxy.getResourceOperationService().deleteResource(descriptor, etag), false);
+
+        result.onSuccess(deleted -> {
                     if (deleted) {
                         context.respond(HttpStatus.OK);
                     } else {
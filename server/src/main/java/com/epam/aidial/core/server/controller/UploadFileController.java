@@ -37,7 +37,7 @@ public class UploadFileController extends AccessControlBaseController {
             return context.respond(HttpStatus.BAD_REQUEST, "Resource name and/or parent folders must not end with .(dot)");
         }
         String author = context.getUserDisplayName();
-        return proxy.getVertx().executeBlocking(() -> {
+        return ProxyUtil.executeFileOperation(proxy.getVertx(), proxy.getStorage(), () -> {
             EtagHeader etag = validateRequest(context.getRequest(), resource);
             context.getRequest()
                     .setExpectMultipart(true)
@@ -61,7 +61,7 @@ public class UploadFileController extends AccessControlBaseController {
                     });
 
             return Future.succeededFuture();
-        }, false)
+        })
                 .otherwise(error -> {
                     log.warn("Failed to upload file: {}", resource.getUrl(), error);
                     context.respond(error, "Failed to upload file: " + resource.getUrl());
@@ -0,0 +1,359 @@
+package com.epam.aidial.core.server.limiter;
+
+import com.epam.aidial.core.config.Limit;
+import com.epam.aidial.core.storage.http.HttpStatus;
+import com.epam.aidial.core.storage.resource.ResourceDescriptor;
+import com.epam.aidial.core.storage.service.ResourceService;
+import com.google.common.collect.Lists;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps rate limit state of the active users on the local node and reconciles it with the storage in background.
+ * A node admits requests against its local copy of the cluster state within a lease: a chunk of the request and the token budgets
+ * equal to {@code overshootTolerance} of the limits. The request lease is {@code maxLease} requests if the request limits are unbounded.
+ * Once the lease is exhausted, the state is reconciled synchronously before the next request is admitted,
+ * so the cluster may overshoot a limit by at most one lease per node.
+ * Usage collected locally is flushed to the storage every {@code reconcilePeriod} milliseconds,
+ * the state of the entries without local usage is refreshed with a multi-get.
+ */
+@Slf4j
+class LocalRateLimiter {
+
+    private static final int REFRESH_BATCH_SIZE = 256;
+
+    private final Vertx vertx;
+    private final ResourceService resourceService;
+    private final RateLimitCodec codec;
+    private final double overshootTolerance;
+    private final long idleTimeout;
+    private final long maxLease;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // the tick is skipped while the previous reconciliation is still running
+    private final AtomicBoolean reconciling = new AtomicBoolean();
+    private final long timer;
+
+    LocalRateLimiter(Vertx vertx, ResourceService resourceService, RateLimitCodec codec, JsonObject settings) {
+        this.vertx = vertx;
+        this.resourceService = resourceService;
+        this.codec = codec;
+        this.overshootTolerance = settings.getDouble("overshootTolerance", 0.05);
+        this.idleTimeout = settings.getLong("idleTimeout", 60000L);
+        this.maxLease = settings.getLong("maxLease", 100L);
+
+        long reconcilePeriod = settings.getLong("reconcilePeriod", 300L);
+        this.timer = vertx.setPeriodic(reconcilePeriod, reconcilePeriod, ignore -> {
+            if (reconciling.compareAndSet(false, true)) {
+                vertx.executeBlocking(() -> reconcile()).onComplete(ignored -> reconciling.set(false));
+            }
+        });
+    }
+
+    void close() {
+        vertx.cancelTimer(timer);
+        reconcile();
+    }
+
+    Future<RateLimitResult> limit(ResourceDescriptor tokensResource, ResourceDescriptor requestsResource, Limit limit) {
+        Entry entry = entry(tokensResource, requestsResource);
+        RateLimitResult result = entry.tryCheck(System.currentTimeMillis(), limit, requestLease(limit), tokenLease(limit));
+        if (result != null) {
+            return Future.succeededFuture(result);
+        }
+
+        // the state is not loaded yet or the lease is exhausted
+        return vertx.executeBlocking(() -> {
+            reconcile(entry);
+            return entry.check(System.currentTimeMillis(), limit);
+        }, false);
+    }
+
+    void increase(ResourceDescriptor tokensResource, ResourceDescriptor requestsResource, long count) {
+        Entry entry = entry(tokensResource, requestsResource);
+        entry.add(System.currentTimeMillis(), count);
+    }
+
+    /**
+     * Flushes local usage to the storage and refreshes the local state of all active entries.
+     * Entries which have not been used for {@code idleTimeout} milliseconds are evicted.
+     */
+    Void reconcile() {
+        long deadline = System.currentTimeMillis() - idleTimeout;
+        List<Entry> idle = new ArrayList<>();
+        for (String key : entries.keySet()) {
+            Entry entry = entries.computeIfPresent(key, (ignore, value) -> value.evictIfIdle(deadline) ? null : value);
+            if (entry == null) {
+                continue;
+            }
+
+            if (entry.hasPending()) {
+                reconcile(entry);
+            } else {
+                idle.add(entry);
+            }
+        }
+
+        for (List<Entry> batch : Lists.partition(idle, REFRESH_BATCH_SIZE)) {
+            refresh(batch);
+        }
+        return null;
+    }
+
+    private void reconcile(Entry entry) {
+        // serializes reconciliations of the same entry from the timer and the request path
+        synchronized (entry.reconciliation) {
+            long timestamp = System.currentTimeMillis();
+            TokenRateLimit tokens = null;
+            RequestRateLimit requests = null;
+
+            long pendingTokens = entry.takePendingTokens();
+            try {
+                tokens = flushTokens(entry.tokensResource, pendingTokens, timestamp);
+            } catch (Throwable e) {
+                entry.restorePendingTokens(pendingTokens);
+                log.warn("Failed to reconcile token rate limit: {}", entry.tokensResource.getUrl(), e);
+            }
+
+            long pendingRequests = entry.takePendingRequests();
+            try {
+                requests = flushRequests(entry.requestsResource, pendingRequests, timestamp);
+            } catch (Throwable e) {
+                entry.restorePendingRequests(pendingRequests);
+                log.warn("Failed to reconcile request rate limit: {}", entry.requestsResource.getUrl(), e);
+            }
+
+            entry.update(timestamp, tokens, requests);
+        }
+    }
+
+    /**
+     * Refreshes the local state of the entries without local usage with one multi-get.
+     * The entry reconciled by the request path while the state was being loaded keeps its newer state.
+     */
+    private void refresh(List<Entry> batch) {
+        long timestamp = System.currentTimeMillis();
+        long[] versions = new long[batch.size()];
+        List<ResourceDescriptor> resources = new ArrayList<>(batch.size() * 2);
+        for (int i = 0; i < batch.size(); i++) {
+            Entry entry = batch.get(i);
+            versions[i] = entry.version();
+            resources.add(entry.tokensResource);
+            resources.add(entry.requestsResource);
+        }
+
+        List<byte[]> states;
+        try {
+            states = resourceService.getResourceBodies(resources);
+        } catch (Throwable e) {
+            log.warn("Failed to refresh rate limits", e);
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            TokenRateLimit tokens = codec.decodeTokenLimit(states.get(2 * i));
+            RequestRateLimit requests = codec.decodeRequestLimit(states.get(2 * i + 1));
+            batch.get(i).update(versions[i], timestamp,
+                    tokens == null ? new TokenRateLimit() : tokens,
+                    requests == null ? new RequestRateLimit() : requests);
+        }
+    }
+
+    private TokenRateLimit flushTokens(ResourceDescriptor resource, long count, long timestamp) {
+        if (count == 0) {
+            TokenRateLimit rateLimit = codec.decodeTokenLimit(resourceService.getResourceBody(resource));
+            return rateLimit == null ? new TokenRateLimit() : rateLimit;
+        }
+
+        TokenRateLimit[] result = new TokenRateLimit[1];
+        resourceService.computeResourceBody(resource, codec.contentType(), state -> {
+            TokenRateLimit rateLimit = codec.decodeTokenLimit(state);
+            if (rateLimit == null) {
+                rateLimit = new TokenRateLimit();
+            }
+            rateLimit.add(timestamp, count);
+            result[0] = rateLimit;
+            return codec.encode(rateLimit);
+        });
+        return result[0];
+    }
+
+    private RequestRateLimit flushRequests(ResourceDescriptor resource, long count, long timestamp) {
+        if (count == 0) {
+            RequestRateLimit rateLimit = codec.decodeRequestLimit(resourceService.getResourceBody(resource));
+            return rateLimit == null ? new RequestRateLimit() : rateLimit;
+        }
+
+        RequestRateLimit[] result = new RequestRateLimit[1];
+        resourceService.computeResourceBody(resource, codec.contentType(), state -> {
+            RequestRateLimit rateLimit = codec.decodeRequestLimit(state);
+            if (rateLimit == null) {
+                rateLimit = new RequestRateLimit();
+            }
+            rateLimit.add(timestamp, count);
+            result[0] = rateLimit;
+            return codec.encode(rateLimit);
+        });
+        return result[0];
+    }
+
+    private Entry entry(ResourceDescriptor tokensResource, ResourceDescriptor requestsResource) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            Entry entry = entries.computeIfAbsent(tokensResource.getUrl(), key -> new Entry(tokensResource, requestsResource));
+            if (entry.touch(now)) {
+                return entry;
+            }
+        }
+    }
+
+    private long requestLease(Limit limit) {
+        long requests = Math.min(limit.getRequestHour(), limit.getRequestDay());
+        if (requests == Long.MAX_VALUE) {
+            return maxLease;
+        }
+        return Math.max(1, (long) (requests * overshootTolerance));
+    }
+
+    private long tokenLease(Limit limit) {
+        long tokens = Math.min(Math.min(limit.getMinute(), limit.getDay()), Math.min(limit.getWeek(), limit.getMonth()));
+        if (tokens == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(1, (long) (tokens * overshootTolerance));
+    }
+
+    private static class Entry {
+
+        final Object reconciliation = new Object();
+        final ResourceDescriptor tokensResource;
+        final ResourceDescriptor requestsResource;
+
+        // the last known cluster state with the local usage applied on top of it
+        TokenRateLimit tokens = new TokenRateLimit();
+        RequestRateLimit requests = new RequestRateLimit();
+        // the local usage which is not flushed to the storage yet
+        long pendingTokens;
+        long pendingRequests;
+        // the number of requests admitted and tokens used since the last reconciliation
+        long leased;
+        long leasedTokens;
+        // the number of the updates of the local state
+        long version;
+        long usedAt;
+        boolean loaded;
+        boolean evicted;
+
+        Entry(ResourceDescriptor tokensResource, ResourceDescriptor requestsResource) {
+            this.tokensResource = tokensResource;
+            this.requestsResource = requestsResource;
+        }
+
+        synchronized boolean touch(long timestamp) {
+            usedAt = Math.max(usedAt, timestamp);
+            return !evicted;
+        }
+
+        synchronized boolean evictIfIdle(long deadline) {
+            evicted = usedAt < deadline && pendingTokens == 0 && pendingRequests == 0;
+            return evicted;
+        }
+
+        synchronized boolean hasPending() {
+            return pendingTokens != 0 || pendingRequests != 0;
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        @Nullable
+        synchronized RateLimitResult tryCheck(long timestamp, Limit limit, long requestLease, long tokenLease) {
+            if (!loaded || leased >= requestLease || leasedTokens >= tokenLease) {
+                return null;
+            }
+
+            return check(timestamp, limit);
+        }
+
+        synchronized RateLimitResult check(long timestamp, Limit limit) {
+            RateLimitResult result = tokens.update(timestamp, limit);
+            if (result.status() != HttpStatus.OK) {
+                return result;
+            }
+
+            result = requests.check(timestamp, limit, 1);
+            if (result.status() == HttpStatus.OK) {
+                pendingRequests++;
+                leased++;
+            }
+
+            return result;
+        }
+
+        synchronized void add(long timestamp, long count) {
+            tokens.add(timestamp, count);
+            pendingTokens += count;
+            leasedTokens += count;
+        }
+
+        synchronized long takePendingTokens() {
+            long count = pendingTokens;
+            pendingTokens = 0;
+            return count;
+        }
+
+        synchronized long takePendingRequests() {
+            long count = pendingRequests;
+            pendingRequests = 0;
+            return count;
+        }
+
+        synchronized void restorePendingTokens(long count) {
+            pendingTokens += count;
+        }
+
+        synchronized void restorePendingRequests(long count) {
+            pendingRequests += count;
+        }
+
+        /**
+         * Replaces the local state with the cluster state if it's available.
+         * The usage registered while the storage was being updated is kept on top of the cluster state.
+         */
+        synchronized void update(long timestamp, @Nullable TokenRateLimit newTokens, @Nullable RequestRateLimit newRequests) {
+            if (newTokens != null) {
+                newTokens.add(timestamp, pendingTokens);
+                tokens = newTokens;
+            }
+
+            if (newRequests != null) {
+                newRequests.add(timestamp, pendingRequests);
+                requests = newRequests;
+            }
+
+            // keep serving from the local state if the storage is not available
+            loaded = true;
+            leased = 0;
+            leasedTokens = 0;
+            version++;
+        }
+
+        /**
+         * Replaces the local state with the cluster state loaded since the given version of the local state.
+         */
+        synchronized void update(long version, long timestamp, TokenRateLimit newTokens, RequestRateLimit newRequests) {
+            if (this.version == version) {
+                update(timestamp, newTokens, newRequests);
+            }
+        }
+    }
+}
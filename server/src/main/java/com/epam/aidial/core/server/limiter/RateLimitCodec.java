@@ -0,0 +1,132 @@
+package com.epam.aidial.core.server.limiter;
+
+import com.epam.aidial.core.server.util.ProxyUtil;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import lombok.SneakyThrows;
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.Nullable;
+
+/**
+ * Encodes rate limit state in a compact binary form which is stored as raw bytes.
+ * The layout of version 1 is the version number followed by the buckets of the rate limit in the declaration order.
+ * Every bucket is written as the zigzag varint of its window end and the varints of its interval sums.
+ * The window start and the total sum are derived from them on decoding.
+ * <p>
+ *     Both JSON and binary state are decoded. The state is written as JSON unless {@code binary} is set,
+ *     because the nodes of the previous versions decode JSON only.
+ *     The binary state should be enabled once all the nodes are upgraded, then JSON state gets migrated on the next write.
+ * </p>
+ */
+public class RateLimitCodec {
+
+    public static final String JSON_CONTENT_TYPE = "application/json";
+    public static final String BINARY_CONTENT_TYPE = "application/octet-stream";
+
+    private static final int VERSION = 1;
+
+    private final boolean binary;
+
+    public RateLimitCodec(boolean binary) {
+        this.binary = binary;
+    }
+
+    public String contentType() {
+        return binary ? BINARY_CONTENT_TYPE : JSON_CONTENT_TYPE;
+    }
+
+    @Nullable
+    public TokenRateLimit decodeTokenLimit(@Nullable byte[] data) {
+        if (ArrayUtils.isEmpty(data)) {
+            return null;
+        }
+
+        if (isJson(data)) {
+            return ProxyUtil.convertToObject(new String(data, StandardCharsets.UTF_8), TokenRateLimit.class);
+        }
+
+        TokenRateLimit rateLimit = new TokenRateLimit();
+        decode(data, rateLimit.getMinute(), rateLimit.getDay(), rateLimit.getWeek(), rateLimit.getMonth());
+        return rateLimit;
+    }
+
+    @Nullable
+    public RequestRateLimit decodeRequestLimit(@Nullable byte[] data) {
+        if (ArrayUtils.isEmpty(data)) {
+            return null;
+        }
+
+        if (isJson(data)) {
+            return ProxyUtil.convertToObject(new String(data, StandardCharsets.UTF_8), RequestRateLimit.class);
+        }
+
+        RequestRateLimit rateLimit = new RequestRateLimit();
+        decode(data, rateLimit.getHour(), rateLimit.getDay());
+        return rateLimit;
+    }
+
+    public byte[] encode(TokenRateLimit rateLimit) {
+        if (!binary) {
+            return ProxyUtil.convertToString(rateLimit).getBytes(StandardCharsets.UTF_8);
+        }
+
+        return encode(rateLimit.getMinute(), rateLimit.getDay(), rateLimit.getWeek(), rateLimit.getMonth());
+    }
+
+    public byte[] encode(RequestRateLimit rateLimit) {
+        if (!binary) {
+            return ProxyUtil.convertToString(rateLimit).getBytes(StandardCharsets.UTF_8);
+        }
+
+        return encode(rateLimit.getHour(), rateLimit.getDay());
+    }
+
+    @SneakyThrows
+    private static byte[] encode(RateBucket... buckets) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        CodedOutputStream stream = CodedOutputStream.newInstance(output);
+        stream.writeUInt32NoTag(VERSION);
+
+        for (RateBucket bucket : buckets) {
+            stream.writeSInt64NoTag(bucket.getEnd());
+            for (long sum : bucket.getSums()) {
+                stream.writeUInt64NoTag(sum);
+            }
+        }
+
+        stream.flush();
+        return output.toByteArray();
+    }
+
+    @SneakyThrows
+    private static void decode(byte[] data, RateBucket... buckets) {
+        CodedInputStream stream = CodedInputStream.newInstance(data);
+        int version = stream.readUInt32();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported rate limit version: " + version);
+        }
+
+        for (RateBucket bucket : buckets) {
+            long end = stream.readSInt64();
+            long[] sums = bucket.getSums();
+            long sum = 0;
+
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] = stream.readUInt64();
+                sum += sums[i];
+            }
+
+            bucket.setEnd(end);
+            bucket.setStart(end == Long.MIN_VALUE ? Long.MIN_VALUE : end - sums.length);
+            bucket.setSum(sum);
+        }
+    }
+
+    private static boolean isJson(byte[] data) {
+        // the binary state starts with the version number
+        return data[0] == '{';
+    }
+}
@@ -1,5 +1,6 @@
 package com.epam.aidial.core.server.limiter;
 
+import com.epam.aidial.core.config.Config;
 import com.epam.aidial.core.config.Limit;
 import com.epam.aidial.core.config.Role;
 import com.epam.aidial.core.config.RoleBasedEntity;
@@ -9,31 +10,100 @@ import com.epam.aidial.core.server.data.LimitStats;
 import com.epam.aidial.core.server.data.ResourceTypes;
 import com.epam.aidial.core.server.token.TokenUsage;
 import com.epam.aidial.core.server.util.BucketBuilder;
-import com.epam.aidial.core.server.util.ProxyUtil;
 import com.epam.aidial.core.server.util.ResourceDescriptorFactory;
 import com.epam.aidial.core.storage.http.HttpStatus;
 import com.epam.aidial.core.storage.resource.ResourceDescriptor;
 import com.epam.aidial.core.storage.service.ResourceService;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
-import lombok.RequiredArgsConstructor;
+import io.vertx.core.json.JsonObject;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Slf4j
-@RequiredArgsConstructor
-public class RateLimiter {
+public class RateLimiter implements AutoCloseable {
 
     private static final Limit DEFAULT_LIMIT = new Limit();
     private static final String DEFAULT_USER_ROLE = "default";
+    private static final int MAX_EFFECTIVE_LIMITS = 16384;
+    private static final long MAX_TOKEN_FLUSH_PERIOD = 10000;
 
     private final Vertx vertx;
 
     private final ResourceService resourceService;
 
+    private final RateLimitCodec codec;
+
+    /**
+     * Checks limits in memory and reconciles usage with the storage in background if enabled.
+     */
+    private final LocalRateLimiter localRateLimiter;
+
+    /**
+     * Token usage buffered per limit resource and flushed to the storage in background
+     * if the local rate limiter which buffers the usage itself is not enabled.
+     */
+    private final Map<ResourceDescriptor, Long> pendingTokens = new ConcurrentHashMap<>();
+
+    // the tick is skipped while the previous flush is still running
+    private final AtomicBoolean flushing = new AtomicBoolean();
+
+    private final long tokenFlushTimer;
+
+    /**
+     * Effective limits of role combinations computed per config.
+     * The config is a weak key compared by identity, so the limits of a config are dropped once it is not referenced anymore,
+     * while the requests which still hold the previous config during a reload keep using its limits.
+     */
+    private final Cache<Config, Map<LimitKey, Limit>> effectiveLimits = CacheBuilder.newBuilder().weakKeys().build();
+
+    public RateLimiter(Vertx vertx, ResourceService resourceService) {
+        this(vertx, resourceService, new JsonObject());
+    }
+
+    public RateLimiter(Vertx vertx, ResourceService resourceService, JsonObject settings) {
+        this.vertx = vertx;
+        this.resourceService = resourceService;
+        this.codec = new RateLimitCodec(settings.getBoolean("binaryState", false));
+
+        JsonObject localSettings = settings.getJsonObject("local", new JsonObject());
+        boolean localEnabled = resourceService != null && localSettings.getBoolean("enabled", false);
+        this.localRateLimiter = localEnabled ? new LocalRateLimiter(vertx, resourceService, codec, localSettings) : null;
+
+        // the period is bounded to keep the token limits accurate across the nodes
+        long tokenFlushPeriod = Math.min(settings.getLong("tokenFlushPeriod", 1000L), MAX_TOKEN_FLUSH_PERIOD);
+        this.tokenFlushTimer = (resourceService != null && localRateLimiter == null && tokenFlushPeriod > 0)
+                ? vertx.setPeriodic(tokenFlushPeriod, tokenFlushPeriod, ignore -> {
+                    if (flushing.compareAndSet(false, true)) {
+                        vertx.executeBlocking(() -> flushTokens()).onComplete(ignored -> flushing.set(false));
+                    }
+                })
+                : -1;
+    }
+
+    @Override
+    public void close() {
+        if (localRateLimiter != null) {
+            localRateLimiter.close();
+        }
+
+        if (tokenFlushTimer >= 0) {
+            vertx.cancelTimer(tokenFlushTimer);
+            flushTokens();
+        }
+    }
+
     public Future<Void> increase(ProxyContext context, RoleBasedEntity roleBasedEntity) {
         try {
             // skip checking limits if redis is not available
@@ -49,6 +119,19 @@ public class RateLimiter {
 
             String tokensPath = getPathToTokens(roleBasedEntity.getName());
             ResourceDescriptor resourceDescription = getResourceDescription(context, tokensPath);
+
+            if (localRateLimiter != null) {
+                String requestsPath = getPathToRequests(roleBasedEntity.getName());
+                localRateLimiter.increase(resourceDescription, getResourceDescription(context, requestsPath), usage.getTotalTokens());
+                return Future.succeededFuture();
+            }
+
+            if (tokenFlushTimer >= 0) {
+                // usage of concurrent requests is coalesced into one update per resource
+                pendingTokens.merge(resourceDescription, usage.getTotalTokens(), Long::sum);
+                return Future.succeededFuture();
+            }
+
             return vertx.executeBlocking(() -> updateTokenLimit(resourceDescription, usage.getTotalTokens()), false);
         } catch (Throwable e) {
             return Future.failedFuture(e);
@@ -73,12 +156,27 @@ public class RateLimiter {
                 return Future.succeededFuture(new RateLimitResult(HttpStatus.FORBIDDEN, "Access denied", -1));
             }
 
+            if (localRateLimiter != null) {
+                ResourceDescriptor tokensResource = getResourceDescription(context, getPathToTokens(name));
+                ResourceDescriptor requestsResource = getResourceDescription(context, getPathToRequests(name));
+                return localRateLimiter.limit(tokensResource, requestsResource, limit);
+            }
+
             return vertx.executeBlocking(() -> checkLimit(context, limit, roleBasedEntity), false);
         } catch (Throwable e) {
             return Future.failedFuture(e);
         }
     }
 
+    @VisibleForTesting
+    void flush() {
+        if (localRateLimiter != null) {
+            localRateLimiter.reconcile();
+        }
+
+        flushTokens();
+    }
+
     public Future<LimitStats> getLimitStats(RoleBasedEntity roleBasedEntity, ProxyContext context) {
         try {
             // skip checking limits if redis is not available
@@ -92,6 +190,51 @@ public class RateLimiter {
         }
     }
 
+    /**
+     * Collects limit stats of the deployments reading their rate limits with a single pipelined request.
+     *
+     * @return the limit stats by the deployment names in the order of the deployments.
+     */
+    public Future<Map<String, LimitStats>> getLimitStats(List<? extends RoleBasedEntity> roleBasedEntities, ProxyContext context) {
+        try {
+            // skip checking limits if redis is not available
+            if (resourceService == null) {
+                return Future.succeededFuture();
+            }
+            List<Limit> limits = roleBasedEntities.stream().map(entity -> getLimitByUser(context, entity)).toList();
+            return vertx.executeBlocking(() -> getLimitStats(context, limits, roleBasedEntities), false);
+        } catch (Throwable e) {
+            return Future.failedFuture(e);
+        }
+    }
+
+    private Map<String, LimitStats> getLimitStats(ProxyContext context, List<Limit> limits, List<? extends RoleBasedEntity> roleBasedEntities) {
+        List<ResourceDescriptor> resources = new ArrayList<>(roleBasedEntities.size() * 2);
+        for (RoleBasedEntity roleBasedEntity : roleBasedEntities) {
+            resources.add(getResourceDescription(context, getPathToTokens(roleBasedEntity.getName())));
+            resources.add(getResourceDescription(context, getPathToRequests(roleBasedEntity.getName())));
+        }
+
+        List<byte[]> states = resourceService.getResourceBodies(resources);
+        Map<String, LimitStats> result = new LinkedHashMap<>();
+        long timestamp = System.currentTimeMillis();
+
+        for (int i = 0; i < roleBasedEntities.size(); i++) {
+            LimitStats limitStats = create(limits.get(i));
+            TokenRateLimit tokenRateLimit = codec.decodeTokenLimit(states.get(2 * i));
+            if (tokenRateLimit != null) {
+                tokenRateLimit.update(timestamp, limitStats);
+            }
+            RequestRateLimit requestRateLimit = codec.decodeRequestLimit(states.get(2 * i + 1));
+            if (requestRateLimit != null) {
+                requestRateLimit.update(timestamp, limitStats);
+            }
+            result.put(roleBasedEntities.get(i).getName(), limitStats);
+        }
+
+        return result;
+    }
+
     private LimitStats getLimitStats(ProxyContext context, Limit limit, String name) {
         LimitStats limitStats = create(limit);
         long timestamp = System.currentTimeMillis();
@@ -103,8 +246,8 @@ public class RateLimiter {
     private void collectTokenLimitStats(ProxyContext context, LimitStats limitStats, long timestamp, String name) {
         String tokensPath = getPathToTokens(name);
         ResourceDescriptor resourceDescription = getResourceDescription(context, tokensPath);
-        String json = resourceService.getResource(resourceDescription);
-        TokenRateLimit rateLimit = ProxyUtil.convertToObject(json, TokenRateLimit.class);
+        byte[] state = resourceService.getResourceBody(resourceDescription);
+        TokenRateLimit rateLimit = codec.decodeTokenLimit(state);
         if (rateLimit == null) {
             return;
         }
@@ -114,8 +257,8 @@ public class RateLimiter {
     private void collectRequestLimitStats(ProxyContext context, LimitStats limitStats, long timestamp, String name) {
         String requestsPath = getPathToRequests(name);
         ResourceDescriptor resourceDescription = getResourceDescription(context, requestsPath);
-        String json = resourceService.getResource(resourceDescription);
-        RequestRateLimit rateLimit = ProxyUtil.convertToObject(json, RequestRateLimit.class);
+        byte[] state = resourceService.getResourceBody(resourceDescription);
+        RequestRateLimit rateLimit = codec.decodeRequestLimit(state);
         if (rateLimit == null) {
             return;
         }
@@ -172,8 +315,8 @@ public class RateLimiter {
     private RateLimitResult checkTokenLimit(ProxyContext context, Limit limit, long timestamp, RoleBasedEntity roleBasedEntity) {
         String tokensPath = getPathToTokens(roleBasedEntity.getName());
         ResourceDescriptor resourceDescription = getResourceDescription(context, tokensPath);
-        String prevValue = resourceService.getResource(resourceDescription);
-        TokenRateLimit rateLimit = ProxyUtil.convertToObject(prevValue, TokenRateLimit.class);
+        byte[] state = resourceService.getResourceBody(resourceDescription);
+        TokenRateLimit rateLimit = codec.decodeTokenLimit(state);
         if (rateLimit == null) {
             return RateLimitResult.SUCCESS;
         }
@@ -185,45 +328,79 @@ public class RateLimiter {
         ResourceDescriptor resourceDescription = getResourceDescription(context, tokensPath);
         // pass array to hold rate limit result returned by the function to compute the resource
         RateLimitResult[] result = new RateLimitResult[1];
-        resourceService.computeResource(resourceDescription, json -> updateRequestLimit(json, timestamp, limit, result));
+        resourceService.computeResourceBody(resourceDescription, codec.contentType(), state -> updateRequestLimit(state, timestamp, limit, result));
         return result[0];
     }
 
-    private String updateRequestLimit(String json, long timestamp, Limit limit, RateLimitResult[] result) {
-        RequestRateLimit rateLimit = ProxyUtil.convertToObject(json, RequestRateLimit.class);
+    private byte[] updateRequestLimit(byte[] state, long timestamp, Limit limit, RateLimitResult[] result) {
+        RequestRateLimit rateLimit = codec.decodeRequestLimit(state);
         if (rateLimit == null) {
             rateLimit = new RequestRateLimit();
         }
         result[0] = rateLimit.check(timestamp, limit, 1);
-        return ProxyUtil.convertToString(rateLimit);
+        return codec.encode(rateLimit);
+    }
+
+    private Void flushTokens() {
+        for (ResourceDescriptor resource : pendingTokens.keySet()) {
+            Long count = pendingTokens.remove(resource);
+            if (count == null) {
+                continue;
+            }
+
+            try {
+                updateTokenLimit(resource, count);
+            } catch (Throwable e) {
+                // keep the usage to retry on the next flush
+                pendingTokens.merge(resource, count, Long::sum);
+                log.warn("Failed to flush token usage: {}", resource.getUrl(), e);
+            }
+        }
+
+        return null;
     }
 
     private Void updateTokenLimit(ResourceDescriptor resourceDescription, long totalUsedTokens) {
-        resourceService.computeResource(resourceDescription, json -> updateTokenLimit(json, totalUsedTokens));
+        resourceService.computeResourceBody(resourceDescription, codec.contentType(), state -> updateTokenLimit(state, totalUsedTokens));
         return null;
     }
 
-    private String updateTokenLimit(String json, long totalUsedTokens) {
-        TokenRateLimit rateLimit = ProxyUtil.convertToObject(json, TokenRateLimit.class);
+    private byte[] updateTokenLimit(byte[] state, long totalUsedTokens) {
+        TokenRateLimit rateLimit = codec.decodeTokenLimit(state);
         if (rateLimit == null) {
             rateLimit = new TokenRateLimit();
         }
         long timestamp = System.currentTimeMillis();
         rateLimit.add(timestamp, totalUsedTokens);
-        return ProxyUtil.convertToString(rateLimit);
+        return codec.encode(rateLimit);
     }
 
     private Limit getLimitByUser(ProxyContext context, RoleBasedEntity roleBasedEntity) {
-        String name = roleBasedEntity.getName();
+        Config config = context.getConfig();
+        Map<LimitKey, Limit> limits = effectiveLimits.asMap().computeIfAbsent(config, ignore -> new ConcurrentHashMap<>());
+
+        LimitKey key = new LimitKey(roleBasedEntity.getName(), roleBasedEntity.getUserRoles(), context.getUserRoles());
+        Limit limit = limits.get(key);
+        if (limit == null) {
+            limit = computeLimit(config.getRoles(), key);
+            if (limits.size() < MAX_EFFECTIVE_LIMITS) {
+                limits.put(key, limit);
+            }
+        }
+
+        return limit;
+    }
+
+    private static Limit computeLimit(Map<String, Role> roles, LimitKey key) {
+        String name = key.name();
         List<String> userRoles;
-        if (roleBasedEntity.getUserRoles() == null) {
+        if (key.deploymentRoles() == null) {
             // find limits for all user roles
-            userRoles = context.getUserRoles();
+            userRoles = key.userRoles();
         } else {
             // find limits for user roles which match to required roles
-            userRoles = context.getUserRoles().stream().filter(role -> roleBasedEntity.getUserRoles().contains(role)).toList();
+            userRoles = key.userRoles().stream().filter(role -> key.deploymentRoles().contains(role)).toList();
         }
-        Map<String, Role> roles = context.getConfig().getRoles();
         Limit defaultUserLimit = getLimit(roles, DEFAULT_USER_ROLE, name, DEFAULT_LIMIT);
         if (userRoles.isEmpty()) {
             return defaultUserLimit;
@@ -267,4 +444,7 @@ public class RateLimiter {
                 .orElse(defaultLimit);
     }
 
+    private record LimitKey(String name, Set<String> deploymentRoles, List<String> userRoles) {
+    }
+
 }
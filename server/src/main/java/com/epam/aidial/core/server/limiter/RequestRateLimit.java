@@ -29,6 +29,11 @@ public class RequestRateLimit {
         }
     }
 
+    public void add(long timestamp, long count) {
+        hour.add(timestamp, count);
+        day.add(timestamp, count);
+    }
+
     public void update(long timestamp, LimitStats limitStats) {
         long hourTotal = hour.update(timestamp);
         long dayTotal = day.update(timestamp);
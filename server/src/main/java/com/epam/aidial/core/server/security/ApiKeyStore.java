@@ -4,21 +4,40 @@ import com.epam.aidial.core.config.Key;
 import com.epam.aidial.core.server.config.FileConfigStore;
 import com.epam.aidial.core.server.data.ApiKeyData;
 import com.epam.aidial.core.server.data.ResourceTypes;
+import com.epam.aidial.core.server.util.Base58;
 import com.epam.aidial.core.server.util.ProxyUtil;
 import com.epam.aidial.core.server.util.ResourceDescriptorFactory;
+import com.epam.aidial.core.storage.blobstore.BlobStorageUtil;
 import com.epam.aidial.core.storage.http.HttpException;
 import com.epam.aidial.core.storage.http.HttpStatus;
 import com.epam.aidial.core.storage.resource.ResourceDescriptor;
 import com.epam.aidial.core.storage.service.ResourceService;
 import com.epam.aidial.core.storage.util.EtagHeader;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.redisson.api.RMap;
+import org.redisson.api.RScript;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.listener.BaseStatusListener;
+import org.redisson.client.codec.StringCodec;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import javax.annotation.Nullable;
 
 import static com.epam.aidial.core.server.security.ApiKeyGenerator.generateKey;
 import static com.epam.aidial.core.storage.resource.ResourceDescriptor.PATH_SEPARATOR;
@@ -27,6 +46,9 @@ import static com.epam.aidial.core.storage.resource.ResourceDescriptor.PATH_SEPA
  * The store keeps per request and project API key data.
  * <p>
  *     Per request key is assigned during the request and terminated in the end of the request.
+ *     Per request key data is kept in Redis only as a field of the hash of the root key with TTL, so the key expires even if the request is never terminated.
+ *     The hash has the root key and the hops of its interceptor chain by their indexes, the data is updated with compare-and-set by the previous value of the field.
+ *     Recently used keys are cached locally, the local caches of all the nodes are invalidated over a Redis topic on every update and invalidation.
  *     Project keys are hosted by external secure storage and might be periodically updated by {@link FileConfigStore}.
  * </p>
  */
@@ -36,13 +58,63 @@ public class ApiKeyStore {
     public static final String API_KEY_DATA_BUCKET = "api_key_data";
     public static final String API_KEY_DATA_LOCATION = API_KEY_DATA_BUCKET + PATH_SEPARATOR;
 
+    private static final int MAX_UPDATE_ATTEMPTS = 64;
+    private static final String ROOT_FIELD = "root";
+    private static final String HOPS_FIELD = "hops";
+    private static final char HOP_SEPARATOR = ':';
+    private static final int HOP_TAG_LENGTH = 16;
+    private static final byte[] HOP_TAG = "api_key_hop_tag".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HOP_PAD = "api_key_hop_pad".getBytes(StandardCharsets.UTF_8);
+    // the length of HMAC-SHA256
+    private static final int PAD_LENGTH = 32;
+
     private final ResourceService resourceService;
 
+    private final RedissonClient redis;
+
     private final Vertx vertx;
 
-    public ApiKeyStore(ResourceService resourceService, Vertx vertx) {
+    private final EncryptionService encryptionService;
+
+    /**
+     * Time to live of per request keys in milliseconds.
+     */
+    private final long perRequestKeyTtl;
+
+    /**
+     * Recently issued and looked-up per request keys: root key -> root or hop field -> data.
+     * The entries are invalidated by messages from {@link #topic} on every update and invalidation of a key.
+     */
+    private final Cache<String, Map<String, ApiKeyData>> cache;
+
+    private final RTopic topic;
+
+    /**
+     * The number of received invalidations. A loaded key is cached only if no invalidation is received during the load.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ApiKeyStore(ResourceService resourceService, RedissonClient redis, Vertx vertx, EncryptionService encryptionService,
+                       JsonObject settings) {
         this.resourceService = resourceService;
+        this.redis = redis;
         this.vertx = vertx;
+        this.encryptionService = encryptionService;
+        this.perRequestKeyTtl = settings.getLong("perRequestKeyTtl", 86400000L);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(settings.getLong("perRequestKeyCacheSize", 16384L))
+                .expireAfterWrite(settings.getLong("perRequestKeyCacheExpiration", 60000L), TimeUnit.MILLISECONDS)
+                .build();
+        this.topic = redis.getTopic("api_key:" + BlobStorageUtil.toStoragePath(resourceService.getPrefix(), "topic"), StringCodec.INSTANCE);
+        this.topic.addListener(String.class, (channel, key) -> invalidateLocally(key));
+        this.topic.addListener(new BaseStatusListener() {
+            @Override
+            public void onSubscribe(String channel) {
+                // invalidations might be missed while the connection was lost
+                invalidations.incrementAndGet();
+                cache.invalidateAll();
+            }
+        });
     }
 
     /**
@@ -58,16 +130,68 @@ public class ApiKeyStore {
      */
     public void assignPerRequestApiKey(ApiKeyData data) {
         String perRequestKey = generateKey();
-        ResourceDescriptor resource = toResource(perRequestKey);
         data.setPerRequestKey(perRequestKey);
         String json = ProxyUtil.convertToString(data);
-        try {
-            resourceService.putResource(resource, json, EtagHeader.NEW_ONLY);
-        } catch (HttpException exception) {
-            throw exception.getStatus() == HttpStatus.PRECONDITION_FAILED
-                    ? new IllegalStateException(String.format("API key %s already exists in the storage", perRequestKey))
-                    : exception;
+        boolean assigned = redis.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE,
+                """
+                        if (redis.call('hsetnx', KEYS[1], ARGV[1], ARGV[2]) == 0) then
+                          return false
+                        end
+
+                        redis.call('pexpire', KEYS[1], ARGV[3])
+                        return true
+                        """, RScript.ReturnType.BOOLEAN, List.of(redisKey(perRequestKey)), ROOT_FIELD, json, String.valueOf(perRequestKeyTtl));
+        if (!assigned) {
+            throw new IllegalStateException(String.format("API key %s already exists in the storage", perRequestKey));
+        }
+        cache(perRequestKey, new KeyRef(perRequestKey, ROOT_FIELD), json, invalidations.get());
+    }
+
+    /**
+     * Assigns a per request key to the {@link ApiKeyData} of the request sent on behalf of the caller.
+     * <p>
+     *     A request sent by an interceptor gets a hop key derived from the root key of the interceptor chain and the index of the hop,
+     *     the data of the hop is kept in the hash of the root key by the index.
+     *     The hop key doesn't reveal the root key and is resolved to the root without a lookup, see {@link #hopKey(String, long)}.
+     *     The hop key lives until the root key is invalidated.
+     *     Other requests get a new root key.
+     * </p>
+     * <p>
+     *     Note. The method is blocking and shouldn't be run in the event loop thread.
+     * </p>
+     *
+     * @param data the data of the request to be sent.
+     * @param caller the data of the key the incoming request is authorized with.
+     */
+    public void assignPerRequestApiKey(ApiKeyData data, ApiKeyData caller) {
+        String callerKey = caller.getPerRequestKey();
+        if (!caller.isInterceptor()) {
+            assignPerRequestApiKey(data);
+            return;
+        }
+
+        String rootKey = resolve(callerKey).rootKey();
+        // the data of the hop is stored without the key, the key is derived from the index assigned by the storage
+        data.setPerRequestKey(null);
+        String json = ProxyUtil.convertToString(data);
+        long index = redis.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE,
+                """
+                        if (redis.call('exists', KEYS[1]) == 0) then
+                          return 0
+                        end
+
+                        local index = redis.call('hincrby', KEYS[1], ARGV[1], 1)
+                        redis.call('hset', KEYS[1], index, ARGV[2])
+                        return index
+                        """, RScript.ReturnType.INTEGER, List.of(redisKey(rootKey)), HOPS_FIELD, json);
+        if (index == 0) {
+            // the caller key might be assigned by a node which kept keys in the resource storage
+            assignPerRequestApiKey(data);
+            return;
         }
+        String perRequestKey = hopKey(rootKey, index);
+        data.setPerRequestKey(perRequestKey);
+        cache(perRequestKey, new KeyRef(rootKey, String.valueOf(index)), json, invalidations.get());
     }
 
     public Future<Void> updatePerRequestApiKey(String key, Function<String, String> fn) {
@@ -76,13 +200,50 @@ public class ApiKeyStore {
             log.error("Error occurred at updating api key data: per request API key is undefined");
             return Future.failedFuture(error);
         }
-        ResourceDescriptor resource = toResource(key);
         return vertx.executeBlocking(() -> {
-            resourceService.computeResource(resource, fn);
+            KeyRef ref = resolve(key);
+            try {
+                updatePerRequestApiKeyData(ref, key, fn);
+            } finally {
+                invalidate(ref.rootKey());
+            }
             return null;
         }, false);
     }
 
+    private void updatePerRequestApiKeyData(KeyRef ref, String key, Function<String, String> fn) {
+        for (int i = 0; i < MAX_UPDATE_ATTEMPTS; i++) {
+            String oldJson = map(ref.rootKey()).get(ref.field());
+            if (oldJson == null) {
+                if (!ref.isRoot()) {
+                    throw new IllegalStateException("Unknown api key");
+                }
+                // the key might be assigned by a node which kept keys in the resource storage
+                resourceService.computeResource(toResource(key), fn);
+                return;
+            }
+
+            String newJson = fn.apply(oldJson);
+            if (compareAndSet(ref, oldJson, newJson)) {
+                return;
+            }
+        }
+
+        throw new IllegalStateException("Failed to update API key data due to concurrent modifications");
+    }
+
+    private boolean compareAndSet(KeyRef ref, String oldJson, String newJson) {
+        return redis.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE,
+                """
+                        if (redis.call('hget', KEYS[1], ARGV[1]) ~= ARGV[2]) then
+                          return false
+                        end
+
+                        redis.call('hset', KEYS[1], ARGV[1], ARGV[3])
+                        return true
+                        """, RScript.ReturnType.BOOLEAN, List.of(redisKey(ref.rootKey())), ref.field(), oldJson, newJson);
+    }
+
     /**
      * Returns API key data for the given key.
      *
@@ -94,8 +255,13 @@ public class ApiKeyStore {
         if (apiKeyData != null) {
             return Future.succeededFuture(apiKeyData);
         }
-        ResourceDescriptor resource = toResource(key);
-        return vertx.executeBlocking(() -> ProxyUtil.convertToObject(resourceService.getResource(resource), ApiKeyData.class), false).compose(result -> {
+        KeyRef ref = resolve(key);
+        Map<String, ApiKeyData> hops = cache.getIfPresent(ref.rootKey());
+        apiKeyData = (hops == null) ? null : hops.get(ref.field());
+        if (apiKeyData != null) {
+            return Future.succeededFuture(apiKeyData);
+        }
+        return vertx.executeBlocking(() -> loadPerRequestApiKeyData(key, ref), false).compose(result -> {
             if (result == null) {
                 return Future.failedFuture(new HttpException(HttpStatus.UNAUTHORIZED, "Unknown api key"));
             }
@@ -103,20 +269,76 @@ public class ApiKeyStore {
         });
     }
 
+    @Nullable
+    private ApiKeyData loadPerRequestApiKeyData(String key, KeyRef ref) {
+        long version = invalidations.get();
+        String json = map(ref.rootKey()).get(ref.field());
+        if (json != null) {
+            return cache(key, ref, json, version);
+        }
+
+        if (!ref.isRoot()) {
+            return null;
+        }
+
+        // the key might be assigned by a node which kept keys in the resource storage
+        json = resourceService.getResource(toResource(key));
+        return (json == null) ? null : cache(key, ref, json, version);
+    }
+
     /**
      * Invalidates per request API key.
      * If api key belongs to a project the operation will not have affect.
+     * Hop keys of an interceptor chain are invalidated together with the root key of the chain.
      *
      * @param apiKeyData associated with the key to be invalidated.
      * @return the future of the invalidation result: <code>true</code> means the key is successfully invalidated.
      */
     public Future<Boolean> invalidatePerRequestApiKey(ApiKeyData apiKeyData) {
         String apiKey = apiKeyData.getPerRequestKey();
-        if (apiKey != null) {
-            ResourceDescriptor resource = toResource(apiKey);
-            return vertx.executeBlocking(() -> resourceService.deleteResource(resource, EtagHeader.ANY), false);
+        if (apiKey == null) {
+            return Future.succeededFuture(true);
+        }
+        if (!resolve(apiKey).isRoot()) {
+            // the hop key is invalidated together with the root key
+            return Future.succeededFuture(true);
+        }
+        return vertx.executeBlocking(() -> {
+            // the hops of the interceptor chain are deleted together with the hash of the root key
+            if (redis.getKeys().delete(redisKey(apiKey)) > 0) {
+                invalidate(apiKey);
+                return true;
+            }
+
+            try {
+                return resourceService.deleteResource(toResource(apiKey), EtagHeader.ANY);
+            } finally {
+                invalidate(apiKey);
+            }
+        }, false);
+    }
+
+    private ApiKeyData cache(String key, KeyRef ref, String json, long version) {
+        ApiKeyData data = ProxyUtil.convertToObject(json, ApiKeyData.class);
+        data.setPerRequestKey(key);
+        Map<String, ApiKeyData> hops = cache.asMap().computeIfAbsent(ref.rootKey(), ignore -> new ConcurrentHashMap<>());
+        hops.put(ref.field(), data);
+        if (invalidations.get() != version) {
+            // the key might be changed while it was being loaded
+            hops.remove(ref.field());
         }
-        return Future.succeededFuture(true);
+        return data;
+    }
+
+    private void invalidate(String rootKey) {
+        // the local cache is invalidated right away, the message from the topic might be delivered later
+        invalidateLocally(rootKey);
+        topic.publish(rootKey);
+    }
+
+    private void invalidateLocally(String rootKey) {
+        invalidations.incrementAndGet();
+        cache.invalidate(rootKey);
     }
 
     /**
@@ -151,9 +373,81 @@ public class ApiKeyStore {
         }
     }
 
+    private String redisKey(String rootKey) {
+        return "api_key:" + BlobStorageUtil.toStoragePath(resourceService.getPrefix(), rootKey);
+    }
+
+    private RMap<String, String> map(String rootKey) {
+        return redis.getMap(redisKey(rootKey), StringCodec.INSTANCE);
+    }
+
+    /**
+     * Derives the hop key from the root key and the index of the hop.
+     * The key is the tag followed by the root key and the index masked with the pad.
+     * The tag is HMAC of the root key and the index with the server secret and the pad is HMAC of the tag,
+     * so the hop key doesn't reveal the root key and can't be forged, it's verified without a lookup in the storage.
+     */
+    private String hopKey(String rootKey, long index) {
+        byte[] hop = (rootKey + HOP_SEPARATOR + index).getBytes(StandardCharsets.UTF_8);
+        byte[] tag = Arrays.copyOf(encryptionService.sign(HOP_TAG, hop), HOP_TAG_LENGTH);
+        byte[] key = Arrays.copyOf(tag, HOP_TAG_LENGTH + hop.length);
+        byte[] masked = mask(tag, hop);
+        System.arraycopy(masked, 0, key, HOP_TAG_LENGTH, masked.length);
+        return Base58.encode(key);
+    }
+
+    /**
+     * Returns the root key and the field of the hop for the hop key, the key itself and the root field otherwise.
+     */
+    private KeyRef resolve(String apiKey) {
+        byte[] key;
+        try {
+            key = Base58.decode(apiKey);
+        } catch (IllegalArgumentException e) {
+            return new KeyRef(apiKey, ROOT_FIELD);
+        }
+
+        if (key.length <= HOP_TAG_LENGTH) {
+            return new KeyRef(apiKey, ROOT_FIELD);
+        }
+
+        byte[] tag = Arrays.copyOf(key, HOP_TAG_LENGTH);
+        byte[] hop = mask(tag, Arrays.copyOfRange(key, HOP_TAG_LENGTH, key.length));
+        if (!MessageDigest.isEqual(tag, Arrays.copyOf(encryptionService.sign(HOP_TAG, hop), HOP_TAG_LENGTH))) {
+            return new KeyRef(apiKey, ROOT_FIELD);
+        }
+
+        String value = new String(hop, StandardCharsets.UTF_8);
+        int separator = value.lastIndexOf(HOP_SEPARATOR);
+        return new KeyRef(value.substring(0, separator), value.substring(separator + 1));
+    }
+
+    private byte[] mask(byte[] tag, byte[] value) {
+        byte[] result = new byte[value.length];
+        byte[] pad = null;
+        for (int i = 0; i < value.length; i++) {
+            int offset = i % PAD_LENGTH;
+            if (offset == 0) {
+                pad = encryptionService.sign(HOP_PAD, tag, new byte[] {(byte) (i / PAD_LENGTH)});
+            }
+            result[i] = (byte) (value[i] ^ pad[offset]);
+        }
+        return result;
+    }
+
     private static ResourceDescriptor toResource(String apiKey) {
         return ResourceDescriptorFactory.fromDecoded(
                 ResourceTypes.API_KEY_DATA, API_KEY_DATA_BUCKET, API_KEY_DATA_LOCATION, apiKey);
     }
 
+    /**
+     * The root key of the interceptor chain and the field of the key in the hash of the root key.
+     */
+    private record KeyRef(String rootKey, String field) {
+
+        boolean isRoot() {
+            return ROOT_FIELD.equals(field);
+        }
+    }
+
 }
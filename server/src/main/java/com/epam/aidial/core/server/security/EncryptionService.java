@@ -4,10 +4,12 @@ import com.epam.aidial.core.server.util.Base58;
 import io.vertx.core.json.JsonObject;
 import lombok.extern.slf4j.Slf4j;
 
+import java.nio.charset.StandardCharsets;
 import java.security.spec.KeySpec;
 import java.util.Objects;
 import javax.annotation.Nullable;
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
@@ -18,8 +20,11 @@ import javax.crypto.spec.SecretKeySpec;
 public class EncryptionService {
 
     private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
 
     private final SecretKey key;
+    // the MAC key is derived from the encryption key, so the same key is not used by both algorithms
+    private final SecretKey macKey;
     private final IvParameterSpec iv = new IvParameterSpec(
             new byte[]{25, -13, -25, -119, -42, 117, -118, -128, -101, 20, -103, -81, -48, -23, -54, -113});
 
@@ -29,6 +34,8 @@ public class EncryptionService {
             throw new IllegalArgumentException("Unsupported encryption properties");
         }
         this.key = getSecretKey(settings.getString("secret"), settings.getString("key"));
+        this.macKey = new SecretKeySpec(sign(new SecretKeySpec(this.key.getEncoded(), MAC_ALGORITHM),
+                "mac".getBytes(StandardCharsets.UTF_8)), MAC_ALGORITHM);
     }
 
     private static SecretKey getSecretKey(String secret, String key) {
@@ -53,6 +60,26 @@ public class EncryptionService {
         }
     }
 
+    /**
+     * Returns HMAC-SHA256 of the concatenated values with the key derived from the encryption secret.
+     */
+    public byte[] sign(byte[]... values) {
+        return sign(macKey, values);
+    }
+
+    private static byte[] sign(SecretKey key, byte[]... values) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            for (byte[] value : values) {
+                mac.update(value);
+            }
+            return mac.doFinal();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Nullable
     public String decrypt(String value) {
         try {
@@ -128,24 +128,29 @@ public class ApplicationService {
         Set<MetadataBase> metadata = response.getResources();
 
         List<Application> list = new ArrayList<>();
+        List<ResourceDescriptor> items = new ArrayList<>();
 
         for (MetadataBase meta : metadata) {
             ResourceDescriptor resource = ResourceDescriptorFactory.fromAnyUrl(meta.getUrl(), encryptionService);
 
             if (meta instanceof ResourceItemMetadata) {
-                try {
-                    Application application = getApplication(resource).getValue();
-                    application = ApplicationTypeSchemaUtils.filterCustomClientPropertiesWhenNoWriteAccess(context, resource, application);
-                    list.add(application);
-                } catch (ResourceNotFoundException ignore) {
-                    // skip shared app which might be deleted incidentally
-                    log.warn("Shared application is not found: {}", meta.getUrl());
-                }
+                verifyApplication(resource);
+                items.add(resource);
             } else {
                 list.addAll(getApplications(resource, context));
             }
         }
 
+        List<Application> applications = getApplications(items, context);
+        for (int i = 0; i < items.size(); i++) {
+            if (applications.get(i) == null) {
+                // skip shared app which might be deleted incidentally
+                log.warn("Shared application is not found: {}", items.get(i).getUrl());
+            } else {
+                list.add(applications.get(i));
+            }
+        }
+
         return list;
     }
 
@@ -200,16 +205,17 @@ public class ApplicationService {
 
             filter.accept(folder);
 
+            List<ResourceDescriptor> items = new ArrayList<>();
             for (MetadataBase meta : folder.getItems()) {
                 if (meta.getNodeType() == NodeType.ITEM && meta.getResourceType() == ResourceTypes.APPLICATION) {
-                    try {
-                        ResourceDescriptor item = ResourceDescriptorFactory.fromAnyUrl(meta.getUrl(), encryptionService);
-                        Application application = getApplication(item).getValue();
-                        application = ApplicationTypeSchemaUtils.filterCustomClientPropertiesWhenNoWriteAccess(ctx, item, application);
-                        applications.add(application);
-                    } catch (ResourceNotFoundException ignore) {
-                        // deleted while fetching
-                    }
+                    items.add(ResourceDescriptorFactory.fromAnyUrl(meta.getUrl(), encryptionService));
+                }
+            }
+
+            for (Application application : getApplications(items, ctx)) {
+                // null if deleted while fetching
+                if (application != null) {
+                    applications.add(application);
                 }
             }
 
@@ -219,6 +225,27 @@ public class ApplicationService {
         return applications;
     }
 
+    /**
+     * Reads the applications with a single multi-get.
+     *
+     * @return the applications in the order of the resources, null if an application is not found.
+     */
+    private List<Application> getApplications(List<ResourceDescriptor> resources, ProxyContext ctx) {
+        List<String> bodies = resourceService.getResources(resources);
+        List<Application> applications = new ArrayList<>(resources.size());
+
+        for (int i = 0; i < resources.size(); i++) {
+            ResourceDescriptor resource = resources.get(i);
+            Application application = ProxyUtil.convertToObject(bodies.get(i), Application.class);
+            if (application != null) {
+                application = ApplicationTypeSchemaUtils.filterCustomClientPropertiesWhenNoWriteAccess(ctx, resource, application);
+            }
+            applications.add(application);
+        }
+
+        return applications;
+    }
+
     public Pair<ResourceItemMetadata, Application> putApplication(ResourceDescriptor resource, EtagHeader etag, String author, Application application) {
         prepareApplication(resource, application);
 
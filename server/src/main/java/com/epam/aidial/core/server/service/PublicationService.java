@@ -28,6 +28,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.lang3.mutable.MutableObject;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -581,6 +582,7 @@ public class PublicationService {
             }
         }
 
+        List<Publication.Resource> copies = new ArrayList<>();
         for (Publication.Resource resource : resources) {
             String sourceUrl = resource.getSourceUrl();
             String reviewUrl = resource.getReviewUrl();
@@ -594,14 +596,26 @@ public class PublicationService {
                     app.setReference(ApplicationUtil.generateReference());
                     app.setIconUrl(replaceLink(replacementLinks, app.getIconUrl()));
                 });
-            } else if (!resourceService.copyResource(from, to)) {
+            } else {
+                copies.add(resource);
+            }
+        }
+
+        // the other resources are copied in parallel
+        resourceService.runBulk(copies, Publication.Resource::getSourceUrl, resource -> {
+            ResourceDescriptor from = ResourceDescriptorFactory.fromPrivateUrl(resource.getSourceUrl(), encryption);
+            ResourceDescriptor to = ResourceDescriptorFactory.fromPrivateUrl(resource.getReviewUrl(), encryption);
+
+            if (!resourceService.copyResource(from, to)) {
                 throw new IllegalStateException("Can't copy source resource from: " + from.getUrl() + " to review: " + to.getUrl());
             }
 
             if (from.getType() == ResourceTypes.CONVERSATION) {
-                this.resourceService.computeResource(to, body -> PublicationUtil.replaceConversationLinks(body, to, replacementLinks));
+                resourceService.computeResource(to, body -> PublicationUtil.replaceConversationLinks(body, to, replacementLinks));
             }
-        }
+
+            return true;
+        }, null).throwIfFailed();
     }
 
 
@@ -623,6 +637,7 @@ public class PublicationService {
             }
         }
 
+        List<Publication.Resource> copies = new ArrayList<>();
         for (Publication.Resource resource : resources) {
             String reviewUrl = resource.getReviewUrl();
             String targetUrl = resource.getTargetUrl();
@@ -636,7 +651,17 @@ public class PublicationService {
                     app.setReference(ApplicationUtil.generateReference());
                     app.setIconUrl(replaceLink(replacementLinks, app.getIconUrl()));
                 });
-            } else if (!resourceService.copyResource(from, to, false)
+            } else {
+                copies.add(resource);
+            }
+        }
+
+        // the other resources are copied in parallel
+        resourceService.runBulk(copies, Publication.Resource::getReviewUrl, resource -> {
+            ResourceDescriptor from = ResourceDescriptorFactory.fromPrivateUrl(resource.getReviewUrl(), encryption);
+            ResourceDescriptor to = ResourceDescriptorFactory.fromPublicUrl(resource.getTargetUrl());
+
+            if (!resourceService.copyResource(from, to, false)
                     && resource.getAction() != Publication.ResourceAction.ADD_IF_ABSENT) {
                 throw new IllegalStateException("Can't copy source resource from: " + from.getUrl() + " to review: " + to.getUrl());
             }
@@ -644,7 +669,9 @@ public class PublicationService {
             if (from.getType() == ResourceTypes.CONVERSATION) {
                 resourceService.computeResource(to, body -> PublicationUtil.replaceConversationLinks(body, to, replacementLinks));
             }
-        }
+
+            return true;
+        }, null).throwIfFailed();
     }
 
     private void deleteReviewResources(List<Publication.Resource> resources) {
@@ -71,8 +71,7 @@ public class ShareService {
         }
 
         Set<MetadataBase> resultMetadata = new HashSet<>();
-        for (ResourceDescriptor resource : shareResources) {
-            String sharedResource = resourceService.getResource(resource);
+        for (String sharedResource : resourceService.getResources(List.copyOf(shareResources))) {
             SharedResources sharedResources = ProxyUtil.convertToObject(sharedResource, SharedResources.class);
             if (sharedResources != null) {
                 Map<String, Set<ResourceAccessType>> links = sharedResourcesToMap(sharedResources.getResources());
@@ -101,8 +100,7 @@ public class ShareService {
         }
 
         Set<MetadataBase> resultMetadata = new HashSet<>();
-        for (ResourceDescriptor resource : shareResources) {
-            String sharedResource = resourceService.getResource(resource);
+        for (String sharedResource : resourceService.getResources(List.copyOf(shareResources))) {
             SharedByMeDto resourceToUsers = ProxyUtil.convertToObject(sharedResource, SharedByMeDto.class);
             if (resourceToUsers != null) {
                 Map<String, Set<ResourceAccessType>> links = resourceToUsers.getAggregatedPermissions();
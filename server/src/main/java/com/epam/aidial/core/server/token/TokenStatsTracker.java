@@ -2,62 +2,106 @@ package com.epam.aidial.core.server.token;
 
 import com.epam.aidial.core.server.ProxyContext;
 import com.epam.aidial.core.server.data.ApiKeyData;
-import com.epam.aidial.core.server.data.ResourceTypes;
-import com.epam.aidial.core.server.util.ProxyUtil;
-import com.epam.aidial.core.server.util.ResourceDescriptorFactory;
-import com.epam.aidial.core.storage.resource.ResourceDescriptor;
-import com.epam.aidial.core.storage.service.ResourceService;
-import com.epam.aidial.core.storage.util.EtagHeader;
+import com.epam.aidial.core.storage.blobstore.BlobStorageUtil;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
-import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-
-import java.util.HashMap;
+import org.redisson.api.RMap;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
 import java.util.Map;
-
-import static com.epam.aidial.core.storage.resource.ResourceDescriptor.PATH_SEPARATOR;
-
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Tracks token usage of the spans in a trace.
+ * <p>
+ *     The stats of a trace are kept in a Redis hash with the fields {@code <span>:<stat>}, so nested calls update them atomically without locking.
+ *     Token counts of a span are incremented with {@code HINCRBY} in all its ancestors.
+ *     The aggregated cost is incremented with {@code HINCRBY} as well: it's kept as an integer number of 10<sup>-12</sup> units
+ *     together with the max scale of the added costs, so the sum is exactly the same as the sum of the decimals.
+ * </p>
+ */
 @Slf4j
 @RequiredArgsConstructor
 public class TokenStatsTracker {
-    public static final String DEPLOYMENT_COST_STATS_BUCKET = "deployment_cost_stats";
-    public static final String DEPLOYMENT_COST_STATS_LOCATION = DEPLOYMENT_COST_STATS_BUCKET + PATH_SEPARATOR;
+
+    /**
+     * Time to live of the trace stats in case the initial span is never ended.
+     */
+    private static final long TRACE_TTL = TimeUnit.DAYS.toMillis(1);
+    private static final int MAX_TRACE_DEPTH = 1024;
+
+    private static final String PROMPT_TOKENS = "prompt";
+    private static final String COMPLETION_TOKENS = "completion";
+    private static final String TOTAL_TOKENS = "total";
+    private static final String COST = "cost";
+    private static final String AGG_COST = "aggCost";
+    private static final String AGG_COST_SCALE = "aggCostScale";
+    /**
+     * The scale of the aggregated cost in Redis. The cost with a greater scale is rounded.
+     */
+    private static final int COST_SCALE = 12;
 
     private final Vertx vertx;
-    private final ResourceService resourceService;
+    private final RedissonClient redis;
+    @Nullable
+    private final String prefix;
 
     /**
      * Starts current span.
-     * <p>
-     *     Note. The method is blocking and shouldn't be run in the event loop thread.
-     * </p>
      */
     public Future<Void> startSpan(ProxyContext context) {
         return vertx.executeBlocking(() -> {
-            ResourceDescriptor resource = toResource(context.getTraceId());
-            resourceService.computeResource(resource, json -> {
-                TraceContext traceContext = ProxyUtil.convertToObject(json, TraceContext.class);
-                if (traceContext == null) {
-                    traceContext = new TraceContext();
-                }
-                traceContext.addSpan(context);
-                return ProxyUtil.convertToString(traceContext);
-            });
+            String spanId = context.getSpanId();
+            String parentSpanId = context.getParentSpanId();
+            redis.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE,
+                    """
+                            redis.call('hset', KEYS[1], ARGV[1] .. ':prompt', 0, ARGV[1] .. ':completion', 0, ARGV[1] .. ':total', 0)
+                            redis.call('hdel', KEYS[1], ARGV[1] .. ':cost', ARGV[1] .. ':aggCost', ARGV[1] .. ':aggCostScale', ARGV[1] .. ':parent')
+
+                            if (ARGV[2] ~= '') then
+                              redis.call('hset', KEYS[1], ARGV[1] .. ':parent', ARGV[2])
+                            end
+
+                            return redis.call('pexpire', KEYS[1], ARGV[3])
+                            """, RScript.ReturnType.INTEGER, List.of(redisKey(context.getTraceId())),
+                    spanId, parentSpanId == null ? "" : parentSpanId, String.valueOf(TRACE_TTL));
             return null;
         }, false);
     }
 
     public Future<TokenUsage> getTokenStats(ProxyContext context) {
         return vertx.executeBlocking(() -> {
-            ResourceDescriptor resource = toResource(context.getTraceId());
-            String json = resourceService.getResource(resource);
-            TraceContext traceContext = ProxyUtil.convertToObject(json, TraceContext.class);
-            if (traceContext == null) {
+            String spanId = context.getSpanId();
+            RMap<String, String> map = redis.getMap(redisKey(context.getTraceId()), StringCodec.INSTANCE);
+            Map<String, String> fields = map.getAll(Set.of(field(spanId, PROMPT_TOKENS), field(spanId, COMPLETION_TOKENS),
+                    field(spanId, TOTAL_TOKENS), field(spanId, COST), field(spanId, AGG_COST), field(spanId, AGG_COST_SCALE)));
+            if (!fields.containsKey(field(spanId, TOTAL_TOKENS))) {
                 return null;
             }
-            return traceContext.getStats(context);
+
+            TokenUsage tokenUsage = new TokenUsage();
+            tokenUsage.setPromptTokens(Long.parseLong(fields.get(field(spanId, PROMPT_TOKENS))));
+            tokenUsage.setCompletionTokens(Long.parseLong(fields.get(field(spanId, COMPLETION_TOKENS))));
+            tokenUsage.setTotalTokens(Long.parseLong(fields.get(field(spanId, TOTAL_TOKENS))));
+            String cost = fields.get(field(spanId, COST));
+            if (cost != null) {
+                tokenUsage.setCost(new BigDecimal(cost));
+            }
+            String aggCost = fields.get(field(spanId, AGG_COST));
+            if (aggCost != null) {
+                int scale = Integer.parseInt(fields.get(field(spanId, AGG_COST_SCALE)));
+                tokenUsage.setAggCost(BigDecimal.valueOf(Long.parseLong(aggCost), COST_SCALE).setScale(scale, RoundingMode.UNNECESSARY));
+            }
+            return tokenUsage;
         }, false);
     }
 
@@ -68,8 +112,7 @@ public class TokenStatsTracker {
         ApiKeyData apiKeyData = context.getApiKeyData();
         if (apiKeyData.getPerRequestKey() == null) {
             return vertx.executeBlocking(() -> {
-                ResourceDescriptor resource = toResource(context.getTraceId());
-                resourceService.deleteResource(resource, EtagHeader.ANY);
+                redis.getKeys().delete(redisKey(context.getTraceId()));
                 return null;
             }, false);
         } else {
@@ -79,71 +122,81 @@ public class TokenStatsTracker {
         }
     }
 
+    /**
+     * Sets token usage of current span and adds it to all ancestor spans.
+     */
     public Future<TokenUsage> updateModelStats(ProxyContext context) {
-        ResourceDescriptor resource = toResource(context.getTraceId());
+        String redisKey = redisKey(context.getTraceId());
         return vertx.executeBlocking(() -> {
-            resourceService.computeResource(resource, json -> {
-                TraceContext traceContext = ProxyUtil.convertToObject(json, TraceContext.class);
-                if (traceContext == null) {
-                    return null;
-                }
-                traceContext.updateStats(context.getSpanId(), context.getTokenUsage());
-                return ProxyUtil.convertToString(traceContext);
-            });
-            return context.getTokenUsage();
+            TokenUsage tokenUsage = context.getTokenUsage();
+            redis.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE,
+                    """
+                            local span = ARGV[1]
+                            if (redis.call('hexists', KEYS[1], span .. ':total') == 0) then
+                              return 0
+                            end
+
+                            redis.call('hset', KEYS[1], span .. ':prompt', ARGV[2], span .. ':completion', ARGV[3], span .. ':total', ARGV[4])
+                            redis.call('hdel', KEYS[1], span .. ':cost', span .. ':aggCost', span .. ':aggCostScale')
+
+                            if (ARGV[5] ~= '') then
+                              redis.call('hset', KEYS[1], span .. ':cost', ARGV[5])
+                            end
+
+                            if (ARGV[6] ~= '') then
+                              redis.call('hset', KEYS[1], span .. ':aggCost', ARGV[6], span .. ':aggCostScale', ARGV[7])
+                            end
+
+                            local parent = redis.call('hget', KEYS[1], span .. ':parent')
+                            local depth = 0
+
+                            while (parent and depth < tonumber(ARGV[8])) do
+                              if (redis.call('hexists', KEYS[1], parent .. ':total') == 0) then
+                                break
+                              end
+
+                              redis.call('hincrby', KEYS[1], parent .. ':prompt', ARGV[2])
+                              redis.call('hincrby', KEYS[1], parent .. ':completion', ARGV[3])
+                              redis.call('hincrby', KEYS[1], parent .. ':total', ARGV[4])
+
+                              if (ARGV[6] ~= '') then
+                                redis.call('hincrby', KEYS[1], parent .. ':aggCost', ARGV[6])
+                                local scale = redis.call('hget', KEYS[1], parent .. ':aggCostScale')
+                                if (not scale or tonumber(scale) < tonumber(ARGV[7])) then
+                                  redis.call('hset', KEYS[1], parent .. ':aggCostScale', ARGV[7])
+                                end
+                              end
+
+                              parent = redis.call('hget', KEYS[1], parent .. ':parent')
+                              depth = depth + 1
+                            end
+
+                            return 1
+                            """, RScript.ReturnType.INTEGER, List.of(redisKey), context.getSpanId(),
+                    String.valueOf(tokenUsage.getPromptTokens()), String.valueOf(tokenUsage.getCompletionTokens()),
+                    String.valueOf(tokenUsage.getTotalTokens()), toRedis(tokenUsage.getCost()), toUnscaled(tokenUsage.getAggCost()),
+                    toScale(tokenUsage.getAggCost()), String.valueOf(MAX_TRACE_DEPTH));
+            return tokenUsage;
         }, false);
     }
 
-    @Data
-    public static class TraceContext {
-        Map<String, TokenStats> spans = new HashMap<>();
-
-        void addSpan(ProxyContext context) {
-            String spanId = context.getSpanId();
-            String parentSpanId = context.getParentSpanId();
-            TokenStats tokenStats = new TokenStats(new TokenUsage(), parentSpanId);
-            spans.put(spanId, tokenStats);
-        }
-
-        TokenUsage getStats(ProxyContext context) {
-            TokenStats tokenStats = spans.get(context.getSpanId());
-            if (tokenStats == null) {
-                return null;
-            }
-            return tokenStats.tokenUsage;
-        }
-
-        void updateStats(String spanId, TokenUsage tokenUsage) {
-            TokenStats tokenStats = spans.get(spanId);
-            if (tokenStats == null) {
-                return;
-            }
-            tokenStats.tokenUsage = tokenUsage;
-            String parenSpanId = tokenStats.parentSpanId;
-            while (parenSpanId != null) {
-                tokenStats = spans.get(parenSpanId);
-                tokenStats.tokenUsage.increase(tokenUsage);
-                parenSpanId = tokenStats.parentSpanId;
-            }
-        }
+    private String redisKey(String traceId) {
+        return "token_stats:" + BlobStorageUtil.toStoragePath(prefix, traceId);
     }
 
-    @Data
-    public static class TokenStats {
-        TokenUsage tokenUsage;
-        String parentSpanId;
+    private static String field(String spanId, String stat) {
+        return spanId + ":" + stat;
+    }
 
-        public TokenStats() {
-        }
+    private static String toRedis(@Nullable BigDecimal value) {
+        return value == null ? "" : value.toString();
+    }
 
-        public TokenStats(TokenUsage tokenUsage, String parentSpanId) {
-            this.tokenUsage = tokenUsage;
-            this.parentSpanId = parentSpanId;
-        }
+    private static String toUnscaled(@Nullable BigDecimal value) {
+        return value == null ? "" : value.setScale(COST_SCALE, RoundingMode.HALF_UP).unscaledValue().toString();
     }
 
-    private static ResourceDescriptor toResource(String traceId) {
-        return ResourceDescriptorFactory.fromDecoded(
-                ResourceTypes.DEPLOYMENT_COST_STATS, DEPLOYMENT_COST_STATS_BUCKET, DEPLOYMENT_COST_STATS_LOCATION, traceId);
+    private static String toScale(@Nullable BigDecimal value) {
+        return value == null ? "" : String.valueOf(Math.min(value.scale(), COST_SCALE));
     }
 }
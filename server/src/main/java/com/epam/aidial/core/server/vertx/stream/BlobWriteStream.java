@@ -10,6 +10,7 @@ import com.epam.aidial.core.storage.util.EtagHeader;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Promise;
@@ -24,14 +25,20 @@ import org.jclouds.io.Payload;
 import org.jclouds.io.payloads.InputStreamPayload;
 
 import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 
 /**
  * Implementation of vertx {@link io.vertx.core.streams.WriteStream} that handles data chunks (from {@link io.vertx.core.streams.ReadStream}) and writes them to the blob storage.
  * If file content is bigger than 5MB - multipart upload will be used.
  * Chunk size can be configured via {@link #setWriteQueueMaxSize(int)} method, but should be no less than 5 MB according to the s3 specification.
- * If any exception is caught in between - multipart upload will be aborted.
+ * Up to {@link BlobStorage#getMaxParallelUploadParts()} parts are uploaded concurrently, each from its own buffer.
+ * The parts are uploaded with the asynchronous blob storage calls, so they don't take the worker pool.
+ * The stream reports that the write queue is full only when a chunk is collected and all the upload slots are busy.
+ * If any exception is caught in between - multipart upload will be aborted once the parts in flight are settled.
  */
 @Slf4j
 public class BlobWriteStream implements WriteStream<Buffer> {
@@ -39,18 +46,29 @@ public class BlobWriteStream implements WriteStream<Buffer> {
     public static final int MIN_PART_SIZE_BYTES = 5 * 1024 * 1024;
 
     private final Vertx vertx;
+    // the context the upload callbacks are run on
+    private final Context context;
     private final ResourceService resourceService;
     private final BlobStorage storage;
     private final ResourceDescriptor resource;
     private final EtagHeader etag;
     private final String contentType;
+    private final int maxParallelParts;
 
-    private final Buffer chunkBuffer = Buffer.buffer();
+    private Buffer chunkBuffer = Buffer.buffer();
+    // the buffers of the uploaded parts to be reused, so no more than maxParallelParts + 1 buffers are allocated
+    private final Deque<Buffer> freeBuffers = new ArrayDeque<>();
     private int chunkSize = MIN_PART_SIZE_BYTES;
     private int position;
-    private MultipartUpload mpu;
-    private EtagBuilder etagBuilder;
+    private Future<MultipartUpload> mpu;
+    private final EtagBuilder etagBuilder = new EtagBuilder();
+    // the id of the content the file is uploaded to and its hash builder, null if the file is uploaded to its own blob
+    private final String contentId;
+    private final EtagBuilder contentHashBuilder;
+    // the etag is built from the parts in order while the parts are uploaded in parallel
+    private Future<Void> etagChain = Future.succeededFuture();
     private int chunkNumber = 0;
+    private int partsInFlight;
     @Getter
     private FileMetadata metadata;
 
@@ -58,9 +76,12 @@ public class BlobWriteStream implements WriteStream<Buffer> {
 
     private Handler<Throwable> errorHandler;
 
+    private Handler<Void> drainHandler;
+
     private final List<MultipartPart> parts = new ArrayList<>();
 
-    private boolean isBufferFull;
+    // completed once both the part is uploaded and the etag is updated
+    private final List<Future<?>> partUploads = new ArrayList<>();
 
     private long bytesHandled;
 
@@ -83,12 +104,16 @@ public class BlobWriteStream implements WriteStream<Buffer> {
                            String contentType,
                            String author) {
         this.vertx = vertx;
+        this.context = vertx.getOrCreateContext();
         this.resourceService = resourceService;
         this.storage = storage;
         this.resource = resource;
         this.etag = etag;
         this.contentType = contentType != null ? contentType : BlobStorageUtil.getContentType(resource.getName());
         this.author = author;
+        this.maxParallelParts = Math.max(1, storage.getMaxParallelUploadParts());
+        this.contentId = resourceService.newContentId(resource);
+        this.contentHashBuilder = (contentId == null) ? null : new EtagBuilder(EtagBuilder.CONTENT_HASH_ALGORITHM);
     }
 
     @Override
@@ -106,7 +131,7 @@ public class BlobWriteStream implements WriteStream<Buffer> {
 
     @Override
     public synchronized void write(Buffer data, Handler<AsyncResult<Void>> handler) {
-        // exception might be thrown during drain handling, if so we need to stop processing chunks
+        // exception might be thrown during part uploading, if so we need to stop processing chunks
         // upload abortion will be handled in the end
         if (exception != null) {
             handler.handle(Future.failedFuture(exception));
@@ -117,8 +142,8 @@ public class BlobWriteStream implements WriteStream<Buffer> {
         chunkBuffer.setBuffer(position, data);
         position += length;
         bytesHandled += length;
-        if (position > chunkSize) {
-            isBufferFull = true;
+        if (position > chunkSize && partsInFlight < maxParallelParts) {
+            uploadPart();
         }
 
         handler.handle(Future.succeededFuture());
@@ -126,41 +151,53 @@ public class BlobWriteStream implements WriteStream<Buffer> {
 
     @Override
     public void end(Handler<AsyncResult<Void>> handler) {
-        Future<Void> result = vertx.executeBlocking(() -> {
+        Future<?> uploaded;
+        synchronized (this) {
+            uploaded = Future.join(new ArrayList<>(partUploads));
+        }
+
+        Future<Void> result = uploaded.transform(ignore -> uploadLastPart()).transform(ignore -> Future.<Void>fromCompletionStage(storage.executeAsync(() -> {
             synchronized (BlobWriteStream.this) {
                 if (exception != null) {
                     throw new RuntimeException(exception);
                 }
 
-                ByteBuf lastChunk = chunkBuffer.slice(0, position).getByteBuf();
                 if (mpu == null) {
                     log.info("Resource is too small for multipart upload, sending as a regular blob");
+                    ByteBuf lastChunk = chunkBuffer.slice(0, position).getByteBuf();
                     try (InputStream chunkStream = new ByteBufInputStream(lastChunk)) {
                         metadata = resourceService.putFile(resource, chunkStream.readAllBytes(), etag, contentType, author);
                     }
                 } else {
-                    if (position != 0) {
-                        try (Payload payload = bufferToPayload(lastChunk.duplicate())) {
-                            MultipartPart part = storage.storeMultipartPart(mpu, ++chunkNumber, payload);
-                            parts.add(part);
-                        }
-                    }
-
-                    String newEtag = etagBuilder.append(lastChunk.nioBuffer()).build();
+                    parts.sort(Comparator.comparingInt(MultipartPart::partNumber));
+                    String newEtag = etagBuilder.build();
+                    String contentHash = (contentHashBuilder == null) ? null : contentHashBuilder.build();
                     ResourceService.MultipartData multipartData = new ResourceService.MultipartData(
-                            mpu, parts, contentType, bytesHandled, newEtag);
+                            mpu.result(), parts, contentType, bytesHandled, newEtag, contentId, contentHash);
                     metadata = resourceService.finishFileUpload(resource, multipartData, etag, author);
                     log.info("Multipart upload committed, bytes handled {}", bytesHandled);
                 }
 
                 return null;
             }
-        });
+        }), context));
         if (handler != null) {
             result.onComplete(handler);
         }
     }
 
+    /**
+     * Uploads the rest of the data as the last part once the other parts are uploaded.
+     */
+    private synchronized Future<?> uploadLastPart() {
+        if (exception != null || mpu == null || position == 0) {
+            return Future.succeededFuture();
+        }
+
+        uploadPart();
+        return Future.join(new ArrayList<>(partUploads));
+    }
+
     @Override
     public synchronized WriteStream<Buffer> setWriteQueueMaxSize(int maxSize) {
         assert maxSize > MIN_PART_SIZE_BYTES;
@@ -170,48 +207,104 @@ public class BlobWriteStream implements WriteStream<Buffer> {
 
     @Override
     public synchronized boolean writeQueueFull() {
-        return isBufferFull;
+        // the chunk is collected, but there is no free slot to upload it
+        return exception == null && position > chunkSize;
     }
 
     @Override
-    public WriteStream<Buffer> drainHandler(Handler<Void> handler) {
-        vertx.executeBlocking(() -> {
-            synchronized (BlobWriteStream.this) {
-                try {
-                    if (mpu == null) {
-                        mpu = storage.initMultipartUpload(resource.getAbsoluteFilePath(), contentType);
-                        etagBuilder = new EtagBuilder();
-                    }
+    public synchronized WriteStream<Buffer> drainHandler(Handler<Void> handler) {
+        this.drainHandler = handler;
+        return this;
+    }
 
-                    ByteBuf chunk = chunkBuffer.slice(0, position).getByteBuf();
-                    try (Payload payload = bufferToPayload(chunk.duplicate())) {
-                        MultipartPart part = storage.storeMultipartPart(mpu, ++chunkNumber, payload);
-                        parts.add(part);
-                    }
-                    etagBuilder.append(chunk.nioBuffer());
-                    position = 0;
-                    isBufferFull = false;
-                } catch (Throwable ex) {
-                    exception = ex;
-                } finally {
-                    if (handler != null) {
-                        handler.handle(null);
-                    }
-                }
+    /**
+     * Starts uploading the collected chunk as the next part and switches to a free buffer.
+     */
+    private void uploadPart() {
+        if (mpu == null) {
+            String path = ResourceService.getUploadPath(resource, contentId);
+            mpu = Future.fromCompletionStage(storage.initMultipartUploadAsync(path, contentType), context);
+        }
+
+        Buffer partBuffer = chunkBuffer;
+        ByteBuf chunk = partBuffer.slice(0, position).getByteBuf();
+        int partNumber = ++chunkNumber;
+        chunkBuffer = freeBuffers.isEmpty() ? Buffer.buffer(chunkSize) : freeBuffers.pop();
+        position = 0;
+        partsInFlight++;
+
+        Future<MultipartPart> upload = mpu.compose(multipartUpload -> {
+            Payload payload = bufferToPayload(chunk.duplicate());
+            return Future.fromCompletionStage(storage.storeMultipartPartAsync(multipartUpload, partNumber, payload), context)
+                    .onComplete(ignore -> payload.release());
+        });
+        etagChain = etagChain.compose(ignore -> vertx.executeBlocking(() -> {
+            etagBuilder.append(chunk.nioBuffer());
+            if (contentHashBuilder != null) {
+                contentHashBuilder.append(chunk.nioBuffer());
             }
             return null;
-        });
+        }, false));
 
-        return this;
+        Future<?> uploaded = Future.join(upload, etagChain).onComplete(result -> onPartUploaded(partBuffer, upload, result.cause()));
+        partUploads.add(uploaded);
     }
 
-    public synchronized void abortUpload(Throwable ex) {
-        if (mpu != null) {
-            storage.abortMultipartUpload(mpu);
+    private synchronized void onPartUploaded(Buffer partBuffer, Future<MultipartPart> upload, Throwable error) {
+        partsInFlight--;
+        freeBuffers.push(partBuffer);
+
+        if (error != null) {
+            if (exception == null) {
+                exception = error;
+            }
+        } else {
+            parts.add(upload.result());
+        }
+
+        if (exception == null && position > chunkSize) {
+            uploadPart();
         }
 
-        if (errorHandler != null) {
-            errorHandler.handle(ex);
+        Handler<Void> handler = drainHandler;
+        if (handler != null && !writeQueueFull()) {
+            drainHandler = null;
+            handler.handle(null);
+        }
+    }
+
+    public void abortUpload(Throwable ex) {
+        Future<?> uploaded;
+        Handler<Throwable> handler;
+        synchronized (this) {
+            if (exception == null) {
+                exception = ex;
+            }
+            uploaded = Future.join(new ArrayList<>(partUploads));
+            handler = errorHandler;
+        }
+
+        // the parts in flight are settled first, otherwise they might be left in the storage after the abortion
+        uploaded.onComplete(ignore -> {
+            Future<MultipartUpload> upload;
+            synchronized (this) {
+                upload = mpu;
+            }
+
+            if (upload != null && upload.succeeded()) {
+                storage.executeAsync(() -> {
+                    storage.abortMultipartUpload(upload.result());
+                    return null;
+                }).whenComplete((result, error) -> {
+                    if (error != null) {
+                        log.warn("Failed to abort multipart upload", error);
+                    }
+                });
+            }
+        });
+
+        if (handler != null) {
+            handler.handle(ex);
         }
 
         log.warn("Multipart upload aborted", ex);
@@ -2,6 +2,7 @@ package com.epam.aidial.core.server.vertx.stream;
 
 import io.netty.buffer.Unpooled;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
@@ -15,9 +16,13 @@ import io.vertx.core.streams.impl.PipeImpl;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
 
 /**
  * Implementation of vertx {@link io.vertx.core.streams.ReadStream} that wraps {@link java.io.InputStream}.
+ * The stream is read on the given executor if any, e.g. the blob storage I/O pool, otherwise on the worker pool.
  */
 @Slf4j
 public class InputStreamReader implements ReadStream<Buffer> {
@@ -25,6 +30,9 @@ public class InputStreamReader implements ReadStream<Buffer> {
     private static final int DEFAULT_READ_BUFFER_SIZE = 32768;
 
     private final Vertx vertx;
+    private final Context context;
+    @Nullable
+    private final Executor executor;
     private final InputStream in;
     private final InboundBuffer<Buffer> queue;
     private final int bufferSize;
@@ -34,13 +42,19 @@ public class InputStreamReader implements ReadStream<Buffer> {
     private Handler<Throwable> exceptionHandler;
 
     public InputStreamReader(Vertx vertx, InputStream stream) {
-        this(vertx, stream, DEFAULT_READ_BUFFER_SIZE);
+        this(vertx, stream, DEFAULT_READ_BUFFER_SIZE, null);
     }
 
-    public InputStreamReader(Vertx vertx, InputStream in, int bufferSize) {
+    public InputStreamReader(Vertx vertx, InputStream stream, @Nullable Executor executor) {
+        this(vertx, stream, DEFAULT_READ_BUFFER_SIZE, executor);
+    }
+
+    public InputStreamReader(Vertx vertx, InputStream in, int bufferSize, @Nullable Executor executor) {
         this.vertx = vertx;
+        this.context = vertx.getOrCreateContext();
+        this.executor = executor;
         this.in = in;
-        this.queue = new InboundBuffer<>(vertx.getOrCreateContext(), 32);
+        this.queue = new InboundBuffer<>(context, 32);
         this.bufferSize = bufferSize;
         queue.handler(buff -> {
             if (buff.length() > 0) {
@@ -97,14 +111,9 @@ public class InputStreamReader implements ReadStream<Buffer> {
     }
 
     private void readDataFromStream() {
-        Future<Buffer> fetchResult = vertx.executeBlocking(() -> {
-            try {
-                byte[] data = in.readNBytes(bufferSize);
-                return BufferImpl.buffer(Unpooled.wrappedBuffer(data));
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        });
+        Future<Buffer> fetchResult = executor == null
+                ? vertx.executeBlocking(this::readData)
+                : Future.fromCompletionStage(CompletableFuture.supplyAsync(this::readData, executor), context);
         fetchResult.onSuccess(buf -> {
             if (queue.write(buf) && buf.length() > 0) {
                 // load more data
@@ -121,6 +130,15 @@ public class InputStreamReader implements ReadStream<Buffer> {
         });
     }
 
+    private Buffer readData() {
+        try {
+            byte[] data = in.readNBytes(bufferSize);
+            return BufferImpl.buffer(Unpooled.wrappedBuffer(data));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void handleData(Buffer buff) {
         Handler<Buffer> handler;
         synchronized (this) {
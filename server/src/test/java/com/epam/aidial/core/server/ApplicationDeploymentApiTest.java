@@ -530,7 +530,9 @@ class ApplicationDeploymentApiTest extends ResourceBaseTest {
                     "url" : "files/2CZ9i2bcBACFts8JbBu3MdcF8sdwTbELGXeFRV6CVDwnPEU8vWC1y8PpXyRChHQvzt/app.py",
                     "nodeType" : "ITEM",
                     "resourceType" : "FILE",
+                    "createdAt" : "@ignore",
                     "updatedAt" : "@ignore",
+                    "author" : "EPM-RTC-GPT",
                     "contentLength" : 17,
                     "contentType" : "text/plain"
                   } ]
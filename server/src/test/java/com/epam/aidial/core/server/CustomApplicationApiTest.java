@@ -166,7 +166,9 @@ public class CustomApplicationApiTest extends ResourceBaseTest {
                  "url":"applications/3CcedGxCx23EwiVbVmscVktScRyf46KypuBQ65miviST/my-custom-application",
                  "nodeType":"ITEM",
                  "resourceType":"APPLICATION",
-                 "updatedAt":"@ignore"
+                 "createdAt":"@ignore",
+                 "updatedAt":"@ignore",
+                 "author":"EPM-RTC-GPT"
                  }]
                 }
                 """);
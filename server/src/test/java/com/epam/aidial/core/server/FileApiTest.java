@@ -10,6 +10,8 @@ import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.codec.BodyCodec;
 import io.vertx.ext.web.multipart.MultipartForm;
@@ -494,8 +496,10 @@ public class FileApiTest extends ResourceBaseTest {
                                         "nodeType" : "ITEM",
                                         "resourceType" : "FILE",
                                         "permissions" : [ "READ", "WRITE" ],
+                                        "createdAt" : "@ignore",
                                         "updatedAt" : "@ignore",
-                                        "contentLength" : 0,
+                                        "author" : "EPM-RTC-RAIL",
+                                        "contentLength" : 17,
                                         "contentType" : "text/custom"
                                       } ]
                                     }
@@ -614,7 +618,9 @@ public class FileApiTest extends ResourceBaseTest {
                                         "nodeType" : "ITEM",
                                         "resourceType" : "FILE",
                                         "permissions" : [ "READ", "WRITE" ],
+                                        "createdAt" : "@ignore",
                                         "updatedAt" : "@ignore",
+                                        "author" : "EPM-RTC-RAIL",
                                         "contentLength" : 7864320,
                                         "contentType" : "application/x-binary"
                                       } ]
@@ -854,8 +860,10 @@ public class FileApiTest extends ResourceBaseTest {
                                         "nodeType" : "ITEM",
                                         "resourceType" : "FILE",
                                         "permissions" : [ "READ", "WRITE" ],
+                                        "createdAt" : "@ignore",
                                         "updatedAt" : "@ignore",
-                                        "contentLength" : 0,
+                                        "author" : "EPM-RTC-GPT",
+                                        "contentLength" : 17,
                                         "contentType" : "text/custom"
                                       } ]
                                     }
@@ -1204,8 +1212,10 @@ public class FileApiTest extends ResourceBaseTest {
                                         "nodeType" : "ITEM",
                                         "resourceType" : "FILE",
                                         "permissions" : [ "READ", "WRITE" ],
+                                        "createdAt" : "@ignore",
                                         "updatedAt" : "@ignore",
-                                        "contentLength" : 0,
+                                        "author" : "EPM-RTC-RAIL",
+                                        "contentLength" : 17,
                                         "contentType" : "text/custom"
                                       }, {
                                         "name" : "folder1",
@@ -1315,8 +1325,10 @@ public class FileApiTest extends ResourceBaseTest {
                                         "nodeType" : "ITEM",
                                         "resourceType" : "FILE",
                                         "permissions" : [ "READ", "WRITE" ],
+                                        "createdAt" : "@ignore",
                                         "updatedAt" : "@ignore",
-                                        "contentLength" : 0,
+                                        "author" : "EPM-RTC-RAIL",
+                                        "contentLength" : 17,
                                         "contentType" : "image/png"
                                       } ]
                                     }
@@ -1683,6 +1695,67 @@ public class FileApiTest extends ResourceBaseTest {
         });
     }
 
+    @Test
+    public void testRangeDownload() {
+        String content = "0123456789";
+        Response response = upload(HttpMethod.PUT, "/v1/files/" + bucket + "/range.txt", null, content);
+        verify(response, 200);
+
+        response = send(HttpMethod.GET, "/v1/files/" + bucket + "/range.txt");
+        verify(response, 200, content);
+        assertEquals("bytes", response.headers().get("accept-ranges"));
+        String etag = response.headers().get("etag");
+
+        response = send(HttpMethod.GET, "/v1/files/" + bucket + "/range.txt", null, "", "Range", "bytes=2-4");
+        verify(response, 206, "234");
+        assertEquals("bytes 2-4/10", response.headers().get("content-range"));
+
+        response = send(HttpMethod.GET, "/v1/files/" + bucket + "/range.txt", null, "", "Range", "bytes=-3");
+        verify(response, 206, "789");
+        assertEquals("bytes 7-9/10", response.headers().get("content-range"));
+
+        response = send(HttpMethod.GET, "/v1/files/" + bucket + "/range.txt", null, "", "Range", "bytes=0-1,8-");
+        assertEquals(206, response.status());
+        assertTrue(response.headers().get("content-type").startsWith("multipart/byteranges; boundary="));
+        assertTrue(response.body().contains("content-range: bytes 0-1/10\r\n\r\n01\r\n"));
+        assertTrue(response.body().contains("content-range: bytes 8-9/10\r\n\r\n89\r\n"));
+
+        response = send(HttpMethod.GET, "/v1/files/" + bucket + "/range.txt", null, "", "Range", "bytes=10-");
+        assertEquals(416, response.status());
+        assertEquals("bytes */10", response.headers().get("content-range"));
+
+        // the whole file is served if it's changed
+        response = send(HttpMethod.GET, "/v1/files/" + bucket + "/range.txt", null, "", "Range", "bytes=2-4", "If-Range", "\"123\"");
+        verify(response, 200, content);
+
+        response = send(HttpMethod.GET, "/v1/files/" + bucket + "/range.txt", null, "", "Range", "bytes=2-4", "If-Range", etag);
+        verify(response, 206, "234");
+    }
+
+    @Test
+    public void testBigFileRangeDownload() {
+        // the file is not cached in Redis, so the ranges are read from the blob store
+        String content = "0123456789".repeat(150_000);
+        Response response = upload(HttpMethod.PUT, "/v1/files/" + bucket + "/big.txt", null, content);
+        verify(response, 200);
+        String etag = new JsonObject(response.body()).getString("etag");
+
+        response = send(HttpMethod.GET, "/v1/files/" + bucket + "/big.txt", null, "", "Range", "bytes=1000005-1000009");
+        verify(response, 206, "56789");
+        assertEquals("bytes 1000005-1000009/1500000", response.headers().get("content-range"));
+
+        response = send(HttpMethod.GET, "/v1/files/" + bucket + "/big.txt", null, "", "Range", "bytes=0-2,-2");
+        assertEquals(206, response.status());
+        assertTrue(response.body().contains("content-range: bytes 0-2/1500000\r\n\r\n012\r\n"));
+        assertTrue(response.body().contains("content-range: bytes 1499998-1499999/1500000\r\n\r\n89\r\n"));
+
+        response = send(HttpMethod.GET, "/v1/files/" + bucket + "/big.txt", null, "", "If-None-Match", etag);
+        assertEquals(304, response.status());
+
+        response = send(HttpMethod.GET, "/v1/files/" + bucket + "/big.txt");
+        verify(response, 200, content);
+    }
+
     private static MultipartForm generateMultipartForm(String fileName, String content) {
         return generateMultipartForm(fileName, content, "text/plan");
     }
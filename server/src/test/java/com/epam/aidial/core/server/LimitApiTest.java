@@ -3,6 +3,9 @@ package com.epam.aidial.core.server;
 import io.vertx.core.http.HttpMethod;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 public class LimitApiTest extends ResourceBaseTest {
 
     @Test
@@ -49,4 +52,47 @@ public class LimitApiTest extends ResourceBaseTest {
         Response response = send(HttpMethod.GET, "/v1/deployments/gpt-4/limits", null, null);
         verify(response, 403);
     }
+
+    @Test
+    public void testGetAllLimitStats_Filtered() {
+        Response response = send(HttpMethod.GET, "/v1/deployments/limits", "deployments=test-model-v1,gpt-4,unknown-model", null);
+        verifyJson(response, 200, """
+                {
+                  "test-model-v1": {
+                    "minuteTokenStats": {
+                      "total": %d,
+                      "used": %d
+                    },
+                    "dayTokenStats": {
+                      "total": %d,
+                      "used": %d
+                    },
+                    "weekTokenStats": {
+                      "total": %d,
+                      "used": %d
+                    },
+                    "monthTokenStats": {
+                      "total": %d,
+                      "used": %d
+                    },
+                    "hourRequestStats": {
+                      "total": %d,
+                      "used": %d
+                    },
+                    "dayRequestStats": {
+                      "total": %d,
+                      "used": %d
+                    }
+                  }
+                }
+                """.formatted(Long.MAX_VALUE, 0, Long.MAX_VALUE, 0, Long.MAX_VALUE, 0, Long.MAX_VALUE, 0, Long.MAX_VALUE, 0, Long.MAX_VALUE, 0));
+    }
+
+    @Test
+    public void testGetAllLimitStats_Success() {
+        Response response = send(HttpMethod.GET, "/v1/deployments/limits");
+        verify(response, 200);
+        assertTrue(response.body().contains("\"test-model-v1\""));
+        assertFalse(response.body().contains("\"gpt-4\""));
+    }
 }
@@ -970,7 +970,9 @@ class PublicationApiTest extends ResourceBaseTest {
                     "url" : "conversations/public/folder1/conversation1",
                     "nodeType" : "ITEM",
                     "resourceType" : "CONVERSATION",
+                    "createdAt" : "@ignore",
                     "updatedAt" : "@ignore",
+                    "author" : "EPM-RTC-GPT",
                     "permissions" : [ "READ" ]
                   } ]
                 }
@@ -1047,7 +1049,9 @@ class PublicationApiTest extends ResourceBaseTest {
                     "url" : "conversations/public/folder1/conversation1",
                     "nodeType" : "ITEM",
                     "resourceType" : "CONVERSATION",
+                    "createdAt" : "@ignore",
                     "updatedAt" : "@ignore",
+                    "author" : "EPM-RTC-GPT",
                     "permissions" : [ "READ", "WRITE" ]
                   }, {
                     "name" : "conversation2",
@@ -1056,7 +1060,9 @@ class PublicationApiTest extends ResourceBaseTest {
                     "url" : "conversations/public/folder2/conversation2",
                     "nodeType" : "ITEM",
                     "resourceType" : "CONVERSATION",
+                    "createdAt" : "@ignore",
                     "updatedAt" : "@ignore",
+                    "author" : "EPM-RTC-GPT",
                     "permissions" : [ "READ", "WRITE" ]
                   } ]
                 }
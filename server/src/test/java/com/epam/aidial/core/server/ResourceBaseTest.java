@@ -152,6 +152,7 @@ public class ResourceBaseTest {
                         "syncPeriod": 1000,
                         "syncDelay": 1000,
                         "cacheExpiration": 1000,
+                        "nearCacheSize": 1048576,
                         "heartbeatPeriod": 1000
                       },
                       "applications": {
@@ -0,0 +1,24 @@
+package com.epam.aidial.core.server.controller;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DownloadFileControllerTest {
+
+    @Test
+    public void testAcceptedEncodings() {
+        assertEquals(Set.of(), DownloadFileController.acceptedEncodings(null));
+        assertEquals(Set.of("gzip", "zstd"), DownloadFileController.acceptedEncodings("gzip, zstd;q=0.9, br;q=0"));
+        assertEquals(Set.of("gzip"), DownloadFileController.acceptedEncodings("GZIP;q=1, zstd;q=0.0"));
+    }
+
+    @Test
+    public void testAcceptedEncodingsWithWildcard() {
+        assertEquals(Set.of("gzip", "zstd"), DownloadFileController.acceptedEncodings("*"));
+        assertEquals(Set.of("gzip", "br"), DownloadFileController.acceptedEncodings("br, *;q=0.5, zstd;q=0"));
+        assertEquals(Set.of(), DownloadFileController.acceptedEncodings("*;q=0"));
+    }
+}
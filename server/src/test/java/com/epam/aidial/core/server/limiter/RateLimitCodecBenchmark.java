@@ -0,0 +1,61 @@
+package com.epam.aidial.core.server.limiter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the size and the throughput of the JSON and the binary state of the token rate limits of generated users.
+ * Run it with the main method, it is not a part of the test suite.
+ */
+public class RateLimitCodecBenchmark {
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        List<TokenRateLimit> rateLimits = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            rateLimits.add(rateLimit(random, 1 + random.nextInt(500)));
+        }
+
+        List<RateLimitCodec> codecs = List.of(new RateLimitCodec(false), new RateLimitCodec(true));
+        for (int i = 0; i < 3; i++) {
+            for (RateLimitCodec codec : codecs) {
+                run(codec, rateLimits, i == 2);
+            }
+        }
+    }
+
+    private static void run(RateLimitCodec codec, List<TokenRateLimit> rateLimits, boolean print) {
+        long size = 0;
+        long encodingTime = 0;
+        long decodingTime = 0;
+
+        for (TokenRateLimit rateLimit : rateLimits) {
+            long start = System.nanoTime();
+            byte[] state = codec.encode(rateLimit);
+            long middle = System.nanoTime();
+            codec.decodeTokenLimit(state);
+            long end = System.nanoTime();
+
+            size += state.length;
+            encodingTime += middle - start;
+            decodingTime += end - middle;
+        }
+
+        if (print) {
+            System.out.printf("%-24s size: %7.1f B encoding: %6.2f us decoding: %6.2f us%n", codec.contentType(),
+                    (double) size / rateLimits.size(), encodingTime / 1000.0 / rateLimits.size(),
+                    decodingTime / 1000.0 / rateLimits.size());
+        }
+    }
+
+    private static TokenRateLimit rateLimit(Random random, int requests) {
+        TokenRateLimit rateLimit = new TokenRateLimit();
+        long timestamp = RateWindow.MONTH.window() + random.nextInt(1000000);
+        for (int i = 0; i < requests; i++) {
+            timestamp += random.nextInt(600_000);
+            rateLimit.add(timestamp, 100 + random.nextInt(4000));
+        }
+        return rateLimit;
+    }
+}
@@ -0,0 +1,130 @@
+package com.epam.aidial.core.server.limiter;
+
+import com.epam.aidial.core.server.data.ItemLimitStats;
+import com.epam.aidial.core.server.data.LimitStats;
+import com.epam.aidial.core.server.util.ProxyUtil;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimitCodecTest {
+
+    private static final long START = RateWindow.MONTH.window();
+
+    private final RateLimitCodec codec = new RateLimitCodec(true);
+
+    @Test
+    void testTokenLimitRoundTrip() {
+        TokenRateLimit expected = new TokenRateLimit();
+        long timestamp = START;
+        for (int i = 0; i < 1000; i++) {
+            timestamp += ThreadLocalRandom.current().nextLong(60_000);
+            expected.add(timestamp, ThreadLocalRandom.current().nextLong(10_000));
+        }
+
+        TokenRateLimit actual = codec.decodeTokenLimit(codec.encode(expected));
+
+        assertBucketEquals(expected.getMinute(), actual.getMinute());
+        assertBucketEquals(expected.getDay(), actual.getDay());
+        assertBucketEquals(expected.getWeek(), actual.getWeek());
+        assertBucketEquals(expected.getMonth(), actual.getMonth());
+    }
+
+    @Test
+    void testRequestLimitRoundTrip() {
+        RequestRateLimit expected = new RequestRateLimit();
+        long timestamp = START;
+        for (int i = 0; i < 1000; i++) {
+            timestamp += ThreadLocalRandom.current().nextLong(600_000);
+            expected.add(timestamp, 1);
+        }
+
+        RequestRateLimit actual = codec.decodeRequestLimit(codec.encode(expected));
+
+        assertBucketEquals(expected.getHour(), actual.getHour());
+        assertBucketEquals(expected.getDay(), actual.getDay());
+    }
+
+    @Test
+    void testEmptyLimit() {
+        assertNull(codec.decodeTokenLimit(null));
+        assertNull(codec.decodeRequestLimit(new byte[0]));
+
+        TokenRateLimit actual = codec.decodeTokenLimit(codec.encode(new TokenRateLimit()));
+        assertBucketEquals(new TokenRateLimit().getMinute(), actual.getMinute());
+
+        actual.add(START, 10);
+        assertEquals(10, actual.getMonth().getSum());
+    }
+
+    @Test
+    void testJsonMigration() {
+        TokenRateLimit expected = new TokenRateLimit();
+        expected.add(START, 100);
+        expected.add(START + 90_000, 50);
+
+        TokenRateLimit migrated = codec.decodeTokenLimit(ProxyUtil.convertToString(expected).getBytes(StandardCharsets.UTF_8));
+        TokenRateLimit actual = codec.decodeTokenLimit(codec.encode(migrated));
+
+        assertBucketEquals(expected.getMinute(), actual.getMinute());
+        assertBucketEquals(expected.getMonth(), actual.getMonth());
+        assertEquals(toStats(expected, START + 100_000), toStats(actual, START + 100_000));
+    }
+
+    @Test
+    void testEncodingIsCompact() {
+        TokenRateLimit rateLimit = new TokenRateLimit();
+        rateLimit.add(START, 123_456);
+        rateLimit.add(START + 3_600_000, 7_890);
+
+        byte[] json = new RateLimitCodec(false).encode(rateLimit);
+        byte[] binary = codec.encode(rateLimit);
+
+        assertTrue(binary.length * 3 < json.length, "binary: " + binary.length + ", json: " + json.length);
+    }
+
+    @Test
+    void testJsonIsWrittenUntilBinaryIsEnabled() {
+        RateLimitCodec jsonCodec = new RateLimitCodec(false);
+        RequestRateLimit expected = new RequestRateLimit();
+        expected.add(START, 3);
+
+        byte[] json = jsonCodec.encode(expected);
+        assertEquals('{', json[0]);
+        assertEquals(RateLimitCodec.JSON_CONTENT_TYPE, jsonCodec.contentType());
+
+        // the state written by the nodes which have binary state enabled is decoded by the others during the upgrade
+        RequestRateLimit actual = jsonCodec.decodeRequestLimit(codec.encode(expected));
+        assertBucketEquals(expected.getDay(), actual.getDay());
+        assertBucketEquals(expected.getDay(), codec.decodeRequestLimit(json).getDay());
+    }
+
+    @Test
+    void testUnsupportedVersion() {
+        assertThrows(IllegalArgumentException.class, () -> codec.decodeRequestLimit(new byte[] {2}));
+    }
+
+    private static void assertBucketEquals(RateBucket expected, RateBucket actual) {
+        assertEquals(expected.getStart(), actual.getStart());
+        assertEquals(expected.getEnd(), actual.getEnd());
+        assertEquals(expected.getSum(), actual.getSum());
+        assertArrayEquals(expected.getSums(), actual.getSums());
+    }
+
+    private static LimitStats toStats(TokenRateLimit rateLimit, long timestamp) {
+        LimitStats stats = new LimitStats();
+        stats.setMinuteTokenStats(new ItemLimitStats());
+        stats.setDayTokenStats(new ItemLimitStats());
+        stats.setWeekTokenStats(new ItemLimitStats());
+        stats.setMonthTokenStats(new ItemLimitStats());
+        rateLimit.update(timestamp, stats);
+        return stats;
+    }
+}
@@ -19,6 +19,8 @@ import com.epam.aidial.core.storage.service.TimerService;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+import org.jclouds.blobstore.domain.internal.PageSetImpl;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -41,7 +43,10 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -64,6 +69,8 @@ public class RateLimiterTest {
     @Mock
     private HttpServerRequest request;
 
+    private ResourceService resourceService;
+
     private RateLimiter rateLimiter;
 
     @BeforeAll
@@ -103,11 +110,24 @@ public class RateLimiterTest {
         for (String key : keys.getKeys()) {
             keys.delete(key);
         }
+        // the folder index of a new resource is built from the empty blob store
+        lenient().when(blobStorage.list(any(), any(), anyInt(), anyBoolean())).thenReturn(new PageSetImpl<>(List.of(), null));
         LockService lockService = new LockService(redissonClient, null);
-        ResourceService.Settings settings = new ResourceService.Settings(64 * 1048576, 1048576, 60000, 120000, 4096, 300000, 256);
-        ResourceService resourceService = new ResourceService(mock(TimerService.class), redissonClient, blobStorage,
+        ResourceService.Settings settings = ResourceService.Settings.builder()
+                .maxSize(64 * 1048576)
+                .maxSizeToCache(1048576)
+                .syncPeriod(60000)
+                .syncDelay(120000)
+                .syncBatch(4096)
+                .cacheExpiration(300000)
+                .compressionMinSize(256)
+                .syncParallelism(4)
+                .syncShards(16)
+                .build();
+        resourceService = new ResourceService(mock(TimerService.class), redissonClient, blobStorage,
                 lockService, settings, null);
-        rateLimiter = new RateLimiter(vertx, resourceService);
+        // the usage is written after every request to check it right away
+        rateLimiter = new RateLimiter(vertx, resourceService, new JsonObject().put("tokenFlushPeriod", 0));
     }
 
     @Test
@@ -455,4 +475,172 @@ public class RateLimiterTest {
 
     }
 
+    @Test
+    public void testLimit_LocalMode() {
+        Config config = new Config();
+        Role role = new Role();
+        Limit limit = new Limit();
+        limit.setMinute(100);
+        role.setLimits(Map.of("model", limit));
+        config.getRoles().put("role1", role);
+
+        ApiKeyData apiKeyData = new ApiKeyData();
+        ProxyContext proxyContext = new ProxyContext(null, config, request, apiKeyData,
+                new ExtractedClaims("sub", List.of("role1"), "user-hash", Map.of(), null, null), "trace-id", "span-id");
+        Model model = new Model();
+        model.setName("model");
+        proxyContext.setDeployment(model);
+
+        when(vertx.executeBlocking(any(Callable.class), eq(false))).thenAnswer(invocation -> {
+            Callable<?> callable = invocation.getArgument(0);
+            return Future.succeededFuture(callable.call());
+        });
+
+        JsonObject settings = new JsonObject().put("local", new JsonObject().put("enabled", true));
+        RateLimiter node1 = new RateLimiter(vertx, resourceService, settings);
+        RateLimiter node2 = new RateLimiter(vertx, resourceService, settings);
+
+        TokenUsage tokenUsage = new TokenUsage();
+        tokenUsage.setTotalTokens(90);
+        proxyContext.setTokenUsage(tokenUsage);
+
+        Future<RateLimitResult> checkLimitFuture = node1.limit(proxyContext, model);
+        assertEquals(HttpStatus.OK, checkLimitFuture.result().status());
+        assertEquals(HttpStatus.OK, node2.limit(proxyContext, model).result().status());
+
+        assertNull(node1.increase(proxyContext, model).cause());
+        assertEquals(HttpStatus.OK, node1.limit(proxyContext, model).result().status());
+
+        assertNull(node1.increase(proxyContext, model).cause());
+        checkLimitFuture = node1.limit(proxyContext, model);
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, checkLimitFuture.result().status());
+
+        // the token lease of node1 is exhausted, so its usage is reconciled before the next request is admitted
+        LimitStats reconciledStats = rateLimiter.getLimitStats(model, proxyContext).result();
+        assertEquals(180, reconciledStats.getMinuteTokenStats().getUsed());
+        // the usage of node2 is not visible to other nodes until it's reconciled
+        assertEquals(2, reconciledStats.getHourRequestStats().getUsed());
+        assertEquals(HttpStatus.OK, node2.limit(proxyContext, model).result().status());
+
+        node1.flush();
+        node2.flush();
+
+        LimitStats limitStats = rateLimiter.getLimitStats(model, proxyContext).result();
+        assertEquals(180, limitStats.getMinuteTokenStats().getUsed());
+        assertEquals(4, limitStats.getHourRequestStats().getUsed());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, node2.limit(proxyContext, model).result().status());
+    }
+
+    @Test
+    public void testIncrease_CoalescedTokenUsage() {
+        Config config = new Config();
+        ApiKeyData apiKeyData = new ApiKeyData();
+        ProxyContext proxyContext = new ProxyContext(null, config, request, apiKeyData,
+                new ExtractedClaims("sub", List.of("role1"), "user-hash", Map.of(), null, null), "trace-id", "span-id");
+        Model model = new Model();
+        model.setName("model");
+        proxyContext.setDeployment(model);
+
+        when(vertx.executeBlocking(any(Callable.class), eq(false))).thenAnswer(invocation -> {
+            Callable<?> callable = invocation.getArgument(0);
+            return Future.succeededFuture(callable.call());
+        });
+
+        RateLimiter coalescingRateLimiter = new RateLimiter(vertx, resourceService, new JsonObject().put("tokenFlushPeriod", 1000));
+
+        TokenUsage tokenUsage = new TokenUsage();
+        tokenUsage.setTotalTokens(90);
+        proxyContext.setTokenUsage(tokenUsage);
+
+        assertNull(coalescingRateLimiter.increase(proxyContext, model).cause());
+        assertNull(coalescingRateLimiter.increase(proxyContext, model).cause());
+
+        // the usage is buffered until the next flush
+        assertEquals(0, rateLimiter.getLimitStats(model, proxyContext).result().getMinuteTokenStats().getUsed());
+
+        coalescingRateLimiter.flush();
+
+        LimitStats limitStats = rateLimiter.getLimitStats(model, proxyContext).result();
+        assertEquals(180, limitStats.getMinuteTokenStats().getUsed());
+        assertEquals(180, limitStats.getMonthTokenStats().getUsed());
+    }
+
+    @Test
+    public void testGetLimitStats_ConfigReloaded() {
+        Role role = new Role();
+        Limit limit = new Limit();
+        limit.setMinute(100);
+        role.setLimits(Map.of("model", limit));
+        Config config = new Config();
+        config.getRoles().put("role1", role);
+
+        ApiKeyData apiKeyData = new ApiKeyData();
+        ExtractedClaims claims = new ExtractedClaims("sub", List.of("role1"), "user-hash", Map.of(), null, null);
+        ProxyContext proxyContext = new ProxyContext(null, config, request, apiKeyData, claims, "trace-id", "span-id");
+        Model model = new Model();
+        model.setName("model");
+        proxyContext.setDeployment(model);
+
+        when(vertx.executeBlocking(any(Callable.class), eq(false))).thenAnswer(invocation -> {
+            Callable<?> callable = invocation.getArgument(0);
+            return Future.succeededFuture(callable.call());
+        });
+
+        assertEquals(100, rateLimiter.getLimitStats(model, proxyContext).result().getMinuteTokenStats().getTotal());
+        // the effective limit is reused while the config is the same
+        assertEquals(100, rateLimiter.getLimitStats(model, proxyContext).result().getMinuteTokenStats().getTotal());
+
+        role = new Role();
+        limit = new Limit();
+        limit.setMinute(200);
+        role.setLimits(Map.of("model", limit));
+        Config reloaded = new Config();
+        reloaded.getRoles().put("role1", role);
+        ProxyContext reloadedContext = new ProxyContext(null, reloaded, request, apiKeyData, claims, "trace-id", "span-id");
+        reloadedContext.setDeployment(model);
+
+        assertEquals(200, rateLimiter.getLimitStats(model, reloadedContext).result().getMinuteTokenStats().getTotal());
+        // the requests started before the reload keep the limits of the previous config
+        assertEquals(100, rateLimiter.getLimitStats(model, proxyContext).result().getMinuteTokenStats().getTotal());
+        assertEquals(200, rateLimiter.getLimitStats(model, reloadedContext).result().getMinuteTokenStats().getTotal());
+    }
+
+    @Test
+    public void testGetLimitStats_Bulk() {
+        Role role = new Role();
+        Limit limit = new Limit();
+        limit.setMinute(100);
+        role.setLimits(Map.of("model1", limit));
+        Config config = new Config();
+        config.getRoles().put("role1", role);
+
+        ApiKeyData apiKeyData = new ApiKeyData();
+        ProxyContext proxyContext = new ProxyContext(null, config, request, apiKeyData,
+                new ExtractedClaims("sub", List.of("role1"), "user-hash", Map.of(), null, null), "trace-id", "span-id");
+        Model model1 = new Model();
+        model1.setName("model1");
+        Model model2 = new Model();
+        model2.setName("model2");
+        proxyContext.setDeployment(model1);
+
+        when(vertx.executeBlocking(any(Callable.class), eq(false))).thenAnswer(invocation -> {
+            Callable<?> callable = invocation.getArgument(0);
+            return Future.succeededFuture(callable.call());
+        });
+
+        TokenUsage tokenUsage = new TokenUsage();
+        tokenUsage.setTotalTokens(90);
+        proxyContext.setTokenUsage(tokenUsage);
+        assertEquals(HttpStatus.OK, rateLimiter.limit(proxyContext, model1).result().status());
+        assertNull(rateLimiter.increase(proxyContext, model1).cause());
+
+        Map<String, LimitStats> limitStats = rateLimiter.getLimitStats(List.of(model1, model2), proxyContext).result();
+
+        assertEquals(List.of("model1", "model2"), List.copyOf(limitStats.keySet()));
+        assertEquals(100, limitStats.get("model1").getMinuteTokenStats().getTotal());
+        assertEquals(90, limitStats.get("model1").getMinuteTokenStats().getUsed());
+        assertEquals(1, limitStats.get("model1").getHourRequestStats().getUsed());
+        assertEquals(0, limitStats.get("model2").getMinuteTokenStats().getUsed());
+        assertEquals(0, limitStats.get("model2").getHourRequestStats().getUsed());
+    }
 }
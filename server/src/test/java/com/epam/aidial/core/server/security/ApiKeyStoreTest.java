@@ -11,6 +11,7 @@ import com.epam.aidial.core.storage.service.ResourceService;
 import com.epam.aidial.core.storage.service.TimerService;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
 import org.apache.commons.lang3.mutable.MutableObject;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -26,16 +27,20 @@ import org.redisson.config.ConfigSupport;
 import redis.embedded.RedisServer;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.function.BooleanSupplier;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -48,7 +53,6 @@ public class ApiKeyStoreTest {
     @Mock
     private Vertx vertx;
 
-    @Mock
     private EncryptionService encryptionService;
 
     @Mock
@@ -56,6 +60,10 @@ public class ApiKeyStoreTest {
 
     private ApiKeyStore store;
 
+    private ApiKeyStore anotherStore;
+
+    private ResourceService resourceService;
+
     @BeforeAll
     public static void beforeAll() throws IOException {
         redisServer = RedisServer.newRedisServer()
@@ -94,10 +102,22 @@ public class ApiKeyStoreTest {
             keys.delete(key);
         }
         LockService lockService = new LockService(redissonClient, null);
-        ResourceService.Settings settings = new ResourceService.Settings(64 * 1048576, 1048576, 60000, 120000, 4096, 300000, 256);
-        ResourceService resourceService = new ResourceService(mock(TimerService.class), redissonClient, blobStorage,
+        ResourceService.Settings settings = ResourceService.Settings.builder()
+                .maxSize(64 * 1048576)
+                .maxSizeToCache(1048576)
+                .syncPeriod(60000)
+                .syncDelay(120000)
+                .syncBatch(4096)
+                .cacheExpiration(300000)
+                .compressionMinSize(256)
+                .syncParallelism(4)
+                .syncShards(16)
+                .build();
+        resourceService = new ResourceService(mock(TimerService.class), redissonClient, blobStorage,
                 lockService, settings, null);
-        store = new ApiKeyStore(resourceService, vertx);
+        encryptionService = new EncryptionService(new JsonObject().put("secret", "secret").put("key", "key"));
+        store = new ApiKeyStore(resourceService, redissonClient, vertx, encryptionService, new JsonObject());
+        anotherStore = new ApiKeyStore(resourceService, redissonClient, vertx, encryptionService, new JsonObject());
     }
 
     @Test
@@ -200,4 +220,135 @@ public class ApiKeyStoreTest {
         assertNotNull(res1);
         assertEquals(ref.getValue(), res1.result());
     }
+
+    @Test
+    public void testPerRequestApiKeyIsNotStoredInBlobStorage() {
+        when(vertx.executeBlocking(any(Callable.class), eq(false))).thenAnswer(invocation -> {
+            Callable callable = invocation.getArgument(0);
+            return Future.succeededFuture(callable.call());
+        });
+        ApiKeyData apiKeyData = new ApiKeyData();
+        store.assignPerRequestApiKey(apiKeyData);
+
+        RKeys keys = redissonClient.getKeys();
+        String redisKey = "api_key:" + apiKeyData.getPerRequestKey();
+        assertEquals(1, keys.countExists(redisKey));
+        assertTrue(keys.remainTimeToLive(redisKey) > 0);
+
+        store.updatePerRequestApiKey(apiKeyData.getPerRequestKey(), json -> json);
+        assertTrue(keys.remainTimeToLive(redisKey) > 0);
+
+        assertTrue(store.invalidatePerRequestApiKey(apiKeyData).result());
+        assertEquals(0, keys.countExists(redisKey));
+
+        verifyNoInteractions(blobStorage);
+    }
+
+    @Test
+    public void testInterceptorHopKeys() {
+        when(vertx.executeBlocking(any(Callable.class), eq(false))).thenAnswer(invocation -> {
+            Callable callable = invocation.getArgument(0);
+            return Future.succeededFuture(callable.call());
+        });
+        ApiKeyData root = new ApiKeyData();
+        root.setInterceptors(List.of("interceptor1", "interceptor2"));
+        root.setInterceptorIndex(0);
+        store.assignPerRequestApiKey(root, new ApiKeyData());
+
+        ApiKeyData hop1 = new ApiKeyData();
+        hop1.setInterceptors(List.of("interceptor1", "interceptor2"));
+        hop1.setInterceptorIndex(1);
+        store.assignPerRequestApiKey(hop1, root);
+
+        ApiKeyData hop2 = new ApiKeyData();
+        store.assignPerRequestApiKey(hop2, hop1);
+        // the hops are kept in the hash of the root key only
+        assertEquals(1, redissonClient.getKeys().count());
+
+        assertEquals(hop2, store.getApiKeyData(hop2.getPerRequestKey()).result());
+        assertEquals(hop2, anotherStore.getApiKeyData(hop2.getPerRequestKey()).result());
+        assertTrue(store.getApiKeyData(root.getPerRequestKey() + ".2.unknown").failed());
+
+        store.updatePerRequestApiKey(hop1.getPerRequestKey(), json -> {
+            ApiKeyData current = ProxyUtil.convertToObject(json, ApiKeyData.class);
+            current.getAttachedFiles().put("a/b/c/file.txt", new AutoSharedData(ResourceAccessType.READ_ONLY));
+            return ProxyUtil.convertToString(current);
+        });
+        assertEquals(1, store.getApiKeyData(hop1.getPerRequestKey()).result().getAttachedFiles().size());
+        assertEquals(root, store.getApiKeyData(root.getPerRequestKey()).result());
+
+        // hop keys stay valid until the root key is invalidated
+        assertTrue(store.invalidatePerRequestApiKey(hop2).result());
+        assertNotNull(store.getApiKeyData(hop2.getPerRequestKey()).result());
+
+        assertTrue(store.invalidatePerRequestApiKey(root).result());
+        assertTrue(store.getApiKeyData(hop1.getPerRequestKey()).failed());
+        assertTrue(store.getApiKeyData(hop2.getPerRequestKey()).failed());
+        assertTrue(anotherStore.getApiKeyData(hop2.getPerRequestKey()).failed());
+        assertTrue(redissonClient.getKeys().getKeysStream().noneMatch(key -> key.startsWith("api_key:")));
+    }
+
+    @Test
+    public void testHopKeyDoesNotRevealRootKey() {
+        when(vertx.executeBlocking(any(Callable.class), eq(false))).thenAnswer(invocation -> {
+            Callable callable = invocation.getArgument(0);
+            return Future.succeededFuture(callable.call());
+        });
+        ApiKeyData root = new ApiKeyData();
+        root.setInterceptors(List.of("interceptor1"));
+        root.setInterceptorIndex(0);
+        store.assignPerRequestApiKey(root, new ApiKeyData());
+
+        ApiKeyData hop = new ApiKeyData();
+        store.assignPerRequestApiKey(hop, root);
+        String rootKey = root.getPerRequestKey();
+        String hopKey = hop.getPerRequestKey();
+
+        assertFalse(hopKey.contains(rootKey));
+        for (int i = 1; i < hopKey.length(); i++) {
+            assertTrue(anotherStore.getApiKeyData(hopKey.substring(0, i)).failed());
+        }
+        // the hop key signed with another secret is not resolved to the root key
+        EncryptionService anotherSecret = new EncryptionService(new JsonObject().put("secret", "another").put("key", "key"));
+        ApiKeyStore foreignStore = new ApiKeyStore(resourceService, redissonClient, vertx, anotherSecret, new JsonObject());
+        assertTrue(foreignStore.getApiKeyData(hopKey).failed());
+        assertEquals(hop, anotherStore.getApiKeyData(hopKey).result());
+    }
+
+    @Test
+    public void testPerRequestApiKeyCache() throws InterruptedException {
+        when(vertx.executeBlocking(any(Callable.class), eq(false))).thenAnswer(invocation -> {
+            Callable callable = invocation.getArgument(0);
+            return Future.succeededFuture(callable.call());
+        });
+        ApiKeyData apiKeyData = new ApiKeyData();
+        store.assignPerRequestApiKey(apiKeyData);
+        String key = apiKeyData.getPerRequestKey();
+        assertEquals(apiKeyData, anotherStore.getApiKeyData(key).result());
+
+        store.updatePerRequestApiKey(key, json -> {
+            ApiKeyData current = ProxyUtil.convertToObject(json, ApiKeyData.class);
+            current.getAttachedFiles().put("a/b/c/file.txt", new AutoSharedData(ResourceAccessType.READ_ONLY));
+            return ProxyUtil.convertToString(current);
+        });
+        // the node which updates the key sees the change right away
+        assertEquals(1, store.getApiKeyData(key).result().getAttachedFiles().size());
+        // other nodes see the change once the invalidation message is delivered
+        awaitTrue(() -> anotherStore.getApiKeyData(key).result().getAttachedFiles().size() == 1);
+
+        // the cached key is resolved without Redis
+        redissonClient.getKeys().delete("api_key:" + key);
+        assertNotNull(anotherStore.getApiKeyData(key).result());
+
+        store.invalidatePerRequestApiKey(apiKeyData);
+        awaitTrue(() -> anotherStore.getApiKeyData(key).failed());
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condition is not met in time");
+            Thread.sleep(10);
+        }
+    }
 }
@@ -3,10 +3,6 @@ package com.epam.aidial.core.server.token;
 import com.epam.aidial.core.server.ProxyContext;
 import com.epam.aidial.core.server.data.ApiKeyData;
 import com.epam.aidial.core.server.security.EncryptionService;
-import com.epam.aidial.core.storage.blobstore.BlobStorage;
-import com.epam.aidial.core.storage.service.LockService;
-import com.epam.aidial.core.storage.service.ResourceService;
-import com.epam.aidial.core.storage.service.TimerService;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import org.junit.jupiter.api.AfterAll;
@@ -32,6 +28,7 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -48,9 +45,6 @@ public class TokenStatsTrackerTest {
     @Mock
     private EncryptionService encryptionService;
 
-    @Mock
-    private BlobStorage blobStorage;
-
     @InjectMocks
     private TokenStatsTracker tracker;
 
@@ -91,11 +85,7 @@ public class TokenStatsTrackerTest {
         for (String key : keys.getKeys()) {
             keys.delete(key);
         }
-        LockService lockService = new LockService(redissonClient, null);
-        ResourceService.Settings settings = new ResourceService.Settings(64 * 1048576, 1048576, 60000, 120000, 4096, 300000, 256);
-        ResourceService resourceService = new ResourceService(mock(TimerService.class), redissonClient, blobStorage,
-                lockService, settings, null);
-        tracker = new TokenStatsTracker(vertx, resourceService);
+        tracker = new TokenStatsTracker(vertx, redissonClient, null);
     }
 
     /**
@@ -159,4 +149,70 @@ public class TokenStatsTrackerTest {
         assertNull(tracker.getTokenStats(chatBackend).result());
     }
 
+    @Test
+    public void testNestedModelCalls() {
+        when(vertx.executeBlocking(any(Callable.class), eq(false))).thenAnswer(invocation -> {
+            Callable<?> callable = invocation.getArgument(0);
+            return Future.succeededFuture(callable.call());
+        });
+
+        final String traceId = "trace-id";
+        ProxyContext chatBackend = mockSpan(traceId, "chat", null);
+        ProxyContext app = mockSpan(traceId, "app", "chat");
+        ProxyContext model1 = mockSpan(traceId, "model1", "app");
+        ProxyContext model2 = mockSpan(traceId, "model2", "app");
+
+        tracker.startSpan(chatBackend);
+        tracker.startSpan(app);
+        tracker.startSpan(model1);
+        tracker.startSpan(model2);
+
+        TokenUsage usage1 = new TokenUsage();
+        usage1.setTotalTokens(30);
+        usage1.setPromptTokens(10);
+        usage1.setCompletionTokens(20);
+        usage1.setCost(new BigDecimal("0.1"));
+        usage1.setAggCost(new BigDecimal("0.1"));
+        when(model1.getTokenUsage()).thenReturn(usage1);
+
+        TokenUsage usage2 = new TokenUsage();
+        usage2.setTotalTokens(5);
+        usage2.setPromptTokens(4);
+        usage2.setCompletionTokens(1);
+        usage2.setCost(new BigDecimal("0.20"));
+        usage2.setAggCost(new BigDecimal("0.20"));
+        when(model2.getTokenUsage()).thenReturn(usage2);
+
+        tracker.updateModelStats(model1);
+        tracker.updateModelStats(model2);
+
+        assertEquals(usage2, tracker.getTokenStats(model2).result());
+
+        TokenUsage appUsage = tracker.getTokenStats(app).result();
+        assertEquals(35, appUsage.getTotalTokens());
+        assertEquals(14, appUsage.getPromptTokens());
+        assertEquals(21, appUsage.getCompletionTokens());
+        assertEquals(new BigDecimal("0.30"), appUsage.getAggCost());
+        assertNull(appUsage.getCost());
+
+        TokenUsage chatUsage = tracker.getTokenStats(chatBackend).result();
+        assertEquals(35, chatUsage.getTotalTokens());
+        assertEquals(new BigDecimal("0.30"), chatUsage.getAggCost());
+
+        tracker.endSpan(chatBackend);
+        assertNull(tracker.getTokenStats(app).result());
+    }
+
+    private static ProxyContext mockSpan(String traceId, String spanId, String parentSpanId) {
+        ProxyContext context = mock(ProxyContext.class);
+        lenient().when(context.getSpanId()).thenReturn(spanId);
+        lenient().when(context.getTraceId()).thenReturn(traceId);
+        lenient().when(context.getParentSpanId()).thenReturn(parentSpanId);
+        ApiKeyData apiKeyData = new ApiKeyData();
+        if (parentSpanId != null) {
+            apiKeyData.setPerRequestKey("key-" + spanId);
+        }
+        lenient().when(context.getApiKeyData()).thenReturn(apiKeyData);
+        return context;
+    }
 }
@@ -0,0 +1,178 @@
+package com.epam.aidial.core.server.vertx.stream;
+
+import com.epam.aidial.core.server.data.ResourceTypes;
+import com.epam.aidial.core.storage.blobstore.BlobStorage;
+import com.epam.aidial.core.storage.resource.ResourceDescriptor;
+import com.epam.aidial.core.storage.service.ResourceService;
+import com.epam.aidial.core.storage.util.EtagBuilder;
+import com.epam.aidial.core.storage.util.EtagHeader;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MultipartUpload;
+import org.jclouds.io.Payload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BlobWriteStreamTest {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final AtomicInteger uploading = new AtomicInteger();
+    private final AtomicInteger maxUploading = new AtomicInteger();
+
+    private Vertx vertx;
+    private ExecutorService executor;
+    private BlobStorage storage;
+    private ResourceService resourceService;
+    private MultipartUpload upload;
+    private ResourceDescriptor resource;
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+        executor = Executors.newCachedThreadPool();
+        storage = mock(BlobStorage.class);
+        resourceService = mock(ResourceService.class);
+        upload = mock(MultipartUpload.class);
+        resource = new ResourceDescriptor(ResourceTypes.FILE, "file.txt", List.of(), "bucket", "bucket/", false);
+
+        when(storage.initMultipartUpload(anyString(), anyString())).thenReturn(upload);
+        when(storage.storeMultipartPart(eq(upload), anyInt(), any())).thenAnswer(invocation -> {
+            maxUploading.accumulateAndGet(uploading.incrementAndGet(), Math::max);
+            try (InputStream stream = invocation.<Payload>getArgument(2).openStream()) {
+                long size = stream.readAllBytes().length;
+                Thread.sleep(100);
+                return MultipartPart.create(invocation.getArgument(1), size, "etag", null);
+            } finally {
+                uploading.decrementAndGet();
+            }
+        });
+        // the asynchronous calls run the blocking ones on the pool like the storage does
+        when(storage.initMultipartUploadAsync(anyString(), anyString())).thenAnswer(invocation -> CompletableFuture.supplyAsync(
+                () -> storage.initMultipartUpload(invocation.getArgument(0), invocation.getArgument(1)), executor));
+        when(storage.storeMultipartPartAsync(eq(upload), anyInt(), any())).thenAnswer(invocation -> CompletableFuture.supplyAsync(
+                () -> storage.storeMultipartPart(upload, invocation.getArgument(1), invocation.getArgument(2)), executor));
+        when(storage.executeAsync(any())).thenAnswer(invocation -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return invocation.<Callable<?>>getArgument(0).call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        vertx.close();
+    }
+
+    @Test
+    void testPartsAreUploadedInParallel() throws Exception {
+        when(storage.getMaxParallelUploadParts()).thenReturn(4);
+        byte[] content = content(25);
+
+        BlobWriteStream stream = new BlobWriteStream(vertx, resourceService, storage, resource, EtagHeader.ANY, "text/plain");
+        writeAll(stream, content).toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+
+        ArgumentCaptor<ResourceService.MultipartData> data = ArgumentCaptor.forClass(ResourceService.MultipartData.class);
+        verify(resourceService).finishFileUpload(eq(resource), data.capture(), eq(EtagHeader.ANY), any());
+
+        List<Integer> partNumbers = data.getValue().parts().stream().map(MultipartPart::partNumber).toList();
+        assertEquals(List.of(1, 2, 3, 4, 5), partNumbers);
+        assertEquals(content.length, data.getValue().contentLength());
+        assertEquals(content.length, data.getValue().parts().stream().mapToLong(MultipartPart::partSize).sum());
+        assertEquals(EtagBuilder.generateEtag(content), data.getValue().etag());
+        assertTrue(maxUploading.get() > 1, "max parallel uploads: " + maxUploading.get());
+    }
+
+    @Test
+    void testUploadsAreLimited() throws Exception {
+        when(storage.getMaxParallelUploadParts()).thenReturn(1);
+        byte[] content = content(19);
+
+        BlobWriteStream stream = new BlobWriteStream(vertx, resourceService, storage, resource, EtagHeader.ANY, "text/plain");
+        writeAll(stream, content).toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+
+        ArgumentCaptor<ResourceService.MultipartData> data = ArgumentCaptor.forClass(ResourceService.MultipartData.class);
+        verify(resourceService).finishFileUpload(eq(resource), data.capture(), eq(EtagHeader.ANY), any());
+
+        assertEquals(4, data.getValue().parts().size());
+        assertEquals(EtagBuilder.generateEtag(content), data.getValue().etag());
+        assertEquals(1, maxUploading.get());
+    }
+
+    @Test
+    void testUploadIsAbortedOnFailure() {
+        when(storage.getMaxParallelUploadParts()).thenReturn(4);
+        when(storage.storeMultipartPart(eq(upload), eq(2), any())).thenThrow(new IllegalStateException("failed"));
+
+        BlobWriteStream stream = new BlobWriteStream(vertx, resourceService, storage, resource, EtagHeader.ANY, "text/plain");
+        Future<Void> result = writeAll(stream, content(25)).onFailure(stream::abortUpload);
+
+        assertThrows(ExecutionException.class, () -> result.toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS));
+        verify(storage, timeout(5000)).abortMultipartUpload(upload);
+        verify(resourceService, never()).finishFileUpload(any(), any(), any(), any());
+    }
+
+    private static byte[] content(int chunks) {
+        byte[] content = new byte[chunks * CHUNK_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
+    /**
+     * Writes the content by chunks respecting the back pressure like a pipe does.
+     */
+    private Future<Void> writeAll(BlobWriteStream stream, byte[] content) {
+        Promise<Void> promise = Promise.promise();
+        vertx.runOnContext(ignore -> write(stream, content, 0, promise));
+        return promise.future();
+    }
+
+    private static void write(BlobWriteStream stream, byte[] content, int offset, Promise<Void> promise) {
+        while (offset < content.length) {
+            if (stream.writeQueueFull()) {
+                int position = offset;
+                stream.drainHandler(ignore -> write(stream, content, position, promise));
+                return;
+            }
+
+            stream.write(Buffer.buffer().appendBytes(content, offset, CHUNK_SIZE)).onFailure(promise::tryFail);
+            offset += CHUNK_SIZE;
+        }
+
+        stream.end().onSuccess(promise::tryComplete).onFailure(promise::tryFail);
+    }
+}
@@ -15,14 +15,17 @@ import org.jclouds.blobstore.domain.MultipartUpload;
 import org.jclouds.blobstore.domain.MutableStorageMetadata;
 import org.jclouds.blobstore.domain.PageSet;
 import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.StorageType;
 import org.jclouds.blobstore.domain.Tier;
 import org.jclouds.blobstore.domain.internal.BlobMetadataImpl;
 import org.jclouds.blobstore.domain.internal.MutableBlobMetadataImpl;
 import org.jclouds.blobstore.domain.internal.MutableStorageMetadataImpl;
 import org.jclouds.blobstore.domain.internal.PageSetImpl;
 import org.jclouds.blobstore.options.CopyOptions;
+import org.jclouds.blobstore.options.GetOptions;
 import org.jclouds.blobstore.options.ListContainerOptions;
 import org.jclouds.blobstore.options.PutOptions;
+import org.jclouds.filesystem.reference.FilesystemConstants;
 import org.jclouds.io.ContentMetadata;
 import org.jclouds.io.ContentMetadataBuilder;
 import org.jclouds.io.Payload;
@@ -31,11 +34,22 @@ import org.jclouds.io.payloads.ByteArrayPayload;
 import org.jclouds.s3.domain.ObjectMetadataBuilder;
 
 import java.io.Closeable;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 
+/**
+ * Blob store client. The blocking methods run on the calling thread,
+ * the asynchronous ones run on the dedicated bounded pool, so the blob store latency doesn't take the shared worker pool.
+ */
 @Slf4j
 public class BlobStorage implements Closeable {
 
@@ -43,6 +57,7 @@ public class BlobStorage implements Closeable {
     // To avoid additional request for each blob in the listing we try to recognize blob content type by its extension.
     // Default value is binary/octet-stream, see org.jclouds.s3.domain.ObjectMetadataBuilder
     private static final String DEFAULT_CONTENT_TYPE = ObjectMetadataBuilder.create().build().getContentMetadata().getContentType();
+    private static final Pattern TEMPORARY_FILE = Pattern.compile(".+-[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
 
     private final BlobStoreContext storeContext;
     private final BlobStore blobStore;
@@ -56,6 +71,20 @@ public class BlobStorage implements Closeable {
     @Getter
     private final long maxUploadedFileSize;
 
+    @Getter
+    private final int maxParallelUploadParts;
+
+    // the directory of the bucket if the blobs are stored on the local filesystem, null otherwise
+    @Nullable
+    private final Path localDirectory;
+
+    // the temporary files of the writes in progress are skipped in the listings of the filesystem provider
+    private final boolean filesystem;
+
+    // runs the asynchronous calls and the file operations which go to the blob store
+    @Getter
+    private final ExecutorService ioExecutor;
+
     public BlobStorage(Storage config) {
         String provider = config.getProvider();
         ContextBuilder builder = ContextBuilder.newBuilder(provider);
@@ -73,9 +102,27 @@ public class BlobStorage implements Closeable {
         this.bucketName = config.getBucket();
         this.prefix = config.getPrefix();
         this.maxUploadedFileSize = config.getMaxUploadedFileSize();
+        this.maxParallelUploadParts = config.getMaxParallelUploadParts();
+        this.localDirectory = resolveLocalDirectory(config);
+        this.filesystem = StorageProvider.from(provider) == StorageProvider.FILESYSTEM;
+        this.ioExecutor = Executors.newFixedThreadPool(Math.max(1, config.getMaxIoThreads()), task -> {
+            Thread thread = new Thread(task, "blob-storage-io");
+            thread.setDaemon(true);
+            return thread;
+        });
         createBucketIfNeeded(config);
     }
 
+    @Nullable
+    private static Path resolveLocalDirectory(Storage config) {
+        if (StorageProvider.from(config.getProvider()) != StorageProvider.FILESYSTEM || config.getOverrides() == null) {
+            return null;
+        }
+
+        String baseDir = config.getOverrides().getProperty(FilesystemConstants.PROPERTY_BASEDIR);
+        return (baseDir == null) ? null : Path.of(baseDir, config.getBucket()).toAbsolutePath().normalize();
+    }
+
     /**
      * Initialize multipart upload
      *
@@ -119,6 +166,37 @@ public class BlobStorage implements Closeable {
         blobStore.abortMultipartUpload(multipart);
     }
 
+    /**
+     * Runs the blocking operation which goes to the blob store, e.g. a file operation of the resource service, on the I/O pool,
+     * so the operation doesn't take a thread of the shared worker pool while it waits for the blob store.
+     * The future is completed with the exception of the operation as is.
+     */
+    public <T> CompletableFuture<T> executeAsync(Callable<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        ioExecutor.execute(() -> {
+            try {
+                future.complete(operation.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Asynchronous version of {@link #initMultipartUpload(String, String)}
+     */
+    public CompletableFuture<MultipartUpload> initMultipartUploadAsync(String absoluteFilePath, String contentType) {
+        return CompletableFuture.supplyAsync(() -> initMultipartUpload(absoluteFilePath, contentType), ioExecutor);
+    }
+
+    /**
+     * Asynchronous version of {@link #storeMultipartPart(MultipartUpload, int, Payload)}
+     */
+    public CompletableFuture<MultipartPart> storeMultipartPartAsync(MultipartUpload multipart, int part, Payload payload) {
+        return CompletableFuture.supplyAsync(() -> storeMultipartPart(multipart, part, payload), ioExecutor);
+    }
+
     /**
      * Upload file in a single request
      *
@@ -156,6 +234,35 @@ public class BlobStorage implements Closeable {
         return blobStore.getBlob(bucketName, storageLocation);
     }
 
+    /**
+     * Load the range of file content from blob store
+     *
+     * @param filePath absolute file path, for example: Users/user1/files/inputs/data.csv
+     * @param start the first byte of the range
+     * @param end the last byte of the range, inclusive
+     * @return Blob instance with the range of the content if file was found, null - otherwise
+     */
+    public Blob load(String filePath, long start, long end) {
+        String storageLocation = getStorageLocation(filePath);
+        return blobStore.getBlob(bucketName, storageLocation, GetOptions.Builder.range(start, end));
+    }
+
+    /**
+     * Resolve the file of the blob if blobs are stored on the local filesystem
+     *
+     * @param filePath absolute file path, for example: Users/user1/files/inputs/data.csv
+     * @return the file with the content of the blob or null if blobs are not stored locally or the file doesn't exist
+     */
+    @Nullable
+    public Path getLocalFile(String filePath) {
+        if (localDirectory == null) {
+            return null;
+        }
+
+        Path file = localDirectory.resolve(getStorageLocation(filePath)).normalize();
+        return (file.startsWith(localDirectory) && Files.isRegularFile(file)) ? file : null;
+    }
+
     public boolean exists(String filePath) {
         String storageLocation = getStorageLocation(filePath);
         return blobStore.blobExists(bucketName, storageLocation);
@@ -185,24 +292,38 @@ public class BlobStorage implements Closeable {
         ListContainerOptions options = buildListContainerOptions(absoluteFilePath, maxResults, recursive, afterMarker);
 
         PageSet<? extends StorageMetadata> originalSet = blobStore.list(bucketName, options);
-        if (prefix == null) {
+        if (prefix == null && !filesystem) {
             return originalSet;
         }
         // if prefix defined - subtract it from blob key
         String nextMarker = originalSet.getNextMarker();
-        List<MutableStorageMetadata> resultSet = originalSet.stream()
+        List<StorageMetadata> resultSet = originalSet.stream()
+                .filter(metadata -> !filesystem || !isTemporaryFile(metadata))
                 .map(metadata -> {
+                    if (prefix == null) {
+                        return metadata;
+                    }
                     MutableStorageMetadata mutableMetadata = metadata instanceof BlobMetadata blobMetadata
                             ? new MutableBlobMetadataImpl(blobMetadata)
                             : new MutableStorageMetadataImpl(metadata);
                     mutableMetadata.setName(removePrefix(metadata.getName()));
-                    return mutableMetadata;
+                    return (StorageMetadata) mutableMetadata;
                 })
                 .toList();
 
         return new PageSetImpl<>(resultSet, nextMarker);
     }
 
+    /**
+     * The filesystem provider writes a blob to the temporary file {@code <name>-<UUID>} in the same folder
+     * and sets the user metadata of the blob before it's moved, so the file of the write in progress is listed without the user metadata.
+     */
+    private static boolean isTemporaryFile(StorageMetadata metadata) {
+        return metadata.getType() == StorageType.BLOB
+                && TEMPORARY_FILE.matcher(metadata.getName()).matches()
+                && (metadata.getUserMetadata() == null || metadata.getUserMetadata().isEmpty());
+    }
+
     private String removePrefix(String path) {
         if (prefix == null) {
             return path;
@@ -212,6 +333,7 @@ public class BlobStorage implements Closeable {
 
     @Override
     public void close() {
+        ioExecutor.shutdownNow();
         storeContext.close();
     }
 
@@ -234,9 +356,15 @@ public class BlobStorage implements Closeable {
     }
 
     public static String resolveContentType(BlobMetadata metadata) {
-        String blobContentType = metadata.getContentMetadata().getContentType();
+        return resolveContentType(metadata.getContentMetadata().getContentType(), metadata.getName());
+    }
+
+    /**
+     * Resolves the default content type of the blob by its name.
+     */
+    public static String resolveContentType(String blobContentType, String name) {
         if (DEFAULT_CONTENT_TYPE.equals(blobContentType)) {
-            return BlobStorageUtil.getContentType(metadata.getName());
+            return BlobStorageUtil.getContentType(name);
         }
 
         return blobContentType;
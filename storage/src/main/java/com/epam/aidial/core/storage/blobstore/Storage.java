@@ -9,6 +9,8 @@ import javax.annotation.Nullable;
 public class Storage {
 
     public static final long DEFAULT_MAX_UPLOADED_FILE_SIZE_BYTES = 512 * 1024 * 1024;
+    public static final int DEFAULT_MAX_PARALLEL_UPLOAD_PARTS = 4;
+    public static final int DEFAULT_MAX_IO_THREADS = 16;
 
     /**
      * Specifies storage provider. Supported providers: s3, aws-s3, azureblob, google-cloud-storage, filesystem
@@ -52,4 +54,14 @@ public class Storage {
     String prefix;
 
     long maxUploadedFileSize = DEFAULT_MAX_UPLOADED_FILE_SIZE_BYTES;
+
+    /**
+     * Max number of parts of a multipart upload which are uploaded concurrently
+     */
+    int maxParallelUploadParts = DEFAULT_MAX_PARALLEL_UPLOAD_PARTS;
+
+    /**
+     * Max number of threads which run the asynchronous calls to the blob store and read the downloaded blobs
+     */
+    int maxIoThreads = DEFAULT_MAX_IO_THREADS;
 }
@@ -0,0 +1,17 @@
+package com.epam.aidial.core.storage.compression;
+
+/**
+ * Compression codec of the resource bodies stored in the blob store.
+ * The encoding of the codec is recorded as the content encoding of a blob, so the blob is decoded with the same codec later.
+ */
+public interface CompressionCodec {
+
+    /**
+     * Returns the unique id of the codec which is stored as the content encoding.
+     */
+    String encoding();
+
+    byte[] compress(byte[] data);
+
+    byte[] decompress(byte[] data);
+}
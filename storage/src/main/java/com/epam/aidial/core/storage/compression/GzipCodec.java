@@ -0,0 +1,44 @@
+package com.epam.aidial.core.storage.compression;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+@Slf4j
+public class GzipCodec implements CompressionCodec {
+
+    public static final String ENCODING = "gzip";
+
+    @Override
+    public String encoding() {
+        return ENCODING;
+    }
+
+    @SneakyThrows
+    @Override
+    public byte[] compress(byte[] data) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream stream = new GZIPOutputStream(output)) {
+            stream.write(data);
+        }
+        return output.toByteArray();
+    }
+
+    @SneakyThrows
+    @Override
+    public byte[] decompress(byte[] data) {
+        try (InputStream decompressed = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return decompressed.readAllBytes();
+        } catch (ZipException e) {
+            // special case for GCP cloud storage, due to jclouds bug https://issues.apache.org/jira/projects/JCLOUDS/issues/JCLOUDS-1633
+            log.warn("Failed to decompress provided input: {}", e.getMessage());
+            return data;
+        }
+    }
+}
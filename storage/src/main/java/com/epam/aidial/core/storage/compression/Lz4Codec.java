@@ -0,0 +1,41 @@
+package com.epam.aidial.core.storage.compression;
+
+import lombok.SneakyThrows;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+/**
+ * LZ4 codec in the frame format. It has the lowest ratio, but the fastest compression and decompression.
+ */
+public class Lz4Codec implements CompressionCodec {
+
+    public static final String ENCODING = "lz4";
+
+    @Override
+    public String encoding() {
+        return ENCODING;
+    }
+
+    @SneakyThrows
+    @Override
+    public byte[] compress(byte[] data) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        // the default block of 4 MB is allocated for every stream which is too much for the resources
+        try (LZ4FrameOutputStream stream = new LZ4FrameOutputStream(output, LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB)) {
+            stream.write(data);
+        }
+        return output.toByteArray();
+    }
+
+    @SneakyThrows
+    @Override
+    public byte[] decompress(byte[] data) {
+        try (InputStream decompressed = new LZ4FrameInputStream(new ByteArrayInputStream(data))) {
+            return decompressed.readAllBytes();
+        }
+    }
+}
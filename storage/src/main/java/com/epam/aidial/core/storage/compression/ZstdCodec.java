@@ -0,0 +1,39 @@
+package com.epam.aidial.core.storage.compression;
+
+import com.github.luben.zstd.Zstd;
+
+/**
+ * Zstandard codec. It compresses JSON better than gzip and several times faster.
+ */
+public class ZstdCodec implements CompressionCodec {
+
+    public static final String ENCODING = "zstd";
+    private static final int LEVEL = 3;
+
+    @Override
+    public String encoding() {
+        return ENCODING;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        return Zstd.compress(data, LEVEL);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data) {
+        return Zstd.decompress(data, frameContentSize(data));
+    }
+
+    /**
+     * Returns the decompressed size stored in the frame header, the frames are always written with it.
+     */
+    static int frameContentSize(byte[] data) {
+        long size = Zstd.getFrameContentSize(data);
+        // negative size means an error or an unknown size
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid zstd frame content size: " + size);
+        }
+        return (int) size;
+    }
+}
@@ -0,0 +1,66 @@
+package com.epam.aidial.core.storage.compression;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+
+import java.util.Collection;
+
+/**
+ * Zstandard codec with a dictionary trained on sample resources.
+ * Small resources like conversations share most of their structure, so a dictionary improves the ratio a lot for them.
+ * The id of the dictionary is a part of the encoding, so the dictionary must be kept as long as there are blobs compressed with it.
+ */
+public class ZstdDictionaryCodec implements CompressionCodec {
+
+    /**
+     * The name to configure the codec for a resource type, the encoding is specific to the dictionary.
+     */
+    public static final String NAME = "zstd-dict";
+    public static final String ENCODING_PREFIX = NAME + "-";
+    private static final int LEVEL = 3;
+
+    private final String encoding;
+    private final ZstdDictCompress compressDictionary;
+    private final ZstdDictDecompress decompressDictionary;
+
+    public ZstdDictionaryCodec(byte[] dictionary) {
+        long id = Zstd.getDictIdFromDict(dictionary);
+        if (id == 0) {
+            throw new IllegalArgumentException("Invalid zstd dictionary");
+        }
+
+        this.encoding = ENCODING_PREFIX + id;
+        this.compressDictionary = new ZstdDictCompress(dictionary, LEVEL);
+        this.decompressDictionary = new ZstdDictDecompress(dictionary);
+    }
+
+    /**
+     * Trains a dictionary on the sample resources.
+     *
+     * @param samples        - the bodies of typical resources.
+     * @param dictionarySize - max size of the dictionary in bytes, 16-112 KB is usually enough.
+     */
+    public static byte[] train(Collection<byte[]> samples, int dictionarySize) {
+        long samplesSize = samples.stream().mapToLong(sample -> sample.length).sum();
+        ZstdDictTrainer trainer = new ZstdDictTrainer(Math.toIntExact(samplesSize), dictionarySize);
+        samples.forEach(trainer::addSample);
+        return trainer.trainSamples();
+    }
+
+    @Override
+    public String encoding() {
+        return encoding;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        return Zstd.compress(data, compressDictionary);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data) {
+        return Zstd.decompress(data, decompressDictionary, ZstdCodec.frameContentSize(data));
+    }
+}
@@ -8,6 +8,7 @@ import lombok.RequiredArgsConstructor;
 public enum HttpStatus {
 
     OK(200),
+    PARTIAL_CONTENT(206),
     NOT_MODIFIED(304),
     BAD_REQUEST(400),
     UNAUTHORIZED(401),
@@ -18,6 +19,7 @@ public enum HttpStatus {
     PRECONDITION_FAILED(412),
     REQUEST_ENTITY_TOO_LARGE(413),
     UNSUPPORTED_MEDIA_TYPE(415),
+    RANGE_NOT_SATISFIABLE(416),
     UNPROCESSABLE_ENTITY(422),
     TOO_MANY_REQUESTS(429),
     INTERNAL_SERVER_ERROR(500),
@@ -39,6 +41,7 @@ public enum HttpStatus {
     public static HttpStatus fromStatusCode(int code, HttpStatus fallback) {
         return switch (code) {
             case 200 -> OK;
+            case 206 -> PARTIAL_CONTENT;
             case 304 -> NOT_MODIFIED;
             case 400 -> BAD_REQUEST;
             case 401 -> UNAUTHORIZED;
@@ -49,6 +52,7 @@ public enum HttpStatus {
             case 412 -> PRECONDITION_FAILED;
             case 413 -> REQUEST_ENTITY_TOO_LARGE;
             case 415 -> UNSUPPORTED_MEDIA_TYPE;
+            case 416 -> RANGE_NOT_SATISFIABLE;
             case 422 -> UNPROCESSABLE_ENTITY;
             case 429 -> TOO_MANY_REQUESTS;
             case 500 -> INTERNAL_SERVER_ERROR;
@@ -0,0 +1,203 @@
+package com.epam.aidial.core.storage.service;
+
+import com.epam.aidial.core.storage.blobstore.BlobStorage;
+import com.epam.aidial.core.storage.blobstore.BlobStorageUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBatch;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+/**
+ * Content-addressed store of the file contents.
+ * <p>
+ *     The content is stored once in the blob store under its id and is found by its SHA-256 hash.
+ *     The blob of a file refers to the content in the user metadata and has no payload,
+ *     so a copy of the file is a copy of the small blob and one more reference to the content.
+ *     The content is deleted once the last reference to it is released.
+ * </p>
+ * <p>
+ *     The reference counts and the ids by hash are kept in Redis without expiration, the changes of a content are done under the lock of its hash.
+ *     The count might still be lost, e.g. if Redis is flushed, so the content which count is lost is pinned once it's referenced again:
+ *     the pinned content is never deleted.
+ * </p>
+ */
+@Slf4j
+class ContentStore {
+
+    static final String CONTENT_ATTRIBUTE = "content";
+    static final String CONTENT_HASH_ATTRIBUTE = "content_hash";
+    static final String CONTENT_LENGTH_ATTRIBUTE = "content_length";
+    private static final String CONTENT_LOCATION = "Content/";
+    // increments the count if the content is registered, otherwise pins the content and returns -1 if ARGV[1] is 1 or returns 0
+    private static final String REFERENCE_SCRIPT = """
+            local count = redis.call('get', KEYS[1])
+            if (not count) then
+              if (ARGV[1] ~= '1') then
+                return 0
+              end
+
+              redis.call('set', KEYS[1], 'pinned')
+              return -1
+            end
+
+            if (count == 'pinned') then
+              return 1
+            end
+
+            return redis.call('incr', KEYS[1])
+            """;
+    // decrements the count and deletes it once it's 0, returns -1 if the content is not registered
+    private static final String RELEASE_SCRIPT = """
+            local current = redis.call('get', KEYS[1])
+            if (not current) then
+              return -1
+            end
+
+            if (current == 'pinned') then
+              return 1
+            end
+
+            local count = redis.call('decr', KEYS[1])
+            if (count <= 0) then
+              redis.call('del', KEYS[1])
+              return 0
+            end
+
+            return count
+            """;
+
+    private final RedissonClient redis;
+    private final RScript script;
+    private final BlobStorage blobStore;
+    private final LockService lockService;
+    private final String prefix;
+
+    ContentStore(RedissonClient redis, BlobStorage blobStore, LockService lockService, @Nullable String prefix) {
+        this.redis = redis;
+        this.script = redis.getScript(StringCodec.INSTANCE);
+        this.blobStore = blobStore;
+        this.lockService = lockService;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Returns the absolute path of the content in the blob store.
+     */
+    static String path(String id) {
+        return CONTENT_LOCATION + id;
+    }
+
+    /**
+     * Returns the id for the content which is uploaded before its hash is known.
+     */
+    static String newId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Returns the content the blob refers to, null if the blob has the content itself.
+     */
+    @Nullable
+    static ContentRef ref(@Nullable Map<String, String> userMetadata) {
+        if (userMetadata == null || !userMetadata.containsKey(CONTENT_ATTRIBUTE)) {
+            return null;
+        }
+
+        return new ContentRef(userMetadata.get(CONTENT_ATTRIBUTE), userMetadata.get(CONTENT_HASH_ATTRIBUTE),
+                Long.parseLong(userMetadata.get(CONTENT_LENGTH_ATTRIBUTE)));
+    }
+
+    /**
+     * References the content with the hash if it's stored already, otherwise creates it and registers it under the id.
+     *
+     * @param create writes the content to the blob store under the id.
+     * @return the id of the referenced content.
+     */
+    String acquire(String hash, String id, Runnable create) {
+        String hashKey = hashKey(hash);
+        try (var ignore = lockService.lock(hashKey)) {
+            String existing = redis.<String>getBucket(hashKey, StringCodec.INSTANCE).get();
+            if (existing != null && increment(existing, false) > 0) {
+                log.debug("Content is referenced: {}", existing);
+                return existing;
+            }
+
+            create.run();
+
+            RBatch batch = redis.createBatch();
+            batch.getBucket(contentKey(id), StringCodec.INSTANCE).setAsync("1");
+            batch.getBucket(hashKey, StringCodec.INSTANCE).setAsync(id);
+            batch.execute();
+            return id;
+        }
+    }
+
+    /**
+     * Adds one more reference to the content. The content which count is lost is pinned.
+     */
+    void reference(ContentRef ref) {
+        try (var ignore = lockService.lock(hashKey(ref.hash()))) {
+            if (increment(ref.id(), true) < 0) {
+                log.warn("Content is not registered and is pinned: {}", ref.id());
+            }
+        }
+    }
+
+    /**
+     * Releases the reference to the content and deletes the content if it's the last one.
+     */
+    void release(ContentRef ref) {
+        String hashKey = hashKey(ref.hash());
+        try (var ignore = lockService.lock(hashKey)) {
+            long count = script.eval(contentKey(ref.id()), RScript.Mode.READ_WRITE, RELEASE_SCRIPT, RScript.ReturnType.INTEGER,
+                    List.of(contentKey(ref.id())));
+            if (count < 0) {
+                log.warn("Content is not registered: {}", ref.id());
+                return;
+            }
+
+            if (count == 0) {
+                log.debug("Content is deleted: {}", ref.id());
+                if (Objects.equals(redis.<String>getBucket(hashKey, StringCodec.INSTANCE).get(), ref.id())) {
+                    redis.getBucket(hashKey, StringCodec.INSTANCE).delete();
+                }
+                blobStore.delete(path(ref.id()));
+            }
+        }
+    }
+
+    /**
+     * @param pin true if the content which is not registered must be pinned.
+     * @return the new count, 1 if the content is pinned already, -1 if the content is pinned now, 0 if the content is not registered.
+     */
+    private long increment(String id, boolean pin) {
+        return script.eval(contentKey(id), RScript.Mode.READ_WRITE, REFERENCE_SCRIPT, RScript.ReturnType.INTEGER,
+                List.of(contentKey(id)), pin ? "1" : "0");
+    }
+
+    private String contentKey(String id) {
+        return "content:" + BlobStorageUtil.toStoragePath(prefix, path(id));
+    }
+
+    private String hashKey(String hash) {
+        return "content-hash:" + BlobStorageUtil.toStoragePath(prefix, hash);
+    }
+
+    /**
+     * @param id the id of the content.
+     * @param hash the SHA-256 hash of the content.
+     * @param length the length of the content in bytes.
+     */
+    record ContentRef(String id, String hash, long length) {
+        Map<String, String> toUserMetadata() {
+            return Map.of(CONTENT_ATTRIBUTE, id, CONTENT_HASH_ATTRIBUTE, hash, CONTENT_LENGTH_ATTRIBUTE, Long.toString(length));
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.epam.aidial.core.storage.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * Cache of the big resources on the local disk of the node.
+ * <p>
+ *     The entries are kept by the url with the etag of the resource, so the cached resource is looked up by the url as the near-cache one
+ *     or by the url and the etag once the etag is known, then the changed resource is never served from the cache.
+ *     The least recently used entries are evicted once the total size exceeds the max size,
+ *     the entries of the changed resources are evicted by the resource events right away.
+ *     The resource downloaded while an event is received is not cached, since it might be changed.
+ * </p>
+ * <p>
+ *     The resource is written to the cache while it's streamed, so the stream which is not read to the end is not cached.
+ *     The index of the entries is kept in memory, the files left by the previous run are deleted on start.
+ * </p>
+ * <p>
+ *     The file of the entry is pinned by the leases of the readers, so the evicted or replaced entry is deleted once the last lease is released.
+ * </p>
+ */
+@Slf4j
+class DiskCache {
+
+    private static final String FILE_SUFFIX = ".blob";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxSize;
+    private final Cache<String, Entry> entries;
+    // the number of the received invalidations
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @SneakyThrows
+    DiskCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.entries = CacheBuilder.newBuilder()
+                // the whole size is shared by all the entries, otherwise a big file may be evicted right away
+                .concurrencyLevel(1)
+                .maximumWeight(maxSize)
+                .weigher((String url, Entry entry) -> (int) Math.min(entry.length, Integer.MAX_VALUE))
+                .removalListener((RemovalNotification<String, Entry> notification) -> notification.getValue().remove())
+                .build();
+
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.toString().endsWith(FILE_SUFFIX) || file.toString().endsWith(TEMP_FILE_SUFFIX))
+                    .forEach(DiskCache::delete);
+        }
+    }
+
+    /**
+     * Returns the lease of the file with the content of the resource, null if the resource with the etag is not cached.
+     * The file is not deleted until the lease is released.
+     */
+    @Nullable
+    Lease get(String url, String etag) {
+        Entry entry = entries.getIfPresent(url);
+        return (entry == null || !entry.etag.equals(etag)) ? null : acquire(entry);
+    }
+
+    /**
+     * Returns the lease of the file with the content of the resource which is kept up to date by the resource events,
+     * null if the resource is not cached.
+     */
+    @Nullable
+    Lease get(String url) {
+        Entry entry = entries.getIfPresent(url);
+        return (entry == null) ? null : acquire(entry);
+    }
+
+    @Nullable
+    private static Lease acquire(Entry entry) {
+        if (!entry.acquire()) {
+            return null;
+        }
+
+        Lease lease = new Lease(entry);
+        if (!Files.exists(entry.file)) {
+            lease.close();
+            return null;
+        }
+
+        return lease;
+    }
+
+    /**
+     * Wraps the stream of the resource, so the resource is cached once the stream is read to the end.
+     * The stream of the resource which doesn't fit the cache is returned as is.
+     */
+    InputStream put(String url, String etag, String contentType, long length, InputStream stream) {
+        if (length <= 0 || length > maxSize) {
+            return stream;
+        }
+
+        return new CachingInputStream(stream, url, etag, contentType, length, invalidations.get());
+    }
+
+    void invalidate(String url) {
+        invalidations.incrementAndGet();
+        entries.invalidate(url);
+    }
+
+    void invalidateAll() {
+        invalidations.incrementAndGet();
+        entries.invalidateAll();
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete cached file: {}", file, e);
+        }
+    }
+
+    /**
+     * The cached file which is deleted once the entry is removed from the cache and all the leases are released.
+     */
+    private static class Entry {
+
+        private final String etag;
+        private final String contentType;
+        private final Path file;
+        private final long length;
+        private int readers;
+        private boolean removed;
+
+        Entry(String etag, String contentType, Path file, long length) {
+            this.etag = etag;
+            this.contentType = contentType;
+            this.file = file;
+            this.length = length;
+        }
+
+        synchronized boolean acquire() {
+            if (removed) {
+                return false;
+            }
+
+            readers++;
+            return true;
+        }
+
+        void release() {
+            synchronized (this) {
+                if (--readers > 0 || !removed) {
+                    return;
+                }
+            }
+
+            delete(file);
+        }
+
+        void remove() {
+            synchronized (this) {
+                removed = true;
+                if (readers > 0) {
+                    return;
+                }
+            }
+
+            delete(file);
+        }
+    }
+
+    /**
+     * Pins the cached file until it's closed. Closing it more than once has no effect.
+     */
+    static class Lease implements Closeable {
+
+        private final Entry entry;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        Path file() {
+            return entry.file;
+        }
+
+        String etag() {
+            return entry.etag;
+        }
+
+        String contentType() {
+            return entry.contentType;
+        }
+
+        long length() {
+            return entry.length;
+        }
+
+        /**
+         * Wraps the stream of the file, so the lease is released once the stream is closed.
+         */
+        InputStream wrap(InputStream stream) {
+            return new FilterInputStream(stream) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        Lease.this.close();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                entry.release();
+            }
+        }
+    }
+
+    /**
+     * Copies the read bytes to the temporary file and moves it to the cache once all the bytes are read.
+     * The caching is given up on a write failure, the stream is read as usual.
+     */
+    private class CachingInputStream extends FilterInputStream {
+
+        private final String url;
+        private final String etag;
+        private final String contentType;
+        private final long length;
+        private final long version;
+        private Path temp;
+        private OutputStream output;
+        private long written;
+
+        CachingInputStream(InputStream stream, String url, String etag, String contentType, long length, long version) {
+            super(stream);
+            this.url = url;
+            this.etag = etag;
+            this.contentType = contentType;
+            this.length = length;
+            this.version = version;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value < 0) {
+                complete();
+            } else {
+                write(new byte[] {(byte) value}, 0, 1);
+            }
+
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read < 0) {
+                complete();
+            } else {
+                write(buffer, offset, read);
+            }
+
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                abandon();
+            }
+        }
+
+        private void write(byte[] buffer, int offset, int count) {
+            if (written < 0) {
+                return;
+            }
+
+            try {
+                if (output == null) {
+                    temp = directory.resolve(UUID.randomUUID() + TEMP_FILE_SUFFIX);
+                    output = Files.newOutputStream(temp);
+                }
+
+                output.write(buffer, offset, count);
+                written += count;
+            } catch (IOException e) {
+                log.warn("Failed to cache resource: {}", url, e);
+                abandon();
+                return;
+            }
+
+            // the reader may not read past the end of the stream
+            if (written == length) {
+                complete();
+            }
+        }
+
+        private void complete() {
+            if (written != length) {
+                abandon();
+                return;
+            }
+
+            try {
+                output.close();
+                Path file = directory.resolve(UUID.randomUUID() + FILE_SUFFIX);
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+                Entry entry = new Entry(etag, contentType, file, length);
+                entries.put(url, entry);
+                // the resource could be modified while it was being downloaded
+                if (invalidations.get() != version) {
+                    entries.asMap().remove(url, entry);
+                } else {
+                    log.debug("Resource is cached on disk: {}", url);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to cache resource: {}", url, e);
+                delete(temp);
+            }
+
+            written = -1;
+        }
+
+        private void abandon() {
+            if (written < 0) {
+                return;
+            }
+
+            written = -1;
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close cached file: {}", temp, e);
+                }
+
+                delete(temp);
+            }
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package com.epam.aidial.core.storage.service;
+
+import com.epam.aidial.core.storage.blobstore.BlobStorage;
+import com.epam.aidial.core.storage.blobstore.BlobStorageUtil;
+import com.epam.aidial.core.storage.data.FileMetadata;
+import com.epam.aidial.core.storage.data.MetadataBase;
+import com.epam.aidial.core.storage.data.ResourceFolderMetadata;
+import com.epam.aidial.core.storage.data.ResourceItemMetadata;
+import com.epam.aidial.core.storage.resource.ResourceDescriptor;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+import static com.epam.aidial.core.storage.resource.ResourceDescriptor.PATH_SEPARATOR;
+
+/**
+ * Index of the folders kept in Redis, so the folders are listed without the blob store.
+ * <p>
+ *     Every folder has a sorted set of the names of its items and sub-folders, the names of the sub-folders end with the slash,
+ *     and a hash with the metadata of the items. All the names have the same score, so they are sorted lexicographically,
+ *     the pages are read by range and the recursive listing visits the items in the same order as the blob store does.
+ *     The empty name marks the folder which is indexed, the folder which is not indexed is built from the blob store listing on the first use.
+ * </p>
+ * <p>
+ *     The keys of a bucket share the hash slot, so an item, its folder and the parent folders are updated atomically in Redis Cluster:
+ *     a new item adds the missing folders up to the bucket root and a removed item removes the folders which become empty.
+ *     The keys have no expiration, so they are not evicted with volatile-* eviction policies.
+ * </p>
+ * <p>
+ *     The blob store listing of a folder is not atomic with the concurrent changes, so every change of a folder increments its generation
+ *     and the listing is written to the index only if the generation of the folder is not changed since the listing is started.
+ *     The items of the blob store listing which are not real resources, e.g. the temporary files of the uploads in progress,
+ *     are removed from the index once the resource is read and found missing, see {@link #repair(ResourceDescriptor)}.
+ * </p>
+ */
+@Slf4j
+class FolderIndex {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private static final int BUILD_PAGE_SIZE = 1000;
+    // returns the levels which are not indexed yet
+    private static final String MISSING_SCRIPT = """
+            local generations = KEYS[#KEYS]
+            local missing = {}
+            for i = 1, #KEYS - 1, 2 do
+              if (redis.call('exists', KEYS[i]) == 0) then
+                table.insert(missing, (i - 1) / 2)
+              end
+            end
+            """;
+    // KEYS: the folder of the item and its parents up to the root, each one followed by its items, the generations of the folders
+    // ARGV: the name and the metadata of the item, the names of the folders in the parents
+    private static final String ADD_SCRIPT = MISSING_SCRIPT + """
+            if (#missing > 0) then
+              return missing
+            end
+
+            redis.call('zadd', KEYS[1], 0, ARGV[1])
+            redis.call('hset', KEYS[2], ARGV[1], ARGV[2])
+            redis.call('hincrby', generations, KEYS[1], 1)
+
+            for i = 3, #KEYS - 1, 2 do
+              if (redis.call('zadd', KEYS[i], 0, ARGV[(i + 3) / 2]) == 0) then
+                break
+              end
+              redis.call('hincrby', generations, KEYS[i], 1)
+            end
+
+            return missing
+            """;
+    // removes the item which is indexed, KEYS and ARGV are the same as for add
+    private static final String REMOVE_ITEM_SCRIPT = """
+            redis.call('zrem', KEYS[1], ARGV[1])
+            redis.call('hdel', KEYS[2], ARGV[1])
+            redis.call('hincrby', generations, KEYS[1], 1)
+
+            for i = 1, #KEYS - 3, 2 do
+              if (redis.call('zcard', KEYS[i]) > 1) then
+                break
+              end
+
+              redis.call('del', KEYS[i], KEYS[i + 1])
+              redis.call('zrem', KEYS[i + 2], ARGV[(i + 5) / 2])
+              redis.call('hincrby', generations, KEYS[i + 2], 1)
+            end
+
+            return missing
+            """;
+    // KEYS and ARGV are the same as for add, the metadata is ignored
+    private static final String REMOVE_SCRIPT = MISSING_SCRIPT + """
+            if (#missing > 0) then
+              return missing
+            end
+
+            """ + REMOVE_ITEM_SCRIPT;
+    // removes the item only if it's indexed, the folders which are not indexed are not built
+    private static final String REPAIR_SCRIPT = MISSING_SCRIPT + """
+            if (#missing > 0 or not redis.call('zscore', KEYS[1], ARGV[1])) then
+              return {}
+            end
+
+            """ + REMOVE_ITEM_SCRIPT;
+    // KEYS: the folder, its items, the generations of the folders.
+    // ARGV: the generation of the folder the listing is started at, the names followed by the metadata, empty for the sub-folders.
+    // returns -1 if the folder is changed since the listing is started
+    private static final String BUILD_SCRIPT = """
+            if (redis.call('exists', KEYS[1]) == 1) then
+              return 0
+            end
+
+            if ((redis.call('hget', KEYS[3], KEYS[1]) or '0') ~= ARGV[1]) then
+              return -1
+            end
+
+            redis.call('zadd', KEYS[1], 0, '')
+            for i = 2, #ARGV, 2 do
+              redis.call('zadd', KEYS[1], 0, ARGV[i])
+              if (ARGV[i + 1] ~= '') then
+                redis.call('hset', KEYS[2], ARGV[i], ARGV[i + 1])
+              end
+            end
+
+            return 1
+            """;
+    // KEYS: the folder, its items. ARGV: the exclusive lower bound, the count
+    // returns nil if the folder is not indexed, otherwise the names followed by the metadata
+    private static final String LIST_SCRIPT = """
+            if (redis.call('exists', KEYS[1]) == 0) then
+              return nil
+            end
+
+            local names = redis.call('zrangebylex', KEYS[1], ARGV[1], '+', 'LIMIT', 0, ARGV[2])
+            local result = {}
+            for i, name in ipairs(names) do
+              table.insert(result, name)
+              table.insert(result, redis.call('hget', KEYS[2], name) or '')
+            end
+
+            return result
+            """;
+
+    private final RedissonClient redis;
+    private final RScript script;
+    private final BlobStorage blobStore;
+    private final String prefix;
+
+    FolderIndex(RedissonClient redis, BlobStorage blobStore, @Nullable String prefix) {
+        this.redis = redis;
+        this.script = redis.getScript(StringCodec.INSTANCE);
+        this.blobStore = blobStore;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Adds the item to its folder or updates its metadata. The missing parent folders are added as well.
+     */
+    void add(ResourceDescriptor resource, Item item) {
+        update(ADD_SCRIPT, resource, toJson(item));
+    }
+
+    /**
+     * Removes the item from its folder. The parent folders which become empty are removed as well.
+     */
+    void remove(ResourceDescriptor resource) {
+        update(REMOVE_SCRIPT, resource, "");
+    }
+
+    /**
+     * Removes the item which is found missing from its folder if the folder is indexed.
+     * Must be called under the lock of the resource, so the item is not created concurrently.
+     */
+    void repair(ResourceDescriptor resource) {
+        Bucket bucket = new Bucket(resource);
+        List<Object> keys = new ArrayList<>();
+        List<Object> args = new ArrayList<>();
+        collectKeys(bucket, resource, "", keys, args);
+        script.eval(keys.get(0).toString(), RScript.Mode.READ_WRITE, REPAIR_SCRIPT, RScript.ReturnType.MULTI, keys, args.toArray());
+    }
+
+    /**
+     * Lists the folder page by page in the lexicographical order of the paths.
+     *
+     * @param token the path of the last item of the previous page relative to the folder, null for the first page.
+     * @return null if the folder is empty unless it's the root folder.
+     */
+    @Nullable
+    ResourceFolderMetadata list(ResourceDescriptor folder, @Nullable String token, int limit, boolean recursive) {
+        Bucket bucket = new Bucket(folder);
+        String path = bucket.relativePath(folder);
+        List<Entry> entries = new ArrayList<>();
+        collect(bucket, path, token, limit + 1, recursive, entries);
+
+        if (entries.isEmpty() && !folder.isRootFolder()) {
+            return null;
+        }
+
+        String nextToken = null;
+        if (entries.size() > limit) {
+            entries = entries.subList(0, limit);
+            nextToken = entries.get(limit - 1).path.substring(path.length());
+        }
+
+        List<MetadataBase> items = entries.stream()
+                .map(entry -> toMetadata(folder.resolveByPath(bucket.root + entry.path), entry.item))
+                .toList();
+        return new ResourceFolderMetadata(folder, items, nextToken);
+    }
+
+    private void update(String body, ResourceDescriptor resource, String metadata) {
+        Bucket bucket = new Bucket(resource);
+        List<String> parents = resource.getParentFolders();
+        List<Object> keys = new ArrayList<>();
+        List<Object> args = new ArrayList<>();
+        collectKeys(bucket, resource, metadata, keys, args);
+
+        while (true) {
+            List<Long> missing = script.eval(keys.get(0).toString(), RScript.Mode.READ_WRITE, body, RScript.ReturnType.MULTI, keys, args.toArray());
+            if (missing.isEmpty()) {
+                return;
+            }
+
+            for (long level : missing) {
+                String folder = level == parents.size()
+                        ? ""
+                        : String.join(PATH_SEPARATOR, parents.subList(0, parents.size() - (int) level)) + PATH_SEPARATOR;
+                build(bucket, folder, true);
+            }
+        }
+    }
+
+    private static void collectKeys(Bucket bucket, ResourceDescriptor resource, String metadata, List<Object> keys, List<Object> args) {
+        List<String> parents = resource.getParentFolders();
+        args.add(resource.getName());
+        args.add(metadata);
+
+        for (int level = parents.size(); level >= 0; level--) {
+            String folder = level == 0 ? "" : String.join(PATH_SEPARATOR, parents.subList(0, level)) + PATH_SEPARATOR;
+            keys.add(bucket.folderKey(folder));
+            keys.add(bucket.itemsKey(folder));
+            if (level > 0) {
+                args.add(parents.get(level - 1) + PATH_SEPARATOR);
+            }
+        }
+
+        keys.add(bucket.generationsKey());
+    }
+
+    /**
+     * Collects the entries of the folder after the token until there are enough of them.
+     */
+    private void collect(Bucket bucket, String folder, @Nullable String after, int limit, boolean recursive, List<Entry> entries) {
+        String start = "";
+        if (after != null) {
+            int slash = after.indexOf(PATH_SEPARATOR);
+            if (recursive && slash >= 0 && slash < after.length() - 1) {
+                // the previous page ended inside the sub-folder
+                start = after.substring(0, slash + 1);
+                collect(bucket, folder + start, after.substring(slash + 1), limit, true, entries);
+            } else {
+                start = after;
+            }
+        }
+
+        while (entries.size() < limit) {
+            List<String> page = script.eval(bucket.folderKey(folder), RScript.Mode.READ_ONLY, LIST_SCRIPT, RScript.ReturnType.MULTI,
+                    List.of(bucket.folderKey(folder), bucket.itemsKey(folder)), "(" + start, limit - entries.size());
+
+            if (page == null) {
+                if (!build(bucket, folder, false)) {
+                    return;
+                }
+                continue;
+            }
+
+            if (page.isEmpty()) {
+                return;
+            }
+
+            for (int i = 0; i < page.size() && entries.size() < limit; i += 2) {
+                String name = page.get(i);
+                String path = folder + name;
+                if (!name.endsWith(PATH_SEPARATOR)) {
+                    entries.add(new Entry(path, fromJson(page.get(i + 1))));
+                } else if (recursive) {
+                    collect(bucket, path, null, limit, true, entries);
+                } else {
+                    entries.add(new Entry(path, null));
+                }
+                start = name;
+            }
+        }
+    }
+
+    /**
+     * Builds the index of the folder from the blob store listing unless it's built already.
+     * The folder is listed again if it's changed while it's being listed.
+     *
+     * @param empty true if the empty folder must be indexed as well.
+     * @return false if the folder is empty and is not indexed.
+     */
+    private boolean build(Bucket bucket, String folder, boolean empty) {
+        while (true) {
+            Boolean built = tryBuild(bucket, folder, empty);
+            if (built != null) {
+                return built;
+            }
+            log.debug("Folder is changed while its index is being built: {}{}", bucket.root, folder);
+        }
+    }
+
+    /**
+     * @return null if the folder is changed since the listing is started.
+     */
+    @Nullable
+    private Boolean tryBuild(Bucket bucket, String folder, boolean empty) {
+        log.debug("Building folder index: {}{}", bucket.root, folder);
+        String path = bucket.root + folder;
+        String generation = redis.<String, String>getMap(bucket.generationsKey(), StringCodec.INSTANCE).get(bucket.folderKey(folder));
+        List<Object> args = new ArrayList<>();
+        args.add(generation == null ? "0" : generation);
+        String marker = null;
+
+        do {
+            PageSet<? extends StorageMetadata> set = blobStore.list(path, marker, BUILD_PAGE_SIZE, false);
+            for (StorageMetadata meta : set) {
+                String name = meta.getName().substring(path.length());
+                if (meta.getType() == StorageType.BLOB) {
+                    args.add(name);
+                    args.add(toJson(toItem((BlobMetadata) meta)));
+                } else if (!name.isEmpty()) {
+                    args.add(name.endsWith(PATH_SEPARATOR) ? name : name + PATH_SEPARATOR);
+                    args.add("");
+                }
+            }
+            marker = set.getNextMarker();
+        } while (marker != null);
+
+        if (args.size() == 1 && !empty) {
+            return false;
+        }
+
+        long result = script.eval(bucket.folderKey(folder), RScript.Mode.READ_WRITE, BUILD_SCRIPT, RScript.ReturnType.INTEGER,
+                List.of(bucket.folderKey(folder), bucket.itemsKey(folder), bucket.generationsKey()), args.toArray());
+        return result < 0 ? null : true;
+    }
+
+    private static Item toItem(BlobMetadata meta) {
+        Map<String, String> metadata = meta.getUserMetadata();
+        Long createdAt = null;
+        Long updatedAt = null;
+        String author = null;
+        Long contentLength = meta.getSize();
+
+        if (metadata != null) {
+            createdAt = metadata.containsKey(ResourceService.CREATED_AT_ATTRIBUTE) ? Long.parseLong(metadata.get(ResourceService.CREATED_AT_ATTRIBUTE)) : null;
+            updatedAt = metadata.containsKey(ResourceService.UPDATED_AT_ATTRIBUTE) ? Long.parseLong(metadata.get(ResourceService.UPDATED_AT_ATTRIBUTE)) : null;
+            author = metadata.get(ResourceService.AUTHOR_ATTRIBUTE);
+            ContentStore.ContentRef ref = ContentStore.ref(metadata);
+            contentLength = (ref == null) ? contentLength : ref.length();
+        }
+
+        if (createdAt == null && meta.getCreationDate() != null) {
+            createdAt = meta.getCreationDate().getTime();
+        }
+
+        if (updatedAt == null && meta.getLastModified() != null) {
+            updatedAt = meta.getLastModified().getTime();
+        }
+
+        return new Item(createdAt, updatedAt, author, contentLength, BlobStorage.resolveContentType(meta));
+    }
+
+    private static MetadataBase toMetadata(ResourceDescriptor resource, @Nullable Item item) {
+        if (item == null) {
+            return new ResourceFolderMetadata(resource);
+        }
+
+        if (resource.getType().requireCompression()) {
+            return new ResourceItemMetadata(resource).setCreatedAt(item.createdAt).setUpdatedAt(item.updatedAt).setAuthor(item.author);
+        }
+
+        long contentLength = item.contentLength == null ? 0 : item.contentLength;
+        return new FileMetadata(resource, contentLength, BlobStorage.resolveContentType(item.contentType, resource.getName()))
+                .setCreatedAt(item.createdAt)
+                .setAuthor(item.author)
+                .setUpdatedAt(item.updatedAt);
+    }
+
+    @SneakyThrows
+    private static String toJson(Item item) {
+        return MAPPER.writeValueAsString(item);
+    }
+
+    @SneakyThrows
+    private static Item fromJson(String json) {
+        return json.isEmpty() ? new Item(null, null, null, null, null) : MAPPER.readValue(json, Item.class);
+    }
+
+    /**
+     * The metadata of the item shown in the listing.
+     */
+    record Item(Long createdAt, Long updatedAt, String author, Long contentLength, String contentType) {
+    }
+
+    /**
+     * @param path the path relative to the bucket root.
+     * @param item the metadata of the item, null for the folder.
+     */
+    private record Entry(String path, @Nullable Item item) {
+    }
+
+    /**
+     * The root folder of the resource type in the bucket the keys are built for.
+     */
+    private class Bucket {
+        final String root;
+        final String tag;
+
+        Bucket(ResourceDescriptor resource) {
+            this.root = resource.getBucketLocation() + resource.getType().group() + PATH_SEPARATOR;
+            this.tag = "{" + BlobStorageUtil.toStoragePath(prefix, root) + "}";
+        }
+
+        String relativePath(ResourceDescriptor folder) {
+            return folder.getAbsoluteFilePath().substring(root.length());
+        }
+
+        String folderKey(String folder) {
+            return "folder:" + tag + folder;
+        }
+
+        String itemsKey(String folder) {
+            return "folder-items:" + tag + folder;
+        }
+
+        String generationsKey() {
+            return "folder-generations:" + tag;
+        }
+    }
+}
@@ -4,51 +4,152 @@ import com.epam.aidial.core.storage.blobstore.BlobStorageUtil;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RScript;
+import org.redisson.api.RTopic;
 import org.redisson.api.RedissonClient;
+import org.redisson.api.listener.BaseStatusListener;
 import org.redisson.client.codec.StringCodec;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.LockSupport;
 import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
 /**
- * Simple spin-lock implementation which works with Redis as cache. Supports volatile-* eviction policies.
+ * Lock implementation which works with Redis as cache. Supports volatile-* eviction policies.
+ * <p>
+ *     A released lock is announced over pub/sub, so the waiters retry immediately instead of polling.
+ *     The waiters still retry once the lease of the holder expires or after {@link #WAIT_MAX} in case a notification is lost.
+ *     The lease is short and is renewed by the watchdog while the lock is held, so the lock of a crashed node expires soon.
+ * </p>
  */
 @Slf4j
-public class LockService {
+public class LockService implements AutoCloseable {
 
-    private static final long PERIOD = TimeUnit.SECONDS.toMicros(300);
-    private static final long WAIT_MIN = TimeUnit.MILLISECONDS.toNanos(1);
-    private static final long WAIT_MAX = TimeUnit.MILLISECONDS.toNanos(128);
+    private static final long LEASE_TIME = TimeUnit.SECONDS.toMillis(30);
+    private static final long WAIT_MAX = TimeUnit.SECONDS.toMicros(1);
+    private static final String TRY_LOCK_SCRIPT = """
+            local time = redis.call('time')
+            local now = time[1] * 1000000 + time[2]
+            local deadline = tonumber(redis.call('hget', KEYS[1], 'deadline'))
+
+            if (deadline ~= nil and now < deadline) then
+              return deadline - now
+            end
+
+            redis.call('hset', KEYS[1], 'owner', ARGV[1], 'deadline', now + ARGV[2])
+            return 0
+            """;
 
     @Getter
     private final String prefix;
     private final RScript script;
+    private final RTopic topic;
+    private final long leaseTime;
+    private final ScheduledExecutorService watchdog;
+    private final Integer[] listeners;
+    // the callbacks to wake up the local waiters of the locks on release
+    private final Map<String, Set<Runnable>> waiters = new ConcurrentHashMap<>();
+    // the owners of the locks held by this node which leases are renewed by the watchdog
+    private final Map<String, Long> leases = new ConcurrentHashMap<>();
 
     public LockService(RedissonClient redis, @Nullable String prefix) {
+        this(redis, prefix, LEASE_TIME);
+    }
+
+    LockService(RedissonClient redis, @Nullable String prefix, long leaseTime) {
         this.prefix = prefix;
         this.script = redis.getScript(StringCodec.INSTANCE);
+        this.topic = redis.getTopic("lock:" + BlobStorageUtil.toStoragePath(prefix, "topic"), StringCodec.INSTANCE);
+        this.leaseTime = leaseTime;
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "lock-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        int messageListener = topic.addListener(String.class, (channel, id) -> wakeUp(id));
+        int statusListener = topic.addListener(new BaseStatusListener() {
+            @Override
+            public void onSubscribe(String channel) {
+                // notifications could be missed while the subscription was being (re)established
+                waiters.keySet().forEach(LockService.this::wakeUp);
+            }
+        });
+        this.listeners = new Integer[] {messageListener, statusListener};
+
+        long renewalPeriod = Math.max(1, leaseTime / 3);
+        watchdog.scheduleWithFixedDelay(this::renewLeases, renewalPeriod, renewalPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        watchdog.shutdownNow();
+        topic.removeListener(listeners);
     }
 
     public Lock lock(String key) {
+        try {
+            return lockAsync(key).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Acquires the lock without blocking the calling thread.
+     */
+    public CompletableFuture<Lock> lockAsync(String key) {
         String id = id(key);
         long owner = ThreadLocalRandom.current().nextLong();
         log.debug("Thread {} acquires a lock to the resource {} with owner {}", Thread.currentThread().getName(), id, owner);
-        long ttl = tryLock(id, owner);
-        long interval = WAIT_MIN;
+        CompletableFuture<Lock> future = new CompletableFuture<>();
+        lockAsync(id, owner, future);
+        return future;
+    }
 
-        while (ttl > 0) {
-            LockSupport.parkNanos(interval);
-            interval = Math.min(2 * interval, Math.min(WAIT_MAX, ttl + 1));
-            ttl = tryLock(id, owner);
+    private void lockAsync(String id, long owner, CompletableFuture<Lock> future) {
+        if (future.isDone()) {
+            return;
         }
 
-        return () -> unlock(id, owner);
+        // the waiter is registered before the attempt, so the release right after the attempt is not missed
+        CompletableFuture<Void> signal = new CompletableFuture<>();
+        Runnable waiter = () -> signal.complete(null);
+        addWaiter(id, waiter);
+
+        tryLockAsync(id, owner).whenComplete((ttl, error) -> {
+            if (error != null) {
+                removeWaiter(id, waiter);
+                future.completeExceptionally(error);
+            } else if (ttl == 0) {
+                removeWaiter(id, waiter);
+                Lock lock = acquired(id, owner);
+                if (!future.complete(lock)) {
+                    lock.close();
+                }
+            } else {
+                signal.completeOnTimeout(null, Math.min(ttl, WAIT_MAX), TimeUnit.MICROSECONDS).thenRun(() -> {
+                    removeWaiter(id, waiter);
+                    lockAsync(id, owner, future);
+                });
+            }
+        });
     }
 
     public <T> T underBucketLock(String bucketLocation, Supplier<T> function) {
@@ -86,53 +187,107 @@ public class LockService {
         String id = id(key);
         long owner = ThreadLocalRandom.current().nextLong();
         long ttl = tryLock(id, owner);
-        return (ttl == 0) ? () -> unlock(id, owner) : null;
+        return (ttl == 0) ? acquired(id, owner) : null;
     }
 
     private long tryLock(String id, long owner) {
-        return script.eval(RScript.Mode.READ_WRITE,
-                """
-                        local time = redis.call('time')
-                        local now = time[1] * 1000000 + time[2]
-                        local deadline = tonumber(redis.call('hget', KEYS[1], 'deadline'))
+        return script.eval(id, RScript.Mode.READ_WRITE, TRY_LOCK_SCRIPT, RScript.ReturnType.INTEGER,
+                List.of(id), String.valueOf(owner), String.valueOf(toMicros(leaseTime)));
+    }
 
-                        if (deadline ~= nil and now < deadline) then
-                          return deadline - now
-                        end
+    private CompletionStage<Long> tryLockAsync(String id, long owner) {
+        return script.evalAsync(id, RScript.Mode.READ_WRITE, TRY_LOCK_SCRIPT, RScript.ReturnType.INTEGER,
+                List.of(id), String.valueOf(owner), String.valueOf(toMicros(leaseTime)));
+    }
+
+    private Lock acquired(String id, long owner) {
+        leases.put(id, owner);
+        return () -> unlock(id, owner);
+    }
+
+    private void renewLeases() {
+        for (Map.Entry<String, Long> lease : leases.entrySet()) {
+            String id = lease.getKey();
+            long owner = lease.getValue();
+            script.<Boolean>evalAsync(id, RScript.Mode.READ_WRITE,
+                    """
+                            local time = redis.call('time')
+                            local now = time[1] * 1000000 + time[2]
 
-                        redis.call('hset', KEYS[1], 'owner', ARGV[1], 'deadline', now + ARGV[2])
-                        return 0
-                        """, RScript.ReturnType.INTEGER, List.of(id), String.valueOf(owner), String.valueOf(PERIOD));
+                            if (redis.call('hget', KEYS[1], 'owner') == ARGV[1]) then
+                              redis.call('hset', KEYS[1], 'deadline', now + ARGV[2])
+                              return true
+                            end
+
+                            return false
+                            """, RScript.ReturnType.BOOLEAN, List.of(id), String.valueOf(owner), String.valueOf(toMicros(leaseTime)))
+                    .whenComplete((renewed, error) -> {
+                        if (error != null) {
+                            log.warn("Lock service failed to renew the lease: {}", id, error);
+                        } else if (!renewed && leases.remove(id, owner)) {
+                            log.error("Lock service lost the lease: {}", id);
+                        }
+                    });
+        }
     }
 
     private void unlock(String id, long owner) {
+        leases.remove(id, owner);
         boolean ok = tryUnlock(id, owner);
         if (!ok) {
             log.error("Lock service failed to unlock: {}", id);
         } else {
             log.debug("Thread {} releases a lock to the resource {} with owner {}", Thread.currentThread().getName(), id, owner);
+            wakeUp(id);
         }
     }
 
     private boolean tryUnlock(String id, long owner) {
         try {
-            return script.eval(RScript.Mode.READ_WRITE,
+            return script.eval(id, RScript.Mode.READ_WRITE,
                     """
                             local owner = redis.call('hget', KEYS[1], 'owner')
 
                             if (owner == ARGV[1]) then
                               redis.call('del', KEYS[1])
+                              redis.call('publish', ARGV[2], KEYS[1])
                               return true
                             end
 
                             return false
-                            """, RScript.ReturnType.BOOLEAN, List.of(id), String.valueOf(owner));
+                            """, RScript.ReturnType.BOOLEAN, List.of(id), String.valueOf(owner), topic.getChannelNames().get(0));
         } catch (Throwable e) {
             log.error("Lock service failed to unlock: {}", id, e);
             return false;
         }
     }
 
+    private void addWaiter(String id, Runnable waiter) {
+        waiters.compute(id, (key, set) -> {
+            Set<Runnable> result = (set == null) ? new HashSet<>() : set;
+            result.add(waiter);
+            return result;
+        });
+    }
+
+    private void removeWaiter(String id, Runnable waiter) {
+        waiters.computeIfPresent(id, (key, set) -> {
+            set.remove(waiter);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private void wakeUp(String id) {
+        Set<Runnable> set = waiters.remove(id);
+        if (set != null) {
+            set.forEach(Runnable::run);
+        }
+    }
+
+    private static long toMicros(long millis) {
+        return TimeUnit.MILLISECONDS.toMicros(millis);
+    }
+
     private static String id(String key) {
         return "lock:" + key;
     }
@@ -2,6 +2,10 @@ package com.epam.aidial.core.storage.service;
 
 import com.epam.aidial.core.storage.blobstore.BlobStorage;
 import com.epam.aidial.core.storage.blobstore.BlobStorageUtil;
+import com.epam.aidial.core.storage.compression.CompressionCodec;
+import com.epam.aidial.core.storage.compression.GzipCodec;
+import com.epam.aidial.core.storage.compression.ZstdCodec;
+import com.epam.aidial.core.storage.compression.ZstdDictionaryCodec;
 import com.epam.aidial.core.storage.data.FileMetadata;
 import com.epam.aidial.core.storage.data.MetadataBase;
 import com.epam.aidial.core.storage.data.ResourceEvent;
@@ -11,9 +15,14 @@ import com.epam.aidial.core.storage.resource.ResourceDescriptor;
 import com.epam.aidial.core.storage.util.Compression;
 import com.epam.aidial.core.storage.util.EtagBuilder;
 import com.epam.aidial.core.storage.util.EtagHeader;
+import com.epam.aidial.core.storage.util.RangeHeader;
 import com.epam.aidial.core.storage.util.RedisUtil;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.SneakyThrows;
@@ -25,32 +34,58 @@ import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.BlobMetadata;
 import org.jclouds.blobstore.domain.MultipartPart;
 import org.jclouds.blobstore.domain.MultipartUpload;
+import org.jclouds.blobstore.domain.MutableBlobMetadata;
 import org.jclouds.blobstore.domain.PageSet;
 import org.jclouds.blobstore.domain.StorageMetadata;
 import org.jclouds.blobstore.domain.StorageType;
-import org.jclouds.io.Payload;
+import org.jclouds.blobstore.domain.internal.MutableBlobMetadataImpl;
+import org.redisson.api.RBatch;
+import org.redisson.api.RFuture;
 import org.redisson.api.RMap;
+import org.redisson.api.RMapAsync;
 import org.redisson.api.RScoredSortedSet;
+import org.redisson.api.RScoredSortedSetAsync;
+import org.redisson.api.RScript;
 import org.redisson.api.RedissonClient;
 import org.redisson.client.codec.ByteArrayCodec;
 import org.redisson.client.codec.Codec;
 import org.redisson.client.codec.StringCodec;
+import org.redisson.client.protocol.ScoredEntry;
 import org.redisson.codec.CompositeCodec;
 
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
 import javax.annotation.Nullable;
 
 @Slf4j
@@ -67,7 +102,8 @@ public class ResourceService implements AutoCloseable {
     public static final String CREATED_AT_ATTRIBUTE = "created_at";
     public static final String ETAG_ATTRIBUTE = "etag";
     private static final String COMPRESS_ATTRIBUTE = "compress";
-    private static final String AUTHOR_ATTRIBUTE = "author";
+    public static final String AUTHOR_ATTRIBUTE = "author";
+    private static final String ENCODING_ATTRIBUTE = "encoding";
 
     private static final Set<String> REDIS_FIELDS_NO_BODY = Set.of(
             ETAG_ATTRIBUTE,
@@ -80,16 +116,81 @@ public class ResourceService implements AutoCloseable {
             SYNCED_ATTRIBUTE,
             EXISTS_ATTRIBUTE);
     private static final Set<String> REDIS_FIELDS = Sets.union(
-            Set.of(BODY_ATTRIBUTE),
+            Set.of(BODY_ATTRIBUTE, ENCODING_ATTRIBUTE),
             REDIS_FIELDS_NO_BODY);
     private static final Codec REDIS_MAP_CODEC = new CompositeCodec(
             StringCodec.INSTANCE,
             ByteArrayCodec.INSTANCE);
+    private static final int MAX_OPTIMISTIC_ATTEMPTS = 16;
+    private static final int NEAR_CACHE_ENTRY_OVERHEAD = 256;
+    private static final int MAX_PARALLEL_LOADS = 16;
+    private static final CompressionCodec DEFAULT_COMPRESSION_CODEC = Compression.getCodec(GzipCodec.ENCODING);
+    // ARGV: etag, "true", default etag, cached, expiration, fields
+    // the writes are compared by etag because computeResource updates the cached resources without the lock
+    private static final String REDIS_PUT_SCRIPT = """
+            if (ARGV[1] ~= '') then
+              if (redis.call('hget', KEYS[1], 'exists') == ARGV[2]) then
+                local etag = redis.call('hget', KEYS[1], 'etag')
+                if (not etag or etag == '') then
+                  etag = ARGV[3]
+                end
+
+                if (etag ~= ARGV[1]) then
+                  return 0
+                end
+              elseif (ARGV[4] == ARGV[2]) then
+                return 0
+              end
+            end
+
+            redis.call('hset', KEYS[1], unpack(ARGV, 6))
+
+            if (ARGV[5] == '') then
+              redis.call('persist', KEYS[1])
+            else
+              redis.call('pexpire', KEYS[1], ARGV[5])
+            end
+
+            return 1
+            """;
+    // ARGV: etag, "true", default etag, evict, expiration
+    private static final String REDIS_SYNC_SCRIPT = """
+            if (redis.call('exists', KEYS[1]) == 0) then
+              return 1
+            end
+
+            if (ARGV[1] ~= '' and redis.call('hget', KEYS[1], 'exists') == ARGV[2]) then
+              local etag = redis.call('hget', KEYS[1], 'etag')
+              if (not etag or etag == '') then
+                etag = ARGV[3]
+              end
+
+              if (etag ~= ARGV[1]) then
+                return 0
+              end
+            end
+
+            if (ARGV[4] == ARGV[2]) then
+              redis.call('del', KEYS[1])
+              return 1
+            end
+
+            redis.call('hset', KEYS[1], 'synced', ARGV[2])
+
+            -- according to the documentation, -1 means expiration is not set
+            if (redis.call('pttl', KEYS[1]) == -1) then
+              redis.call('pexpire', KEYS[1], ARGV[5])
+            end
+
+            return 1
+            """;
 
     private final RedissonClient redis;
     private final BlobStorage blobStore;
     private final LockService lockService;
     private final ResourceTopic topic;
+    private final FolderIndex folderIndex;
+    private final ContentStore contentStore;
     @Getter
     private final int maxSize;
     private final int maxSizeToCache;
@@ -98,8 +199,35 @@ public class ResourceService implements AutoCloseable {
     private final int syncBatch;
     private final Duration cacheExpiration;
     private final int compressionMinSize;
+    // the codecs by resource type, gzip if not configured
+    private final Map<String, CompressionCodec> compressionCodecs;
+    private final int cacheCompressionMinSize;
+    // compresses the bodies cached in Redis, null if disabled
+    @Nullable
+    private final CompressionCodec cacheCompressionCodec;
     private final String prefix;
+    // the files are stored once by content and the blobs of the files refer to the content
+    private final boolean contentAddressed;
     private final String resourceQueue;
+    private final int syncShards;
+    // the keys are assigned to the single thread lanes by hash, so the syncs of the same key run in order
+    private final List<ExecutorService> syncLanes;
+    // loads the resources which are not cached in Redis for the multi-get
+    private final ExecutorService loadExecutor;
+    // runs the operations on the resources of the folders and the publications in parallel
+    private final ExecutorService bulkExecutor;
+    private volatile long syncBacklog;
+    private volatile long syncLag;
+    // the resources read on this node by url and etag, null if disabled
+    @Nullable
+    private final Cache<NearCacheKey, Result> nearCache;
+    // the etag of the resource cached in the near-cache by url
+    private final Map<String, String> nearCacheEtags = new ConcurrentHashMap<>();
+    // the big resources read on this node by url, null if disabled
+    @Nullable
+    private final DiskCache diskCache;
+    // incremented on every invalidation to not cache the resources which are read before the invalidation
+    private final AtomicLong invalidations = new AtomicLong();
 
     public ResourceService(TimerService timerService,
                            RedissonClient redis,
@@ -111,22 +239,136 @@ public class ResourceService implements AutoCloseable {
         this.blobStore = blobStore;
         this.lockService = lockService;
         this.topic = new ResourceTopic(redis, "resource:" + BlobStorageUtil.toStoragePath(prefix, "topic"));
+        this.folderIndex = new FolderIndex(redis, blobStore, prefix);
+        this.contentStore = new ContentStore(redis, blobStore, lockService, prefix);
         this.maxSize = settings.maxSize;
         this.maxSizeToCache = settings.maxSizeToCache();
         this.syncDelay = settings.syncDelay;
         this.syncBatch = settings.syncBatch;
         this.cacheExpiration = Duration.ofMillis(settings.cacheExpiration);
         this.compressionMinSize = settings.compressionMinSize;
+        this.compressionCodecs = createCompressionCodecs(settings);
+        this.cacheCompressionMinSize = settings.cacheCompressionMinSize;
+        this.cacheCompressionCodec = settings.cacheCompressionMinSize > 0
+                ? Compression.getCodec(Objects.requireNonNullElse(settings.cacheCompressionCodec, ZstdCodec.ENCODING))
+                : null;
         this.prefix = prefix;
+        this.contentAddressed = settings.contentAddressed;
         this.resourceQueue = "resource:" + BlobStorageUtil.toStoragePath(prefix, "queue");
+        this.nearCache = settings.nearCacheSize > 0 ? createNearCache(settings, nearCacheEtags) : null;
+        this.diskCache = settings.diskCacheSize > 0 ? createDiskCache(settings) : null;
+        this.syncShards = Math.max(1, settings.syncShards);
+        this.syncLanes = createSyncLanes(Math.max(1, settings.syncParallelism));
+        this.loadExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_LOADS, task -> {
+            Thread thread = new Thread(task, "resource-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.bulkExecutor = Executors.newFixedThreadPool(Math.max(1, settings.bulkParallelism), task -> {
+            Thread thread = new Thread(task, "resource-bulk");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (nearCache != null || diskCache != null) {
+            topic.subscribeAll(this::invalidate, this::invalidateAll);
+        }
 
         this.syncTimer = timerService.scheduleWithFixedDelay(settings.syncPeriod, settings.syncPeriod, this::sync);
     }
 
+    private static DiskCache createDiskCache(Settings settings) {
+        Path directory = (settings.diskCacheDirectory == null)
+                ? Path.of(System.getProperty("java.io.tmpdir"), "aidial-disk-cache")
+                : Path.of(settings.diskCacheDirectory);
+        return new DiskCache(directory, settings.diskCacheSize);
+    }
+
+    private static Cache<NearCacheKey, Result> createNearCache(Settings settings, Map<String, String> etags) {
+        return CacheBuilder.newBuilder()
+                .maximumWeight(settings.nearCacheSize)
+                .weigher((NearCacheKey key, Result result) -> key.url.length() + ArrayUtils.getLength(result.body) + NEAR_CACHE_ENTRY_OVERHEAD)
+                // the etag of the url is kept unless the other etag is cached already
+                .removalListener((RemovalNotification<NearCacheKey, Result> notification) ->
+                        etags.remove(notification.getKey().url, notification.getKey().etag))
+                .expireAfterWrite(settings.cacheExpiration, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    private static Map<String, CompressionCodec> createCompressionCodecs(Settings settings) {
+        List<CompressionCodec> dictionaries = new ArrayList<>();
+        if (settings.compressionDictionaries != null) {
+            for (String path : settings.compressionDictionaries) {
+                CompressionCodec codec = new ZstdDictionaryCodec(readFile(path));
+                // all the dictionaries are registered to read the blobs compressed with the previous ones
+                Compression.register(codec);
+                dictionaries.add(codec);
+            }
+        }
+
+        Map<String, CompressionCodec> codecs = new HashMap<>();
+        if (settings.compressionCodecs != null) {
+            settings.compressionCodecs.forEach((resourceType, name) -> {
+                if (!name.equals(ZstdDictionaryCodec.NAME)) {
+                    codecs.put(resourceType, Compression.getCodec(name));
+                } else if (dictionaries.isEmpty()) {
+                    throw new IllegalArgumentException("Compression dictionary is not configured for resource type: " + resourceType);
+                } else {
+                    codecs.put(resourceType, dictionaries.get(0));
+                }
+            });
+        }
+
+        return codecs;
+    }
+
+    @SneakyThrows
+    private static byte[] readFile(String path) {
+        return Files.readAllBytes(Path.of(path));
+    }
+
+    private static List<ExecutorService> createSyncLanes(int parallelism) {
+        List<ExecutorService> lanes = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            String name = "resource-sync-" + i;
+            lanes.add(Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                return thread;
+            }));
+        }
+        return lanes;
+    }
+
     @SneakyThrows
     @Override
     public void close() {
         syncTimer.close();
+        syncLanes.forEach(ExecutorService::shutdownNow);
+        loadExecutor.shutdownNow();
+        bulkExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the number of the resources waiting to be synced to the blob store as of the last sync.
+     */
+    public long getSyncBacklog() {
+        return syncBacklog;
+    }
+
+    /**
+     * Returns how long in milliseconds the oldest resource which is due to be synced has been waiting as of the last sync.
+     */
+    public long getSyncLag() {
+        return syncLag;
+    }
+
+    /**
+     * Returns the hit ratio of the near-cache or NaN if it's disabled.
+     */
+    public double getNearCacheHitRatio() {
+        return nearCache == null ? Double.NaN : nearCache.stats().hitRate();
     }
 
     public ResourceTopic.Subscription subscribeResources(Collection<ResourceDescriptor> resources,
@@ -149,6 +391,24 @@ public class ResourceService implements AutoCloseable {
     }
 
     public void copyFolder(ResourceDescriptor sourceFolder, ResourceDescriptor targetFolder, boolean overwrite) {
+        BulkResult result = copyFolder(sourceFolder, targetFolder, overwrite, null);
+        result.throwIfFailed();
+
+        if (!result.skipped().isEmpty()) {
+            String sourceFileUrl = result.skipped().get(0);
+            throw new IllegalArgumentException("Can't copy source file: " + sourceFileUrl
+                                               + " to target file: " + toTargetUrl(sourceFolder, targetFolder, sourceFileUrl));
+        }
+    }
+
+    /**
+     * Copies the resources of the folder in parallel, see {@link #runBulk(List, Function, Predicate, IntConsumer)}.
+     *
+     * @return the result with the urls of the source resources, the resources are skipped if the target ones exist and not overwritten.
+     */
+    public BulkResult copyFolder(ResourceDescriptor sourceFolder, ResourceDescriptor targetFolder, boolean overwrite,
+                                 @Nullable IntConsumer progress) {
+        BulkResult result = BulkResult.empty();
         String token = null;
         do {
             ResourceFolderMetadata folder = getFolderMetadata(sourceFolder, token, 1000, true);
@@ -156,105 +416,133 @@ public class ResourceService implements AutoCloseable {
                 throw new IllegalArgumentException("Source folder is empty");
             }
 
-            for (MetadataBase item : folder.getItems()) {
-                String sourceFileUrl = item.getUrl();
-                String targetFileUrl = targetFolder + sourceFileUrl.substring(sourceFolder.getUrl().length());
-
-                ResourceDescriptor sourceFile = sourceFolder.resolveByUrl(sourceFileUrl);
-                ResourceDescriptor targetFile = targetFolder.resolveByUrl(targetFileUrl);
-
-                if (!copyResource(sourceFile, targetFile, overwrite)) {
-                    throw new IllegalArgumentException("Can't copy source file: " + sourceFileUrl
-                                                       + " to target file: " + targetFileUrl);
-                }
-            }
+            runBulk(folder.getItems(), MetadataBase::getUrl, item -> {
+                ResourceDescriptor sourceFile = sourceFolder.resolveByUrl(item.getUrl());
+                ResourceDescriptor targetFile = targetFolder.resolveByUrl(toTargetUrl(sourceFolder, targetFolder, item.getUrl()));
+                return copyResource(sourceFile, targetFile, overwrite);
+            }, progress, result);
 
             token = folder.getNextToken();
         } while (token != null);
+
+        return result;
+    }
+
+    private static String toTargetUrl(ResourceDescriptor sourceFolder, ResourceDescriptor targetFolder, String sourceFileUrl) {
+        return targetFolder + sourceFileUrl.substring(sourceFolder.getUrl().length());
     }
 
     public boolean deleteFolder(ResourceDescriptor folder) {
+        BulkResult result = deleteFolder(folder, null);
+        if (result == null) {
+            return false;
+        }
+
+        result.throwIfFailed();
+        return true;
+    }
+
+    /**
+     * Deletes the resources of the folder in parallel, see {@link #runBulk(List, Function, Predicate, IntConsumer)}.
+     *
+     * @return the result with the urls of the resources, null if the folder doesn't exist.
+     */
+    @Nullable
+    public BulkResult deleteFolder(ResourceDescriptor folder, @Nullable IntConsumer progress) {
+        BulkResult result = BulkResult.empty();
         String token = null;
         do {
             ResourceFolderMetadata metadata = getFolderMetadata(folder, token, 1000, true);
             if (metadata == null) {
-                return false;
+                return (token == null) ? null : result;
             }
 
-            for (MetadataBase item : metadata.getItems()) {
-                ResourceDescriptor file = folder.resolveByUrl(item.getUrl());
-                deleteResource(file, EtagHeader.ANY);
-            }
+            runBulk(metadata.getItems(), MetadataBase::getUrl,
+                    item -> deleteResource(folder.resolveByUrl(item.getUrl()), EtagHeader.ANY), progress, result);
 
             token = metadata.getNextToken();
         } while (token != null);
 
-        return true;
+        return result;
     }
 
-    @Nullable
-    public MetadataBase getMetadata(ResourceDescriptor descriptor, String token, int limit, boolean recursive) {
-        return descriptor.isFolder()
-                ? getFolderMetadata(descriptor, token, limit, recursive)
-                : getResourceMetadata(descriptor);
+    /**
+     * Applies the operation to the items in parallel, no more than {@link Settings#bulkParallelism()} items at once on the node.
+     * The operations take the locks of the resources one by one, so they are run for the items of different resources only.
+     * An item which operation fails doesn't stop the others, the failures are collected in the result.
+     *
+     * @param url returns the url of the item the result is reported by.
+     * @param operation applies the operation to the item, returns false if the item is skipped.
+     * @param progress called on the calling thread with the number of the processed items, null if not needed.
+     */
+    public <T> BulkResult runBulk(List<T> items, Function<T, String> url, Predicate<T> operation, @Nullable IntConsumer progress) {
+        BulkResult result = BulkResult.empty();
+        runBulk(items, url, operation, progress, result);
+        return result;
     }
 
-    public ResourceFolderMetadata getFolderMetadata(ResourceDescriptor descriptor, String token, int limit, boolean recursive) {
-        String blobKey = blobKey(descriptor);
-        PageSet<? extends StorageMetadata> set = blobStore.list(blobKey, token, limit, recursive);
-
-        if (set.isEmpty() && !descriptor.isRootFolder()) {
-            return null;
+    private <T> void runBulk(List<T> items, Function<T, String> url, Predicate<T> operation,
+                             @Nullable IntConsumer progress, BulkResult result) {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(items.size());
+        for (T item : items) {
+            futures.add(CompletableFuture.supplyAsync(() -> operation.test(item), bulkExecutor));
         }
 
-        List<MetadataBase> resources = set.stream().map(meta -> {
-            Map<String, String> metadata = meta.getUserMetadata();
-            String path = meta.getName();
-            ResourceDescriptor description = descriptor.resolveByPath(path);
-
-            if (meta.getType() != StorageType.BLOB) {
-                return new ResourceFolderMetadata(description);
-            }
-
-            Long createdAt = null;
-            Long updatedAt = null;
-            String author = null;
-
-            if (metadata != null) {
-                createdAt = metadata.containsKey(CREATED_AT_ATTRIBUTE) ? Long.parseLong(metadata.get(CREATED_AT_ATTRIBUTE)) : null;
-                updatedAt = metadata.containsKey(UPDATED_AT_ATTRIBUTE) ? Long.parseLong(metadata.get(UPDATED_AT_ATTRIBUTE)) : null;
-                author = metadata.get(AUTHOR_ATTRIBUTE);
-            }
-
-            if (createdAt == null && meta.getCreationDate() != null) {
-                createdAt = meta.getCreationDate().getTime();
-            }
-
-            if (updatedAt == null && meta.getLastModified() != null) {
-                updatedAt = meta.getLastModified().getTime();
+        for (int i = 0; i < items.size(); i++) {
+            String itemUrl = url.apply(items.get(i));
+            try {
+                if (join(futures.get(i))) {
+                    result.completed().add(itemUrl);
+                } else {
+                    result.skipped().add(itemUrl);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Bulk operation failed for resource: {}", itemUrl, e);
+                result.failures().put(itemUrl, e);
             }
 
-            if (description.getType().requireCompression()) {
-                return new ResourceItemMetadata(description).setCreatedAt(createdAt).setUpdatedAt(updatedAt).setAuthor(author);
+            if (progress != null) {
+                progress.accept(result.size());
             }
+        }
+    }
 
-            return new FileMetadata(description, meta.getSize(), BlobStorage.resolveContentType((BlobMetadata) meta))
-                    .setCreatedAt(createdAt)
-                    .setAuthor(author)
-                    .setUpdatedAt(updatedAt);
-        }).toList();
+    @Nullable
+    public MetadataBase getMetadata(ResourceDescriptor descriptor, String token, int limit, boolean recursive) {
+        return descriptor.isFolder()
+                ? getFolderMetadata(descriptor, token, limit, recursive)
+                : getResourceMetadata(descriptor);
+    }
 
-        return new ResourceFolderMetadata(descriptor, resources, set.getNextMarker());
+    /**
+     * Lists the folder from the index kept in Redis, see {@link FolderIndex}.
+     *
+     * @param token the token of the page returned by the previous call, null for the first page.
+     * @return null if the folder is empty unless it's the root folder.
+     */
+    @Nullable
+    public ResourceFolderMetadata getFolderMetadata(ResourceDescriptor descriptor, String token, int limit, boolean recursive) {
+        return folderIndex.list(descriptor, token, limit, recursive);
     }
 
     @Nullable
     public ResourceItemMetadata getResourceMetadata(ResourceDescriptor descriptor) {
+        return getResourceMetadata(descriptor, true);
+    }
+
+    /**
+     * Reads the metadata of the resource.
+     *
+     * @param cached false to read the resource from Redis bypassing the near-cache, e.g. under the lock of the resource to update it.
+     */
+    @Nullable
+    private ResourceItemMetadata getResourceMetadata(ResourceDescriptor descriptor, boolean cached) {
         if (descriptor.isFolder()) {
             throw new IllegalArgumentException("Resource folder: " + descriptor.getUrl());
         }
 
         String redisKey = redisKey(descriptor);
-        Result result = redisGet(redisKey, false);
+        Result result = cached ? cacheGet(descriptor, redisKey, false) : redisGet(redisKey, false);
 
         if (result == null) {
             String blobKey = blobKey(descriptor);
@@ -270,6 +558,16 @@ public class ResourceService implements AutoCloseable {
                 : toFileMetadata(descriptor, result);
     }
 
+    private static FolderIndex.Item toIndexItem(Result result) {
+        return new FolderIndex.Item(result.createdAt, result.updatedAt, result.author, result.contentLength, result.contentType);
+    }
+
+    private static FolderIndex.Item toIndexItem(ResourceItemMetadata metadata) {
+        return metadata instanceof FileMetadata file
+                ? new FolderIndex.Item(file.getCreatedAt(), file.getUpdatedAt(), file.getAuthor(), file.getContentLength(), file.getContentType())
+                : new FolderIndex.Item(metadata.getCreatedAt(), metadata.getUpdatedAt(), metadata.getAuthor(), null, null);
+    }
+
     private static ResourceItemMetadata toResourceItemMetadata(
             ResourceDescriptor descriptor, Result result) {
         return new ResourceItemMetadata(descriptor)
@@ -288,6 +586,9 @@ public class ResourceService implements AutoCloseable {
                 .setEtag(result.etag());
     }
 
+    /**
+     * Checks if the resource exists. The near-cache is bypassed, since the check usually precedes an update of the resource.
+     */
     public boolean hasResource(ResourceDescriptor descriptor) {
         String redisKey = redisKey(descriptor);
         Result result = redisGet(redisKey, false);
@@ -305,10 +606,21 @@ public class ResourceService implements AutoCloseable {
         return getResourceWithMetadata(descriptor, etag, true);
     }
 
+    /**
+     * Reads the resource with the metadata.
+     *
+     * @param lock false if the caller holds the lock of the resource, then the near-cache is bypassed, so the resource is not stale.
+     */
     @Nullable
     private Pair<ResourceItemMetadata, String> getResourceWithMetadata(ResourceDescriptor descriptor, EtagHeader etagHeader, boolean lock) {
+        Pair<ResourceItemMetadata, byte[]> result = getResourceBodyWithMetadata(descriptor, etagHeader, lock);
+        return (result == null) ? null : Pair.of(result.getKey(), new String(result.getValue(), StandardCharsets.UTF_8));
+    }
+
+    @Nullable
+    private Pair<ResourceItemMetadata, byte[]> getResourceBodyWithMetadata(ResourceDescriptor descriptor, EtagHeader etagHeader, boolean lock) {
         String redisKey = redisKey(descriptor);
-        Result result = redisGet(redisKey, true);
+        Result result = lock ? cacheGet(descriptor, redisKey, true) : redisGet(redisKey, true);
 
         if (result == null) {
             try (var ignore = lock ? lockService.lock(redisKey) : null) {
@@ -318,15 +630,16 @@ public class ResourceService implements AutoCloseable {
                     String blobKey = blobKey(descriptor);
                     result = blobGet(blobKey, true);
                     redisPut(redisKey, result);
+                    if (!result.exists()) {
+                        folderIndex.repair(descriptor);
+                    }
                 }
             }
         }
 
         if (result.exists()) {
             etagHeader.validate(result.etag);
-            return Pair.of(
-                    toResourceItemMetadata(descriptor, result),
-                    new String(result.body, StandardCharsets.UTF_8));
+            return Pair.of(toResourceItemMetadata(descriptor, result), result.body);
         }
 
         return null;
@@ -343,46 +656,237 @@ public class ResourceService implements AutoCloseable {
         return (result == null) ? null : result.getRight();
     }
 
+    /**
+     * Reads the body of the resource as is, e.g. the binary one written by {@link #computeResourceBody(ResourceDescriptor, String, Function)}.
+     */
+    @Nullable
+    public byte[] getResourceBody(ResourceDescriptor descriptor) {
+        Pair<ResourceItemMetadata, byte[]> result = getResourceBodyWithMetadata(descriptor, EtagHeader.ANY, true);
+        return (result == null) ? null : result.getRight();
+    }
+
+    /**
+     * Reads the resources with a single pipelined request to Redis.
+     * The resources which are not cached in Redis are loaded from the blob store in parallel as {@link #getResource(ResourceDescriptor)} does.
+     *
+     * @return the bodies of the resources in the order of the descriptors, null if a resource doesn't exist.
+     */
+    public List<String> getResources(List<ResourceDescriptor> descriptors) {
+        return getResourceBodies(descriptors).stream()
+                .map(body -> (body == null) ? null : new String(body, StandardCharsets.UTF_8))
+                .toList();
+    }
+
+    /**
+     * Reads the bodies of the resources as is with a single pipelined request to Redis, see {@link #getResources(List)}.
+     */
+    public List<byte[]> getResourceBodies(List<ResourceDescriptor> descriptors) {
+        List<Result> results = cacheGetAll(descriptors);
+        List<byte[]> bodies = new ArrayList<>(descriptors.size());
+        Map<Integer, CompletableFuture<byte[]>> misses = new HashMap<>();
+
+        for (int i = 0; i < descriptors.size(); i++) {
+            Result result = results.get(i);
+            if (result == null) {
+                ResourceDescriptor descriptor = descriptors.get(i);
+                misses.put(i, CompletableFuture.supplyAsync(() -> getResourceBody(descriptor), loadExecutor));
+                bodies.add(null);
+            } else {
+                bodies.add(result.exists() ? result.body : null);
+            }
+        }
+
+        for (Map.Entry<Integer, CompletableFuture<byte[]>> miss : misses.entrySet()) {
+            bodies.set(miss.getKey(), join(miss.getValue()));
+        }
+
+        return bodies;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
     public ResourceStream getResourceStream(ResourceDescriptor resource, EtagHeader etagHeader) throws IOException {
+        return getResourceStream(resource, etagHeader, Set.of(), RangeHeader.NONE);
+    }
+
+    /**
+     * Opens the stream of the resource or of the requested ranges of the resource, see {@link ResourceStream#ranges()}.
+     * The body cached in Redis compressed with one of the accepted HTTP content codings is streamed as is,
+     * see {@link ResourceStream#contentEncoding()}. The ranges are always served from the decoded body.
+     * The blob which is not cached is checked by metadata first if the request is conditional or ranged,
+     * so only the requested bytes are downloaded from the blob store.
+     *
+     * @param acceptedEncodings the content encodings accepted by the client.
+     * @param rangeHeader the requested ranges.
+     */
+    public ResourceStream getResourceStream(ResourceDescriptor resource, EtagHeader etagHeader,
+                                            Set<String> acceptedEncodings, RangeHeader rangeHeader) throws IOException {
         if (resource.getType().requireCompression()) {
             throw new IllegalArgumentException("Streaming is supported for uncompressed resources only");
         }
 
+        // the big resource cached on disk is served without the lock and the requests to Redis and the blob store,
+        // the cached entry of the changed resource is evicted by the resource event as the near-cache one is
+        if (diskCache != null) {
+            DiskCache.Lease lease = diskCache.get(resource.getUrl());
+            if (lease != null) {
+                return openCached(lease, etagHeader, rangeHeader);
+            }
+        }
+
+        Set<String> encodings = rangeHeader.isEmpty() ? acceptedEncodings : Set.of();
         String key = redisKey(resource);
-        Result result = redisGet(key, true);
+        Result result = cacheGet(resource, key, true, encodings);
         if (result != null) {
-            return ResourceStream.fromResult(result, etagHeader);
+            return ResourceStream.fromResult(result, etagHeader, rangeHeader);
         }
 
         try (LockService.Lock ignored = lockService.lock(key)) {
-            result = redisGet(key, true);
+            result = redisGet(key, true, encodings);
             if (result != null) {
-                return ResourceStream.fromResult(result, etagHeader);
+                return ResourceStream.fromResult(result, etagHeader, rangeHeader);
+            }
+
+            String path = resource.getAbsoluteFilePath();
+            Blob blob = null;
+            BlobMetadata metadata;
+
+            if (etagHeader.isConditional() || !rangeHeader.isEmpty()) {
+                metadata = blobMeta(path);
+            } else {
+                blob = blobLoad(path);
+                metadata = (blob == null) ? null : blob.getMetadata();
             }
 
-            Blob blob = blobStore.load(resource.getAbsoluteFilePath());
-            if (blob == null) {
+            if (metadata == null) {
                 redisPut(key, Result.DELETED_SYNCED);
+                folderIndex.repair(resource);
                 return null;
             }
 
-            Payload payload = blob.getPayload();
-            BlobMetadata metadata = blob.getMetadata();
             String etag = extractEtag(metadata.getUserMetadata());
             String contentType = metadata.getContentMetadata().getContentType();
             Long length = metadata.getContentMetadata().getContentLength();
 
             if (length <= maxSizeToCache) {
-                result = blobToResult(blob, metadata);
+                blob = (blob == null) ? blobLoad(path) : blob;
+                if (blob == null) {
+                    return null;
+                }
+
+                result = blobToResult(blob, blob.getMetadata());
                 redisPut(key, result);
-                return ResourceStream.fromResult(result, etagHeader);
+                return ResourceStream.fromResult(result, etagHeader, rangeHeader);
             }
 
             etagHeader.validate(etag);
-            return new ResourceStream(payload.openStream(), etag, contentType, length);
+            List<RangeHeader.Range> ranges = rangeHeader.resolve(length, etag);
+
+            // the blob which refers to the content is read from the content
+            ContentStore.ContentRef ref = ContentStore.ref(metadata.getUserMetadata());
+            String contentPath = (ref == null) ? path : ContentStore.path(ref.id());
+
+            // the blob which is stored locally as is can be sent from the file
+            String encoding = metadata.getContentMetadata().getContentEncoding();
+            Path file = StringUtils.isBlank(encoding) ? blobStore.getLocalFile(contentPath) : null;
+            List<RangeHeader.Range> parts = ranges.isEmpty() ? List.of(new RangeHeader.Range(0, length - 1)) : ranges;
+
+            // the blob which is not stored locally is served from the disk cache or cached while it's downloaded
+            if (diskCache != null && file == null && StringUtils.isBlank(encoding)) {
+                // the blob checked by metadata might be cached since the lookup without the lock
+                DiskCache.Lease lease = (blob == null) ? diskCache.get(resource.getUrl(), etag) : null;
+                if (lease != null) {
+                    return openCached(lease, etagHeader, rangeHeader);
+                }
+
+                if (ranges.isEmpty()) {
+                    InputStream input = (blob == null)
+                            ? openRanges(parts, range -> openBlobRange(contentPath, range))
+                            : blob.getPayload().openStream();
+                    InputStream stream = diskCache.put(resource.getUrl(), etag, contentType, length, input);
+                    return new ResourceStream(stream, etag, contentType, length, null, ranges, null);
+                }
+            }
+
+            if (blob != null) {
+                return new ResourceStream(blob.getPayload().openStream(), etag, contentType, length, null, ranges, file);
+            }
+
+            return new ResourceStream(openRanges(parts, range -> openBlobRange(contentPath, range)), etag, contentType, length, null, ranges, file);
         }
     }
 
+    /**
+     * Opens the requested ranges of the resource cached on disk.
+     * The cached file is pinned until the stream is closed, so it's not deleted while it's sent.
+     */
+    private static ResourceStream openCached(DiskCache.Lease lease, EtagHeader etagHeader, RangeHeader rangeHeader) throws IOException {
+        try {
+            etagHeader.validate(lease.etag());
+            List<RangeHeader.Range> ranges = rangeHeader.resolve(lease.length(), lease.etag());
+            List<RangeHeader.Range> parts = ranges.isEmpty() ? List.of(new RangeHeader.Range(0, lease.length() - 1)) : ranges;
+            InputStream stream = lease.wrap(openRanges(parts, range -> openFileRange(lease.file(), range)));
+            return new ResourceStream(stream, lease.etag(), lease.contentType(), lease.length(), null, ranges, lease.file());
+        } catch (Throwable e) {
+            lease.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the ranges one after another, so the next range is requested once the previous one is read.
+     */
+    private static InputStream openRanges(List<RangeHeader.Range> ranges, RangeOpener opener) {
+        Iterator<RangeHeader.Range> iterator = ranges.iterator();
+        return new SequenceInputStream(new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            @SneakyThrows
+            public InputStream nextElement() {
+                return opener.open(iterator.next());
+            }
+        });
+    }
+
+    private InputStream openBlobRange(String path, RangeHeader.Range range) throws IOException {
+        Blob blob = blobStore.load(path, range.start(), range.end());
+        if (blob == null) {
+            throw new FileNotFoundException("Blob is not found: " + path);
+        }
+
+        return blob.getPayload().openStream();
+    }
+
+    private static InputStream openFileRange(Path file, RangeHeader.Range range) throws IOException {
+        InputStream stream = Files.newInputStream(file);
+        try {
+            stream.skipNBytes(range.start());
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+
+        return ByteStreams.limit(stream, range.length());
+    }
+
+    private interface RangeOpener {
+        InputStream open(RangeHeader.Range range) throws IOException;
+    }
+
     public ResourceItemMetadata putResource(
             ResourceDescriptor descriptor, String body, EtagHeader etag, String author) {
         return putResource(descriptor, body, etag, author, true);
@@ -409,38 +913,65 @@ public class ResourceService implements AutoCloseable {
         String redisKey = redisKey(descriptor);
 
         try (var ignore = lock ? lockService.lock(redisKey) : null) {
-            ResourceItemMetadata metadata = getResourceMetadata(descriptor);
-
-            if (metadata != null) {
-                etag.validate(metadata.getEtag());
-                author = metadata.getAuthor();
+            while (true) {
+                ResourceItemMetadata metadata = getResourceMetadata(descriptor, false);
+                ResourceItemMetadata result = writeResource(descriptor, metadata, body, etag, contentType, author);
+                if (result != null) {
+                    return result;
+                }
             }
+        }
+    }
 
-            Long updatedAt = time();
-            Long createdAt = metadata == null ? updatedAt : metadata.getCreatedAt();
-            String newEtag = EtagBuilder.generateEtag(body);
-            Result result = new Result(body, newEtag, createdAt, updatedAt, contentType,
-                    descriptor.getType().requireCompression(), (long) body.length, descriptor.getType().name(), author, false);
-            if (body.length <= maxSizeToCache) {
-                redisPut(redisKey, result);
-                if (metadata == null) {
-                    String blobKey = blobKey(descriptor);
-                    blobPut(blobKey, result.toStub()); // create an empty object for listing
-                }
-            } else {
-                flushToBlobStore(redisKey);
-                String blobKey = blobKey(descriptor);
-                blobPut(blobKey, result);
+    /**
+     * Writes the resource under the lock.
+     *
+     * @param metadata the metadata of the resource read under the lock.
+     * @return null if the cached resource is modified by {@link #computeResource} since the metadata is read.
+     */
+    @Nullable
+    private ResourceItemMetadata writeResource(
+            ResourceDescriptor descriptor,
+            @Nullable ResourceItemMetadata metadata,
+            byte[] body,
+            EtagHeader etag,
+            String contentType,
+            String author) {
+        String redisKey = redisKey(descriptor);
+
+        if (metadata != null) {
+            etag.validate(metadata.getEtag());
+            author = metadata.getAuthor();
+        }
+
+        Long updatedAt = time();
+        Long createdAt = metadata == null ? updatedAt : metadata.getCreatedAt();
+        String oldEtag = metadata == null ? null : metadata.getEtag();
+        String newEtag = EtagBuilder.generateEtag(body);
+        Result result = new Result(body, newEtag, createdAt, updatedAt, contentType,
+                descriptor.getType().requireCompression(), (long) body.length, descriptor.getType().name(), author, false, null);
+        if (body.length <= maxSizeToCache) {
+            if (!redisPut(redisKey, result, oldEtag, false)) {
+                return null;
+            }
+        } else {
+            if (!flushToBlobStore(redisKey, oldEtag)) {
+                return null;
             }
 
-            ResourceEvent.Action action = metadata == null
-                    ? ResourceEvent.Action.CREATE
-                    : ResourceEvent.Action.UPDATE;
-            publishEvent(descriptor, action, updatedAt, newEtag);
-            return descriptor.getType().requireCompression()
-                    ? toResourceItemMetadata(descriptor, result)
-                    : toFileMetadata(descriptor, result);
+            String blobKey = blobKey(descriptor);
+            blobPut(blobKey, result);
         }
+
+        folderIndex.add(descriptor, toIndexItem(result));
+
+        ResourceEvent.Action action = metadata == null
+                ? ResourceEvent.Action.CREATE
+                : ResourceEvent.Action.UPDATE;
+        publishEvent(descriptor, action, updatedAt, newEtag);
+        return descriptor.getType().requireCompression()
+                ? toResourceItemMetadata(descriptor, result)
+                : toFileMetadata(descriptor, result);
     }
 
     public FileMetadata putFile(ResourceDescriptor descriptor, byte[] body, EtagHeader etag, String contentType, String author) {
@@ -451,11 +982,26 @@ public class ResourceService implements AutoCloseable {
         return (FileMetadata) putResource(descriptor, body, etag, contentType, author, true);
     }
 
+    /**
+     * Returns the id of the content to upload the file to, null if the file is uploaded to its own blob.
+     */
+    @Nullable
+    public String newContentId(ResourceDescriptor descriptor) {
+        return isContentAddressed(descriptor) ? ContentStore.newId() : null;
+    }
+
+    /**
+     * Returns the path to upload the file to: the path of the content or the path of the file if the content id is null.
+     */
+    public static String getUploadPath(ResourceDescriptor descriptor, @Nullable String contentId) {
+        return (contentId == null) ? descriptor.getAbsoluteFilePath() : ContentStore.path(contentId);
+    }
+
     public FileMetadata finishFileUpload(
             ResourceDescriptor descriptor, MultipartData multipartData, EtagHeader etag, String author) {
         String redisKey = redisKey(descriptor);
         try (var ignore = lockService.lock(redisKey)) {
-            ResourceItemMetadata metadata = getResourceMetadata(descriptor);
+            ResourceItemMetadata metadata = getResourceMetadata(descriptor, false);
             if (metadata != null) {
                 etag.validate(metadata.getEtag());
                 author = metadata.getAuthor();
@@ -465,9 +1011,25 @@ public class ResourceService implements AutoCloseable {
             Long updatedAt = time();
             Long createdAt = metadata == null ? updatedAt : metadata.getCreatedAt();
             MultipartUpload multipartUpload = multipartData.multipartUpload;
-            Map<String, String> userMetadata = multipartUpload.blobMetadata().getUserMetadata();
-            userMetadata.putAll(toUserMetadata(multipartData.etag, createdAt, updatedAt, descriptor.getType().name(), author));
-            blobStore.completeMultipartUpload(multipartUpload, multipartData.parts);
+            Map<String, String> userMetadata = toUserMetadata(multipartData.etag, createdAt, updatedAt, descriptor.getType().name(), author);
+            if (multipartData.contentId == null) {
+                multipartUpload.blobMetadata().getUserMetadata().putAll(userMetadata);
+                blobStore.completeMultipartUpload(multipartUpload, multipartData.parts);
+            } else {
+                String blobKey = blobKey(descriptor);
+                ContentStore.ContentRef oldRef = contentRef(blobKey);
+                String contentId = contentStore.acquire(multipartData.contentHash, multipartData.contentId,
+                        () -> blobStore.completeMultipartUpload(multipartUpload, multipartData.parts));
+                // the same content is stored already, so the uploaded one is not needed
+                if (!contentId.equals(multipartData.contentId)) {
+                    blobStore.abortMultipartUpload(multipartUpload);
+                }
+
+                ContentStore.ContentRef ref = new ContentStore.ContentRef(contentId, multipartData.contentHash, multipartData.contentLength);
+                contentPut(blobKey, multipartData.contentType, userMetadata, ref, oldRef);
+            }
+
+            folderIndex.add(descriptor, new FolderIndex.Item(createdAt, updatedAt, author, multipartData.contentLength, multipartData.contentType));
 
             ResourceEvent.Action action = metadata == null
                     ? ResourceEvent.Action.CREATE
@@ -490,29 +1052,90 @@ public class ResourceService implements AutoCloseable {
         return computeResource(descriptor, etag, null, fn);
     }
 
+    /**
+     * Updates the resource with the function which may be called several times.
+     * An update of the resource cached in Redis is applied optimistically with a compare-and-set by etag without the lock.
+     * The lock is taken if the resource has to be loaded from or written to the blob store: on creation, deletion or a big body.
+     */
     public ResourceItemMetadata computeResource(ResourceDescriptor descriptor, EtagHeader etag, String author, Function<String, String> fn) {
+        return computeResourceBody(descriptor, etag, author, "application/json", body -> {
+            String newBody = fn.apply((body == null) ? null : new String(body, StandardCharsets.UTF_8));
+            return (newBody == null) ? null : newBody.getBytes(StandardCharsets.UTF_8);
+        });
+    }
+
+    /**
+     * Updates the body of the resource as is, e.g. a binary one, with the function which may be called several times.
+     * See {@link #computeResource(ResourceDescriptor, EtagHeader, String, Function)}.
+     */
+    public ResourceItemMetadata computeResourceBody(ResourceDescriptor descriptor, String contentType, Function<byte[], byte[]> fn) {
+        return computeResourceBody(descriptor, EtagHeader.ANY, null, contentType, fn);
+    }
+
+    private ResourceItemMetadata computeResourceBody(ResourceDescriptor descriptor, EtagHeader etag, String author,
+                                                     String contentType, Function<byte[], byte[]> fn) {
         String redisKey = redisKey(descriptor);
 
-        try (var ignore = lockService.lock(redisKey)) {
-            Pair<ResourceItemMetadata, String> oldResult = getResourceWithMetadata(descriptor, etag, false);
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_ATTEMPTS; attempt++) {
+            Result oldResult = redisGet(redisKey, true);
+            if (oldResult == null || !oldResult.exists()) {
+                break;
+            }
 
-            String oldBody = oldResult == null ? null : oldResult.getValue();
-            String newBody = fn.apply(oldBody);
+            etag.validate(oldResult.etag);
+            ResourceItemMetadata oldMetadata = toResourceItemMetadata(descriptor, oldResult);
+            byte[] body = fn.apply(oldResult.body);
 
-            if (oldBody == null && newBody == null) {
-                return null;
+            if (body == null) {
+                break;
             }
 
-            if (oldBody != null && newBody == null) {
-                deleteResource(descriptor, etag, false);
-                return oldResult.getKey();
+            if (Arrays.equals(oldResult.body, body)) {
+                return oldMetadata;
             }
 
-            if (Objects.equals(oldBody, newBody)) {
-                return oldResult.getKey();
+            if (body.length > maxSizeToCache) {
+                break;
             }
 
-            return putResource(descriptor, newBody, etag, author, false);
+            Result result = new Result(body, EtagBuilder.generateEtag(body), oldResult.createdAt, time(), contentType,
+                    descriptor.getType().requireCompression(), (long) body.length, descriptor.getType().name(), oldResult.author, false, null);
+            if (redisPut(redisKey, result, oldResult.etag, true)) {
+                folderIndex.add(descriptor, toIndexItem(result));
+                publishEvent(descriptor, ResourceEvent.Action.UPDATE, result.updatedAt, result.etag);
+                return toResourceItemMetadata(descriptor, result);
+            }
+        }
+
+        try (var ignore = lockService.lock(redisKey)) {
+            while (true) {
+                Pair<ResourceItemMetadata, byte[]> oldResult = getResourceBodyWithMetadata(descriptor, etag, false);
+
+                ResourceItemMetadata oldMetadata = oldResult == null ? null : oldResult.getKey();
+                byte[] oldBody = oldResult == null ? null : oldResult.getValue();
+                byte[] newBody = fn.apply(oldBody);
+
+                if (oldBody == null && newBody == null) {
+                    return null;
+                }
+
+                if (oldBody != null && newBody == null) {
+                    if (removeResource(descriptor, oldMetadata, etag)) {
+                        return oldMetadata;
+                    }
+
+                    continue;
+                }
+
+                if (Arrays.equals(oldBody, newBody)) {
+                    return oldMetadata;
+                }
+
+                ResourceItemMetadata metadata = writeResource(descriptor, oldMetadata, newBody, etag, contentType, author);
+                if (metadata != null) {
+                    return metadata;
+                }
+            }
         }
     }
 
@@ -524,21 +1147,40 @@ public class ResourceService implements AutoCloseable {
         String redisKey = redisKey(descriptor);
 
         try (var ignore = lock ? lockService.lock(redisKey) : null) {
-            ResourceItemMetadata metadata = getResourceMetadata(descriptor);
+            while (true) {
+                ResourceItemMetadata metadata = getResourceMetadata(descriptor, false);
 
-            if (metadata == null) {
-                return false;
-            }
+                if (metadata == null) {
+                    return false;
+                }
 
-            etag.validate(metadata.getEtag());
+                if (removeResource(descriptor, metadata, etag)) {
+                    return true;
+                }
+            }
+        }
+    }
 
-            redisPut(redisKey, Result.DELETED_NOT_SYNCED);
-            blobDelete(blobKey(descriptor));
-            redisSync(redisKey);
+    /**
+     * Deletes the resource under the lock.
+     *
+     * @param metadata the metadata of the resource read under the lock.
+     * @return false if the cached resource is modified by {@link #computeResource} since the metadata is read.
+     */
+    private boolean removeResource(ResourceDescriptor descriptor, ResourceItemMetadata metadata, EtagHeader etag) {
+        String redisKey = redisKey(descriptor);
+        etag.validate(metadata.getEtag());
 
-            publishEvent(descriptor, ResourceEvent.Action.DELETE, time(), null);
-            return true;
+        if (!redisPut(redisKey, Result.DELETED_NOT_SYNCED, metadata.getEtag(), false)) {
+            return false;
         }
+
+        blobDelete(blobKey(descriptor));
+        redisSync(redisKey, Result.DELETED_NOT_SYNCED, false);
+        folderIndex.remove(descriptor);
+
+        publishEvent(descriptor, ResourceEvent.Action.DELETE, time(), null);
+        return true;
     }
 
     public boolean copyResource(ResourceDescriptor from, ResourceDescriptor to) {
@@ -555,16 +1197,17 @@ public class ResourceService implements AutoCloseable {
         Pair<String, String> sortedPair = toOrderedPair(fromRedisKey, toRedisKey);
         try (LockService.Lock ignored1 = lockService.lock(sortedPair.getLeft());
              LockService.Lock ignored2 = lockService.lock(sortedPair.getRight())) {
-            ResourceItemMetadata fromMetadata = getResourceMetadata(from);
+            ResourceItemMetadata fromMetadata = getResourceMetadata(from, false);
             if (fromMetadata == null) {
                 return false;
             }
 
-            ResourceItemMetadata toMetadata = getResourceMetadata(to);
+            ResourceItemMetadata toMetadata = getResourceMetadata(to, false);
             if (toMetadata == null || overwrite) {
                 flushToBlobStore(fromRedisKey);
                 flushToBlobStore(toRedisKey);
-                blobStore.copy(blobKey(from), blobKey(to));
+                copyBlob(from, to);
+                folderIndex.add(to, toIndexItem(fromMetadata));
 
                 ResourceEvent.Action action = toMetadata == null
                         ? ResourceEvent.Action.CREATE
@@ -577,6 +1220,28 @@ public class ResourceService implements AutoCloseable {
         }
     }
 
+    /**
+     * Copies the blob, the copy of the blob which refers to the content is one more reference to the content.
+     */
+    private void copyBlob(ResourceDescriptor from, ResourceDescriptor to) {
+        if (!isContentAddressed(from)) {
+            blobStore.copy(blobKey(from), blobKey(to));
+            return;
+        }
+
+        ContentStore.ContentRef fromRef = contentRef(blobKey(from));
+        ContentStore.ContentRef toRef = contentRef(blobKey(to));
+        if (fromRef != null) {
+            contentStore.reference(fromRef);
+        }
+
+        blobStore.copy(blobKey(from), blobKey(to));
+
+        if (toRef != null) {
+            contentStore.release(toRef);
+        }
+    }
+
     private void publishEvent(ResourceDescriptor descriptor, ResourceEvent.Action action, long timestamp, String etag) {
         ResourceEvent event = new ResourceEvent()
                 .setUrl(descriptor.getUrl())
@@ -584,6 +1249,11 @@ public class ResourceService implements AutoCloseable {
                 .setTimestamp(timestamp)
                 .setEtag(etag);
 
+        if (nearCache != null || diskCache != null) {
+            // invalidate the local copy right away, the notification to this node comes asynchronously
+            invalidate(event);
+        }
+
         topic.publish(event);
     }
 
@@ -591,23 +1261,36 @@ public class ResourceService implements AutoCloseable {
         return a.compareTo(b) > 0 ? Pair.of(a, b) : Pair.of(b, a);
     }
 
+    /**
+     * Drains the sync queue shards which are not drained by the other nodes at the moment.
+     * The shards are visited in random order, so the nodes spread over them without coordination.
+     */
     private Void sync() {
         log.debug("Syncing");
         try {
-            RScoredSortedSet<String> set = redis.getScoredSortedSet(resourceQueue, StringCodec.INSTANCE);
-            long now = time();
+            List<Integer> shards = new ArrayList<>(syncShards);
+            for (int shard = 0; shard < syncShards; shard++) {
+                shards.add(shard);
+            }
+            Collections.shuffle(shards);
 
-            for (String redisKey : set.valueRange(Double.NEGATIVE_INFINITY, true, now, true, 0, syncBatch)) {
-                try (var lock = lockService.tryLock(redisKey)) {
+            for (int shard : shards) {
+                String queue = syncQueue(shard);
+                try (var lock = lockService.tryLock(queue)) {
                     if (lock == null) {
                         continue;
                     }
 
-                    sync(redisKey);
+                    // the full batches are drained right away so the bursts don't wait for the next period
+                    while (syncShard(queue) == syncBatch) {
+                        log.debug("Syncing shard: {}. Draining", queue);
+                    }
                 } catch (Throwable e) {
-                    log.warn("Failed to sync resource: {}", redisKey, e);
+                    log.warn("Failed to sync shard: {}", queue, e);
                 }
             }
+
+            updateSyncStats();
         } catch (Throwable e) {
             log.warn("Failed to sync:", e);
         }
@@ -615,31 +1298,141 @@ public class ResourceService implements AutoCloseable {
         return null;
     }
 
-    private RMap<String, byte[]> sync(String redisKey) {
+    /**
+     * Writes the cached resource to the blob store if it's not synced yet and marks it synced or evicts it from the cache.
+     *
+     * @param etag the expected etag of the cached resource or null if any.
+     * @return false if the cached resource doesn't match the etag or is modified by {@link #computeResource} concurrently.
+     */
+    private boolean sync(String redisKey, @Nullable String etag, boolean evict) {
         log.debug("Syncing resource: {}", redisKey);
-        Result result = redisGet(redisKey, false);
-        if (result == null || result.synced) {
-            RMap<String, byte[]> map = redis.getMap(redisKey, REDIS_MAP_CODEC);
-            long ttl = map.remainTimeToLive();
-            // according to the documentation, -1 means expiration is not set
-            if (ttl == -1) {
-                map.expire(cacheExpiration);
+        // the queued resources are rarely synced, so the body is read right away to save a round trip
+        Result result = redisGet(redisKey, true);
+        if (result == null) {
+            redis.getScoredSortedSet(syncQueue(redisKey), StringCodec.INSTANCE).remove(redisKey);
+            return true;
+        }
+
+        if (!matches(result, etag)) {
+            return false;
+        }
+
+        if (!result.synced) {
+            String blobKey = blobKeyFromRedisKey(redisKey);
+            if (result.exists()) {
+                log.debug("Syncing resource: {}. Blob updating", redisKey);
+                blobPut(blobKey, result);
+            } else {
+                log.debug("Syncing resource: {}. Blob deleting", redisKey);
+                blobDelete(blobKey);
             }
-            redis.getScoredSortedSet(resourceQueue, StringCodec.INSTANCE).remove(redisKey);
-            return map;
         }
 
-        String blobKey = blobKeyFromRedisKey(redisKey);
-        if (result.exists()) {
-            log.debug("Syncing resource: {}. Blob updating", redisKey);
-            result = redisGet(redisKey, true);
-            blobPut(blobKey, result);
-        } else {
-            log.debug("Syncing resource: {}. Blob deleting", redisKey);
-            blobDelete(blobKey);
+        return redisSync(redisKey, result, evict);
+    }
+
+    /**
+     * Syncs a batch of the due resources of the shard in parallel.
+     *
+     * @return the number of the synced resources, less than the batch if there is nothing to sync or some resources are busy.
+     */
+    private int syncShard(String queue) {
+        RScoredSortedSet<String> set = redis.getScoredSortedSet(queue, StringCodec.INSTANCE);
+        Collection<ScoredEntry<String>> entries = set.entryRange(Double.NEGATIVE_INFINITY, true, time(), true, 0, syncBatch);
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(entries.size());
+        int synced = 0;
+
+        for (ScoredEntry<String> entry : entries) {
+            String redisKey = entry.getValue();
+            // the resource is synced and removed from its own shard only, so it's moved there first
+            if (!queue.equals(syncQueue(redisKey))) {
+                requeue(set, redisKey, entry.getScore());
+                synced++;
+                continue;
+            }
+
+            ExecutorService lane = syncLanes.get(Math.floorMod(redisKey.hashCode(), syncLanes.size()));
+            futures.add(CompletableFuture.supplyAsync(() -> syncQueued(redisKey), lane));
+        }
+
+        for (CompletableFuture<Boolean> future : futures) {
+            if (future.join()) {
+                synced++;
+            }
+        }
+
+        return synced;
+    }
+
+    /**
+     * Moves the resource queued before sharding or with another number of shards to its shard.
+     * The earlier time is kept if the resource is queued in its shard as well.
+     */
+    private void requeue(RScoredSortedSet<String> source, String redisKey, double score) {
+        log.debug("Syncing resource: {}. Moving to shard", redisKey);
+        RScoredSortedSet<String> target = redis.getScoredSortedSet(syncQueue(redisKey), StringCodec.INSTANCE);
+        Double current = target.getScore(redisKey);
+        if (current == null || current > score) {
+            target.add(score, redisKey);
         }
 
-        return redisSync(redisKey);
+        source.remove(redisKey);
+    }
+
+    private boolean syncQueued(String redisKey) {
+        try (var lock = lockService.tryLock(redisKey)) {
+            if (lock == null) {
+                return false;
+            }
+
+            return sync(redisKey, null, false);
+        } catch (Throwable e) {
+            log.warn("Failed to sync resource: {}", redisKey, e);
+            return false;
+        }
+    }
+
+    private void updateSyncStats() {
+        RBatch batch = redis.createBatch();
+        List<RFuture<Integer>> sizes = new ArrayList<>(syncShards);
+        List<RFuture<Double>> scores = new ArrayList<>(syncShards);
+
+        for (int shard = 0; shard < syncShards; shard++) {
+            RScoredSortedSetAsync<String> set = batch.getScoredSortedSet(syncQueue(shard), StringCodec.INSTANCE);
+            sizes.add(set.sizeAsync());
+            scores.add(set.firstScoreAsync());
+        }
+
+        batch.execute();
+        long now = time();
+        long backlog = 0;
+        long lag = 0;
+
+        for (int shard = 0; shard < syncShards; shard++) {
+            backlog += sizes.get(shard).toCompletableFuture().join();
+            Double score = scores.get(shard).toCompletableFuture().join();
+            if (score != null) {
+                lag = Math.max(lag, now - score.longValue());
+            }
+        }
+
+        syncBacklog = backlog;
+        syncLag = lag;
+    }
+
+    /**
+     * Returns the sync queue shard of the resource. The first shard is the queue used before sharding.
+     */
+    private String syncQueue(String redisKey) {
+        return syncQueue(Math.floorMod(redisKey.hashCode(), syncShards));
+    }
+
+    private String syncQueue(int shard) {
+        return shard == 0 ? resourceQueue : resourceQueue + ":" + shard;
+    }
+
+    private static boolean matches(Result result, @Nullable String etag) {
+        return etag == null || !result.exists() || etag.equals(result.etag);
     }
 
     private boolean blobExists(String key) {
@@ -652,10 +1445,10 @@ public class ResourceService implements AutoCloseable {
         BlobMetadata meta;
 
         if (withBody) {
-            blob = blobStore.load(key);
+            blob = blobLoad(key);
             meta = (blob == null) ? null : blob.getMetadata();
         } else {
-            meta = blobStore.meta(key);
+            meta = blobMeta(key);
         }
 
         if (meta == null) {
@@ -700,23 +1493,103 @@ public class ResourceService implements AutoCloseable {
             }
         }
 
-        return new Result(body, etag, createdAt, updatedAt, contentType, null, contentLength, resourceType, author, true);
+        return new Result(body, etag, createdAt, updatedAt, contentType, null, contentLength, resourceType, author, true, null);
+    }
+
+    /**
+     * Loads the blob, the blob which refers to the content is loaded with the content.
+     */
+    @Nullable
+    private Blob blobLoad(String key) {
+        Blob blob = blobStore.load(key);
+        ContentStore.ContentRef ref = (blob == null) ? null : ContentStore.ref(blob.getMetadata().getUserMetadata());
+        if (ref == null) {
+            return blob;
+        }
+
+        Blob content = blobStore.load(ContentStore.path(ref.id()));
+        if (content == null) {
+            log.warn("Content {} is not found for blob {}", ref.id(), key);
+            return null;
+        }
+
+        MutableBlobMetadata meta = content.getMetadata();
+        meta.setName(blob.getMetadata().getName());
+        meta.setUserMetadata(blob.getMetadata().getUserMetadata());
+        meta.setCreationDate(blob.getMetadata().getCreationDate());
+        meta.setLastModified(blob.getMetadata().getLastModified());
+        meta.getContentMetadata().setContentType(blob.getMetadata().getContentMetadata().getContentType());
+        return content;
+    }
+
+    /**
+     * Returns the metadata of the blob, the blob which refers to the content has the length of the content.
+     */
+    @Nullable
+    private BlobMetadata blobMeta(String key) {
+        BlobMetadata meta = blobStore.meta(key);
+        ContentStore.ContentRef ref = (meta == null) ? null : ContentStore.ref(meta.getUserMetadata());
+        if (ref == null) {
+            return meta;
+        }
+
+        MutableBlobMetadata result = new MutableBlobMetadataImpl(meta);
+        result.getContentMetadata().setContentLength(ref.length());
+        return result;
+    }
+
+    @Nullable
+    private ContentStore.ContentRef contentRef(String key) {
+        BlobMetadata meta = blobStore.meta(key);
+        return (meta == null) ? null : ContentStore.ref(meta.getUserMetadata());
+    }
+
+    private boolean isContentAddressed(ResourceDescriptor descriptor) {
+        return contentAddressed && !descriptor.getType().requireCompression();
+    }
+
+    /**
+     * Writes the blob which refers to the content and releases the content the blob referred to before.
+     */
+    private void contentPut(String key, String contentType, Map<String, String> metadata,
+                            ContentStore.ContentRef ref, @Nullable ContentStore.ContentRef oldRef) {
+        metadata.putAll(ref.toUserMetadata());
+        blobStore.store(key, contentType, null, metadata, ArrayUtils.EMPTY_BYTE_ARRAY);
+
+        if (oldRef != null) {
+            contentStore.release(oldRef);
+        }
     }
 
     private void blobPut(String key, Result result) {
+        Map<String, String> metadata = toUserMetadata(result.etag, result.createdAt, result.updatedAt, result.resourceType, result.author);
+        if (contentAddressed && Boolean.FALSE.equals(result.compress)) {
+            ContentStore.ContentRef oldRef = contentRef(key);
+            String hash = EtagBuilder.generateContentHash(result.body);
+            String id = contentStore.acquire(hash, hash,
+                    () -> blobStore.store(ContentStore.path(hash), result.contentType, null, Map.of(), result.body));
+            contentPut(key, result.contentType, metadata, new ContentStore.ContentRef(id, hash, result.body.length), oldRef);
+            return;
+        }
+
         String encoding = null;
         byte[] bytes = result.body;
         if (bytes.length >= compressionMinSize && Boolean.TRUE.equals(result.compress)) {
-            encoding = "gzip";
-            bytes = Compression.compress(encoding, bytes);
+            CompressionCodec codec = compressionCodecs.getOrDefault(result.resourceType, DEFAULT_COMPRESSION_CODEC);
+            encoding = codec.encoding();
+            bytes = codec.compress(bytes);
         }
 
-        Map<String, String> metadata = toUserMetadata(result.etag, result.createdAt, result.updatedAt, result.resourceType, result.author);
         blobStore.store(key, result.contentType, encoding, metadata, bytes);
     }
 
     private void blobDelete(String key) {
+        ContentStore.ContentRef ref = contentAddressed ? contentRef(key) : null;
         blobStore.delete(key);
+
+        if (ref != null) {
+            contentStore.release(ref);
+        }
     }
 
     private static String blobKey(ResourceDescriptor descriptor) {
@@ -730,11 +1603,178 @@ public class ResourceService implements AutoCloseable {
         return redisKey.substring(prefixChars + delimiterIndex + 1);
     }
 
+    @Nullable
+    private Result cacheGet(ResourceDescriptor descriptor, String redisKey, boolean withBody) {
+        return cacheGet(descriptor, redisKey, withBody, Set.of());
+    }
+
+    /**
+     * Reads the resource from the near-cache if it's enabled or from Redis otherwise.
+     * The resource read from Redis with the decoded body is put to the near-cache.
+     */
+    @Nullable
+    private Result cacheGet(ResourceDescriptor descriptor, String redisKey, boolean withBody, Set<String> acceptedEncodings) {
+        if (nearCache == null) {
+            return redisGet(redisKey, withBody, acceptedEncodings);
+        }
+
+        String url = descriptor.getUrl();
+        Result result = nearCacheGet(url);
+        if (result != null) {
+            return result;
+        }
+
+        long version = invalidations.get();
+        result = redisGet(redisKey, withBody, acceptedEncodings);
+        if (withBody && (result == null || result.encoding == null)) {
+            cachePut(url, result, version);
+        }
+
+        return result;
+    }
+
+    private List<Result> cacheGetAll(List<ResourceDescriptor> descriptors) {
+        if (nearCache == null) {
+            return redisGetAll(descriptors.stream().map(this::redisKey).toList());
+        }
+
+        List<Result> results = new ArrayList<>(descriptors.size());
+        List<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < descriptors.size(); i++) {
+            Result result = nearCacheGet(descriptors.get(i).getUrl());
+            results.add(result);
+            if (result == null) {
+                misses.add(i);
+            }
+        }
+
+        long version = invalidations.get();
+        List<Result> redisResults = redisGetAll(misses.stream().map(i -> redisKey(descriptors.get(i))).toList());
+        for (int i = 0; i < misses.size(); i++) {
+            int index = misses.get(i);
+            Result result = redisResults.get(i);
+            results.set(index, result);
+            cachePut(descriptors.get(index).getUrl(), result, version);
+        }
+
+        return results;
+    }
+
+    /**
+     * Looks up the resource by the url and the etag of the url, the lookup of the url which is not cached is counted as a miss.
+     */
+    @Nullable
+    private Result nearCacheGet(String url) {
+        return nearCache.getIfPresent(new NearCacheKey(url, nearCacheEtags.get(url)));
+    }
+
+    private void cachePut(String url, @Nullable Result result, long version) {
+        if (result != null) {
+            // the etag is set first, so the entry evicted right away doesn't leave its etag
+            NearCacheKey key = new NearCacheKey(url, nearCacheEtag(result.etag));
+            String oldEtag = nearCacheEtags.put(url, key.etag);
+            if (oldEtag != null && !oldEtag.equals(key.etag)) {
+                nearCache.invalidate(new NearCacheKey(url, oldEtag));
+            }
+
+            nearCache.put(key, result);
+
+            // the resource could be modified after it's read
+            if (invalidations.get() != version) {
+                nearCache.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Invalidates the cached resource unless it's the version of the event, e.g. the resource is read again before the event is delivered.
+     */
+    private void invalidate(ResourceEvent event) {
+        String url = event.getUrl();
+        if (diskCache != null) {
+            diskCache.invalidate(url);
+        }
+
+        if (nearCache != null) {
+            invalidations.incrementAndGet();
+            String etag = nearCacheEtags.get(url);
+            if (etag == null) {
+                return;
+            }
+
+            NearCacheKey key = new NearCacheKey(url, etag);
+            Result result = nearCache.asMap().get(key);
+            boolean updated = result != null && result.exists() && etag.equals(event.getEtag())
+                    && Objects.equals(result.updatedAt, event.getTimestamp());
+            if (!updated) {
+                nearCache.invalidate(key);
+            }
+        }
+    }
+
+    private static String nearCacheEtag(@Nullable String etag) {
+        // the deleted resource has no etag
+        return (etag == null) ? "" : etag;
+    }
+
+    private void invalidateAll() {
+        if (diskCache != null) {
+            diskCache.invalidateAll();
+        }
+
+        if (nearCache != null) {
+            invalidations.incrementAndGet();
+            nearCache.invalidateAll();
+        }
+    }
+
+    /**
+     * The key of the near-cache. The lookup by the url only is never cached, so it's a miss.
+     */
+    private record NearCacheKey(String url, @Nullable String etag) {
+    }
+
     @Nullable
     private Result redisGet(String key, boolean withBody) {
+        return redisGet(key, withBody, Set.of());
+    }
+
+    @Nullable
+    private Result redisGet(String key, boolean withBody, Set<String> acceptedEncodings) {
         RMap<String, byte[]> map = redis.getMap(key, REDIS_MAP_CODEC);
         Map<String, byte[]> fields = map.getAll(withBody ? REDIS_FIELDS : REDIS_FIELDS_NO_BODY);
+        return redisToResult(key, fields, acceptedEncodings);
+    }
+
+    private List<Result> redisGetAll(List<String> keys) {
+        RBatch batch = redis.createBatch();
+        List<RFuture<Map<String, byte[]>>> futures = new ArrayList<>(keys.size());
+
+        for (String key : keys) {
+            RMapAsync<String, byte[]> map = batch.getMap(key, REDIS_MAP_CODEC);
+            futures.add(map.getAllAsync(REDIS_FIELDS));
+        }
+
+        if (!keys.isEmpty()) {
+            batch.execute();
+        }
+
+        List<Result> results = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            Map<String, byte[]> fields = futures.get(i).toCompletableFuture().join();
+            results.add(redisToResult(keys.get(i), fields, Set.of()));
+        }
+
+        return results;
+    }
 
+    /**
+     * Converts the fields of the hash to the resource.
+     * The body is decompressed unless the encoding is an accepted HTTP content coding, then it's returned as is with the encoding.
+     * The encodings known to the storage only, e.g. lz4 or zstd with a dictionary, are always decompressed.
+     */
+    @Nullable
+    private static Result redisToResult(String key, Map<String, byte[]> fields, Set<String> acceptedEncodings) {
         if (fields.isEmpty()) {
             return null;
         }
@@ -755,53 +1795,114 @@ public class ResourceService implements AutoCloseable {
         String author = RedisUtil.redisToString(fields.get(AUTHOR_ATTRIBUTE), null);
         // we have to maintain historical data which are already in the cache, but they don't have the field
         Boolean compress = RedisUtil.redisToBoolean(fields.get(COMPRESS_ATTRIBUTE), !key.startsWith("file:"));
+        String encoding = RedisUtil.redisToString(fields.get(ENCODING_ATTRIBUTE), null);
+
+        if (encoding != null && !(Compression.isContentCoding(encoding) && acceptedEncodings.contains(encoding))) {
+            body = Compression.decompress(encoding, body);
+            encoding = null;
+        }
 
-        return new Result(body, etag, createdAt, updatedAt, contentType, compress, contentLength, resourceType, author, synced);
+        return new Result(body, etag, createdAt, updatedAt, contentType, compress, contentLength, resourceType, author, synced, encoding);
     }
 
     private void redisPut(String key, Result result) {
-        RScoredSortedSet<String> set = redis.getScoredSortedSet(resourceQueue, StringCodec.INSTANCE);
-        set.add(time() + syncDelay, key); // add resource to sync set before changing because calls below can fail
-
-        RMap<String, byte[]> map = redis.getMap(key, REDIS_MAP_CODEC);
+        redisPut(key, result, null, false);
+    }
 
-        if (!result.synced) {
-            map.clearExpire();
-        }
+    /**
+     * Writes the resource to the cache if the cached resource matches the etag.
+     * The write and the update of the sync queue are sent in one batch, so it takes a single round trip.
+     *
+     * @param etag the expected etag of the cached resource or null if any.
+     * @param cached true if the resource must be cached, otherwise the resource which is not cached or is deleted matches any etag.
+     * @return false if the cached resource doesn't match.
+     */
+    private boolean redisPut(String key, Result result, @Nullable String etag, boolean cached) {
+        List<Object> args = new ArrayList<>();
+        args.add(RedisUtil.stringToRedis(etag));
+        args.add(RedisUtil.BOOLEAN_TRUE_ARRAY);
+        args.add(RedisUtil.stringToRedis(DEFAULT_ETAG));
+        args.add(RedisUtil.booleanToRedis(cached));
+        args.add(result.synced ? RedisUtil.longToRedis(cacheExpiration.toMillis()) : RedisUtil.EMPTY_ARRAY);
 
-        Map<String, byte[]> fields = new HashMap<>();
         if (result.exists()) {
-            fields.put(BODY_ATTRIBUTE, result.body);
-            fields.put(ETAG_ATTRIBUTE, RedisUtil.stringToRedis(result.etag));
-            fields.put(CREATED_AT_ATTRIBUTE, RedisUtil.longToRedis(result.createdAt));
-            fields.put(UPDATED_AT_ATTRIBUTE, RedisUtil.longToRedis(result.updatedAt));
-            fields.put(RESOURCE_TYPE_ATTRIBUTE, RedisUtil.stringToRedis(result.resourceType));
-            fields.put(CONTENT_TYPE_ATTRIBUTE, RedisUtil.stringToRedis(result.contentType));
-            fields.put(CONTENT_LENGTH_ATTRIBUTE, RedisUtil.longToRedis(result.contentLength));
-            fields.put(EXISTS_ATTRIBUTE, RedisUtil.BOOLEAN_TRUE_ARRAY);
-            fields.put(AUTHOR_ATTRIBUTE, RedisUtil.stringToRedis(result.author));
+            byte[] body = result.body;
+            String encoding = result.encoding;
+            if (encoding == null && cacheCompressionCodec != null && body.length >= cacheCompressionMinSize) {
+                byte[] compressed = cacheCompressionCodec.compress(body);
+                // the body which doesn't compress well is kept as is to not waste the time on decompression
+                if (compressed.length < body.length) {
+                    body = compressed;
+                    encoding = cacheCompressionCodec.encoding();
+                }
+            }
+
+            addField(args, BODY_ATTRIBUTE, body);
+            addField(args, ENCODING_ATTRIBUTE, RedisUtil.stringToRedis(encoding));
+            addField(args, ETAG_ATTRIBUTE, RedisUtil.stringToRedis(result.etag));
+            addField(args, CREATED_AT_ATTRIBUTE, RedisUtil.longToRedis(result.createdAt));
+            addField(args, UPDATED_AT_ATTRIBUTE, RedisUtil.longToRedis(result.updatedAt));
+            addField(args, RESOURCE_TYPE_ATTRIBUTE, RedisUtil.stringToRedis(result.resourceType));
+            addField(args, CONTENT_TYPE_ATTRIBUTE, RedisUtil.stringToRedis(result.contentType));
+            addField(args, CONTENT_LENGTH_ATTRIBUTE, RedisUtil.longToRedis(result.contentLength));
+            addField(args, EXISTS_ATTRIBUTE, RedisUtil.BOOLEAN_TRUE_ARRAY);
+            addField(args, AUTHOR_ATTRIBUTE, RedisUtil.stringToRedis(result.author));
         } else {
-            REDIS_FIELDS.forEach(field -> fields.put(field, RedisUtil.EMPTY_ARRAY));
-            fields.put(EXISTS_ATTRIBUTE, RedisUtil.BOOLEAN_FALSE_ARRAY);
+            REDIS_FIELDS.forEach(field -> addField(args, field, RedisUtil.EMPTY_ARRAY));
+            addField(args, EXISTS_ATTRIBUTE, RedisUtil.BOOLEAN_FALSE_ARRAY);
         }
-        fields.put(SYNCED_ATTRIBUTE, RedisUtil.booleanToRedis(result.synced));
-        map.putAll(fields);
+        addField(args, SYNCED_ATTRIBUTE, RedisUtil.booleanToRedis(result.synced));
+
+        RBatch batch = redis.createBatch();
+        RFuture<Long> updated = batch.getScript(ByteArrayCodec.INSTANCE).evalAsync(key, RScript.Mode.READ_WRITE, REDIS_PUT_SCRIPT,
+                RScript.ReturnType.INTEGER, List.of(key), args.toArray());
+        RScoredSortedSetAsync<String> set = batch.getScoredSortedSet(syncQueue(key), StringCodec.INSTANCE);
 
         if (result.synced) { // cleanup because it is already synced
-            map.expire(cacheExpiration);
-            set.remove(key);
+            set.removeAsync(key);
+        } else {
+            // the resource is queued after the write, see redisSync
+            set.addAsync(time() + syncDelay, key);
         }
+
+        batch.execute();
+        return updated.toCompletableFuture().join() != 0;
     }
 
-    private RMap<String, byte[]> redisSync(String key) {
-        RMap<String, byte[]> map = redis.getMap(key, REDIS_MAP_CODEC);
-        map.put(SYNCED_ATTRIBUTE, RedisUtil.BOOLEAN_TRUE_ARRAY);
-        map.expire(cacheExpiration);
+    private static void addField(List<Object> args, String field, byte[] value) {
+        args.add(RedisUtil.stringToRedis(field));
+        args.add(value);
+    }
 
-        RScoredSortedSet<String> set = redis.getScoredSortedSet(resourceQueue, StringCodec.INSTANCE);
-        set.remove(key);
+    /**
+     * Marks the cached resource synced or evicts it if it still matches the synced one.
+     * The resource is removed from the sync queue in the same batch and is checked once again after that:
+     * {@link #computeResource} may write a new version between the marking and the removal, and its queue entry could be removed.
+     * Such a resource is queued again, so it takes a single round trip unless there is a conflict.
+     *
+     * @return false if the cached resource is modified by {@link #computeResource} after the synced one is read.
+     */
+    private boolean redisSync(String key, Result result, boolean evict) {
+        RBatch batch = redis.createBatch();
+        RFuture<Long> synced = batch.getScript(ByteArrayCodec.INSTANCE).evalAsync(key, RScript.Mode.READ_WRITE, REDIS_SYNC_SCRIPT,
+                RScript.ReturnType.INTEGER, List.of(key),
+                RedisUtil.stringToRedis(result.exists() ? result.etag : null),
+                RedisUtil.BOOLEAN_TRUE_ARRAY,
+                RedisUtil.stringToRedis(DEFAULT_ETAG),
+                RedisUtil.booleanToRedis(evict),
+                RedisUtil.longToRedis(cacheExpiration.toMillis()));
+        batch.getScoredSortedSet(syncQueue(key), StringCodec.INSTANCE).removeAsync(key);
+        RMapAsync<String, byte[]> map = batch.getMap(key, REDIS_MAP_CODEC);
+        RFuture<byte[]> syncedAttribute = map.getAsync(SYNCED_ATTRIBUTE);
+        batch.execute();
+
+        byte[] attribute = syncedAttribute.toCompletableFuture().join();
+        if (attribute != null && Boolean.FALSE.equals(RedisUtil.redisToBoolean(attribute))) {
+            RScoredSortedSet<String> set = redis.getScoredSortedSet(syncQueue(key), StringCodec.INSTANCE);
+            set.add(time() + syncDelay, key);
+        }
 
-        return map;
+        return synced.toCompletableFuture().join() != 0;
     }
 
     private String redisKey(ResourceDescriptor descriptor) {
@@ -814,8 +1915,13 @@ public class ResourceService implements AutoCloseable {
     }
 
     private void flushToBlobStore(String redisKey) {
-        RMap<String, byte[]> map = sync(redisKey);
-        map.delete();
+        while (!flushToBlobStore(redisKey, null)) {
+            log.debug("Resource is modified while flushing: {}", redisKey);
+        }
+    }
+
+    private boolean flushToBlobStore(String redisKey, @Nullable String etag) {
+        return sync(redisKey, etag, true);
     }
 
     public String getEtag(ResourceDescriptor descriptor) {
@@ -861,43 +1967,88 @@ public class ResourceService implements AutoCloseable {
             Long contentLength,
             String resourceType,
             String author,
-            boolean synced) {
+            boolean synced,
+            // the encoding of the body if it's read from Redis compressed, null if the body is decoded
+            String encoding) {
         public static final Result DELETED_SYNCED = new Result(null, null, null, null,
-                null, null, null, null, null, true);
+                null, null, null, null, null, true, null);
         public static final Result DELETED_NOT_SYNCED = new Result(null, null, null, null,
-                null, null, null, null, null, false);
+                null, null, null, null, null, false, null);
 
         public boolean exists() {
             return body != null;
         }
-
-        public Result toStub() {
-            return new Result(ArrayUtils.EMPTY_BYTE_ARRAY, etag, createdAt, updatedAt, contentType, false,
-                    0L, resourceType, author, synced);
-        }
     }
 
-    public record ResourceStream(InputStream inputStream, String etag, String contentType, long contentLength)
+    /**
+     * @param inputStream the stream of the resource or the requested ranges one after another.
+     * @param contentLength the length of the resource, the length of the encoded resource if the stream is encoded.
+     * @param contentEncoding the encoding of the stream, null if the stream is decoded.
+     * @param ranges the requested ranges of the resource, empty if the whole resource is streamed.
+     * @param file the local file with the content of the resource if the blob store keeps it on disk, so it can be sent with zero copy.
+     */
+    public record ResourceStream(InputStream inputStream, String etag, String contentType, long contentLength,
+                                 @Nullable String contentEncoding, List<RangeHeader.Range> ranges, @Nullable Path file)
             implements Closeable {
 
+        public ResourceStream(InputStream inputStream, String etag, String contentType, long contentLength) {
+            this(inputStream, etag, contentType, contentLength, null, List.of(), null);
+        }
+
         @Override
         public void close() throws IOException {
             inputStream.close();
         }
 
         @Nullable
-        private static ResourceStream fromResult(Result item, EtagHeader etagHeader) {
+        private static ResourceStream fromResult(Result item, EtagHeader etagHeader, RangeHeader rangeHeader) {
             if (!item.exists()) {
                 return null;
             }
 
             etagHeader.validate(item.etag);
+            List<RangeHeader.Range> ranges = rangeHeader.resolve(item.body.length, item.etag);
+            InputStream stream = ranges.isEmpty()
+                    ? new ByteArrayInputStream(item.body)
+                    : new SequenceInputStream(Collections.enumeration(ranges.stream()
+                            .map(range -> new ByteArrayInputStream(item.body, (int) range.start(), (int) range.length()))
+                            .toList()));
 
             return new ResourceStream(
-                    new ByteArrayInputStream(item.body),
+                    stream,
                     item.etag(),
                     item.contentType(),
-                    item.body.length);
+                    item.body.length,
+                    item.encoding(),
+                    ranges,
+                    null);
+        }
+    }
+
+    /**
+     * The result of an operation applied to many resources, see {@link #runBulk(List, Function, Predicate, IntConsumer)}.
+     *
+     * @param completed the urls of the items the operation is applied to.
+     * @param skipped   the urls of the items the operation is skipped for, e.g. the target of a copy exists.
+     * @param failures  the errors by the urls of the items the operation failed for.
+     */
+    public record BulkResult(List<String> completed, List<String> skipped, Map<String, RuntimeException> failures) {
+
+        private static BulkResult empty() {
+            return new BulkResult(new ArrayList<>(), new ArrayList<>(), new LinkedHashMap<>());
+        }
+
+        public int size() {
+            return completed.size() + skipped.size() + failures.size();
+        }
+
+        /**
+         * Rethrows the error of the first failed item if any.
+         */
+        public void throwIfFailed() {
+            if (!failures.isEmpty()) {
+                throw failures.values().iterator().next();
+            }
         }
     }
 
@@ -906,7 +2057,11 @@ public class ResourceService implements AutoCloseable {
             List<MultipartPart> parts,
             String contentType,
             long contentLength,
-            String etag) {
+            String etag,
+            // the id of the content the file is uploaded to, null if the file is uploaded to its own blob
+            @Nullable String contentId,
+            // the SHA-256 hash of the content, null if the file is uploaded to its own blob
+            @Nullable String contentHash) {
     }
 
     /**
@@ -916,8 +2071,20 @@ public class ResourceService implements AutoCloseable {
      * @param syncDelay          - delay in milliseconds for a resource to be written back in object storage after last modification.
      * @param syncBatch          - how many resources to sync in one go.
      * @param cacheExpiration    - expiration in milliseconds for synced resources in Redis.
-     * @param compressionMinSize - compress resources with gzip if their size in bytes more or equal to this value.
+     * @param compressionMinSize - compress resources if their size in bytes more or equal to this value.
+     * @param nearCacheSize      - max size in bytes of the resources cached in memory of the node, 0 to disable.
+     * @param syncParallelism    - how many resources to sync in parallel on the node.
+     * @param syncShards         - how many shards the sync queue is split into, the nodes drain different shards at the same time.
+     * @param compressionCodecs  - compression codecs by resource type: gzip, zstd, lz4 or zstd-dict. gzip if not set.
+     * @param compressionDictionaries - paths to zstd dictionaries, the first one is used by zstd-dict, the others to read old resources.
+     * @param cacheCompressionMinSize - compress resources cached in Redis if their size in bytes more or equal to this value, 0 to disable.
+     * @param cacheCompressionCodec - compression codec for resources cached in Redis: gzip, zstd or lz4. zstd if not set.
+     * @param contentAddressed - store the files once by content, so the copies of the files don't copy the content.
+     * @param bulkParallelism - how many resources of a folder or a publication are copied or deleted in parallel on the node.
+     * @param diskCacheSize - max size in bytes of the big resources cached on the local disk of the node, 0 to disable.
+     * @param diskCacheDirectory - the directory of the disk cache, a temporary directory if not set.
      */
+    @Builder(toBuilder = true)
     @JsonIgnoreProperties(ignoreUnknown = true)
     public record Settings(
             int maxSize,
@@ -926,6 +2093,17 @@ public class ResourceService implements AutoCloseable {
             long syncDelay,
             int syncBatch,
             long cacheExpiration,
-            int compressionMinSize) {
+            int compressionMinSize,
+            long nearCacheSize,
+            int syncParallelism,
+            int syncShards,
+            Map<String, String> compressionCodecs,
+            List<String> compressionDictionaries,
+            int cacheCompressionMinSize,
+            String cacheCompressionCodec,
+            boolean contentAddressed,
+            int bulkParallelism,
+            long diskCacheSize,
+            String diskCacheDirectory) {
     }
 }
\ No newline at end of file
@@ -6,6 +6,7 @@ import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RTopic;
 import org.redisson.api.RedissonClient;
+import org.redisson.api.listener.BaseStatusListener;
 import org.redisson.codec.TypedJsonJacksonCodec;
 
 import java.util.Collection;
@@ -31,6 +32,21 @@ public class ResourceTopic {
         topic.publish(event);
     }
 
+    /**
+     * Subscribes to the events of all resources.
+     *
+     * @param resubscriber is called once the topic is (re)subscribed because the events could be missed.
+     */
+    public void subscribeAll(Consumer<ResourceEvent> subscriber, Runnable resubscriber) {
+        topic.addListener(ResourceEvent.class, (channel, event) -> subscriber.accept(event));
+        topic.addListener(new BaseStatusListener() {
+            @Override
+            public void onSubscribe(String channel) {
+                resubscriber.run();
+            }
+        });
+    }
+
     public Subscription subscribe(Collection<ResourceDescriptor> resources, Consumer<ResourceEvent> subscriber) {
         Subscription subscription = new Subscription(resources, subscriber);
 
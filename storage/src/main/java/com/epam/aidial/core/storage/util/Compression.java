@@ -1,44 +1,59 @@
 package com.epam.aidial.core.storage.util;
 
-import lombok.SneakyThrows;
+import com.epam.aidial.core.storage.compression.CompressionCodec;
+import com.epam.aidial.core.storage.compression.GzipCodec;
+import com.epam.aidial.core.storage.compression.Lz4Codec;
+import com.epam.aidial.core.storage.compression.ZstdCodec;
 import lombok.experimental.UtilityClass;
-import lombok.extern.slf4j.Slf4j;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
-import java.util.zip.ZipException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Registry of the compression codecs by encoding. The codecs with dictionaries are registered on start-up.
+ */
 @UtilityClass
-@Slf4j
 public class Compression {
 
-    @SneakyThrows
-    public byte[] compress(String type, byte[] data) {
-        if (!type.equals("gzip")) {
+    private final Map<String, CompressionCodec> codecs = new ConcurrentHashMap<>();
+
+    /**
+     * The encodings which are registered HTTP content codings, the others are known to the storage only.
+     */
+    private final Set<String> contentCodings = Set.of(GzipCodec.ENCODING, ZstdCodec.ENCODING);
+
+    static {
+        register(new GzipCodec());
+        register(new ZstdCodec());
+        register(new Lz4Codec());
+    }
+
+    public void register(CompressionCodec codec) {
+        codecs.put(codec.encoding(), codec);
+    }
+
+    public Set<String> contentCodings() {
+        return contentCodings;
+    }
+
+    public boolean isContentCoding(String type) {
+        return contentCodings.contains(type);
+    }
+
+    public CompressionCodec getCodec(String type) {
+        CompressionCodec codec = codecs.get(type);
+        if (codec == null) {
             throw new IllegalArgumentException("Unsupported compression: " + type);
         }
+        return codec;
+    }
 
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        try (GZIPOutputStream stream = new GZIPOutputStream(output)) {
-            stream.write(data);
-        }
-        return output.toByteArray();
+    public byte[] compress(String type, byte[] data) {
+        return getCodec(type).compress(data);
     }
 
-    @SneakyThrows
     public byte[] decompress(String type, byte[] input) {
-        if (!type.equals("gzip")) {
-            throw new IllegalArgumentException("Unsupported compression: " + type);
-        }
-        try (InputStream decompressed = new GZIPInputStream(new ByteArrayInputStream(input))) {
-            return decompressed.readAllBytes();
-        } catch (ZipException e) {
-            // special case for GCP cloud storage, due to jclouds bug https://issues.apache.org/jira/projects/JCLOUDS/issues/JCLOUDS-1633
-            log.warn("Failed to decompress provided input: {}", e.getMessage());
-            return input;
-        }
+        return getCodec(type).decompress(input);
     }
-}
\ No newline at end of file
+}
@@ -8,7 +8,21 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 public class EtagBuilder {
-    private final MessageDigest digest = getDigest();
+    public static final String CONTENT_HASH_ALGORITHM = "SHA-256";
+    private static final String ETAG_ALGORITHM = "MD5";
+
+    private final MessageDigest digest;
+
+    public EtagBuilder() {
+        this(ETAG_ALGORITHM);
+    }
+
+    /**
+     * @param algorithm the digest algorithm, e.g. {@link #CONTENT_HASH_ALGORITHM} to build the hash the content is addressed by.
+     */
+    public EtagBuilder(String algorithm) {
+        this.digest = getDigest(algorithm);
+    }
 
     public EtagBuilder append(byte[] bytes) {
         digest.update(bytes);
@@ -31,8 +45,12 @@ public class EtagBuilder {
         return new EtagBuilder().append(bytes).build();
     }
 
+    public static String generateContentHash(byte[] bytes) {
+        return new EtagBuilder(CONTENT_HASH_ALGORITHM).append(bytes).build();
+    }
+
     @SneakyThrows
-    private static MessageDigest getDigest() {
-        return MessageDigest.getInstance("MD5");
+    private static MessageDigest getDigest(String algorithm) {
+        return MessageDigest.getInstance(algorithm);
     }
 }
@@ -16,6 +16,10 @@ import javax.annotation.Nullable;
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
 public class EtagHeader {
     public static final String ANY_TAG = "*";
+    /**
+     * The prefix of a weak etag, e.g. the etag of the compressed representation of a resource.
+     */
+    public static final String WEAK_PREFIX = "W/";
     public static final EtagHeader ANY = new EtagHeader(null, Set.of(), null);
     public static final EtagHeader NEW_ONLY = new EtagHeader(null, null, null);
     /**
@@ -31,6 +35,13 @@ public class EtagHeader {
      */
     private final String method;
 
+    /**
+     * @return true if the request has any condition on the etag, e.g. If-None-Match.
+     */
+    public boolean isConditional() {
+        return ifMatchTags != null || ifNoneMatchTags == null || !ifNoneMatchTags.isEmpty();
+    }
+
     public void validate(String etag) {
         validate(() -> etag);
     }
@@ -103,7 +114,10 @@ public class EtagHeader {
             return Set.of();
         }
 
-        return parseTagValue(value);
+        // If-None-Match uses the weak comparison, so the weak etag matches the resource etag
+        return Arrays.stream(value.split(","))
+                .map(tag -> StringUtils.strip(StringUtils.removeStart(tag.trim(), WEAK_PREFIX), "\""))
+                .collect(Collectors.toUnmodifiableSet());
     }
 
     @Nullable
@@ -0,0 +1,144 @@
+package com.epam.aidial.core.storage.util;
+
+import com.epam.aidial.core.storage.http.HttpException;
+import com.epam.aidial.core.storage.http.HttpStatus;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Byte ranges requested with Range and If-Range headers.
+ * The header which can't be parsed or has too many ranges is ignored, so the whole resource is served.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class RangeHeader {
+    public static final RangeHeader NONE = new RangeHeader(List.of(), null);
+
+    private static final String UNIT = "bytes=";
+    private static final int MAX_RANGES = 16;
+
+    /**
+     * <code>null</code> start means the suffix of <code>end</code> bytes, <code>null</code> end means up to the end of the resource.
+     */
+    private final List<Spec> specs;
+    /**
+     * The etag the ranges are requested for, <code>null</code> if any.
+     */
+    private final String ifRange;
+
+    public boolean isEmpty() {
+        return specs.isEmpty();
+    }
+
+    /**
+     * Resolves the requested ranges against the resource.
+     *
+     * @param length the length of the resource in bytes.
+     * @param etag the etag of the resource.
+     * @return the ranges to serve or the empty list if the whole resource must be served.
+     * @throws HttpException with 416 status if none of the ranges is satisfiable.
+     */
+    public List<Range> resolve(long length, String etag) {
+        if (specs.isEmpty() || (ifRange != null && !ifRange.equals(etag))) {
+            return List.of();
+        }
+
+        List<Range> ranges = new ArrayList<>(specs.size());
+        for (Spec spec : specs) {
+            if (spec.start == null) {
+                if (spec.end > 0 && length > 0) {
+                    ranges.add(new Range(Math.max(0, length - spec.end), length - 1));
+                }
+            } else if (spec.start < length) {
+                long end = (spec.end == null) ? length - 1 : Math.min(spec.end, length - 1);
+                ranges.add(new Range(spec.start, end));
+            }
+        }
+
+        if (ranges.isEmpty()) {
+            throw new HttpException(HttpStatus.RANGE_NOT_SATISFIABLE, "Range is not satisfiable",
+                    Map.of("content-range", "bytes */" + length));
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Constructs range header instance.
+     *
+     * @param range HTTP header, e.g. "bytes=0-99, 200-, -100"
+     * @param ifRange HTTP header, only etag is supported
+     */
+    public static RangeHeader fromHeader(@Nullable String range, @Nullable String ifRange) {
+        String value = StringUtils.strip(range);
+        if (value == null || !value.regionMatches(true, 0, UNIT, 0, UNIT.length())) {
+            return NONE;
+        }
+
+        String[] tokens = value.substring(UNIT.length()).split(",");
+        if (tokens.length > MAX_RANGES) {
+            return NONE;
+        }
+
+        List<Spec> specs = new ArrayList<>(tokens.length);
+        for (String token : tokens) {
+            Spec spec = parseSpec(token.strip());
+            if (spec == null) {
+                return NONE;
+            }
+            specs.add(spec);
+        }
+
+        String tag = StringUtils.strip(ifRange);
+        return new RangeHeader(specs, (tag == null) ? null : StringUtils.strip(tag, "\""));
+    }
+
+    @Nullable
+    private static Spec parseSpec(String token) {
+        int dash = token.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            String first = token.substring(0, dash).strip();
+            String last = token.substring(dash + 1).strip();
+
+            if (first.isEmpty()) {
+                return last.isEmpty() ? null : new Spec(null, parsePosition(last));
+            }
+
+            Long start = parsePosition(first);
+            Long end = last.isEmpty() ? null : parsePosition(last);
+            return (end != null && end < start) ? null : new Spec(start, end);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long parsePosition(String value) {
+        if (!StringUtils.isNumeric(value)) {
+            throw new NumberFormatException("Invalid position: " + value);
+        }
+
+        return Long.parseLong(value);
+    }
+
+    private record Spec(Long start, Long end) {
+    }
+
+    /**
+     * @param start the first byte of the range.
+     * @param end the last byte of the range, inclusive.
+     */
+    public record Range(long start, long end) {
+        public long length() {
+            return end - start + 1;
+        }
+    }
+}
@@ -10,6 +10,8 @@ import org.redisson.config.Config;
 import redis.embedded.RedisServer;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 class LockServiceTest {
 
@@ -64,4 +66,45 @@ class LockServiceTest {
             lock.close();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void testLockAsyncWakesUpOnRelease() throws Exception {
+        try (LockService other = new LockService(client, null)) {
+            LockService.Lock lock = other.lock("async-key");
+            CompletableFuture<LockService.Lock> future = service.lockAsync("async-key");
+
+            Thread.sleep(100);
+            Assertions.assertFalse(future.isDone());
+
+            long start = System.nanoTime();
+            lock.close();
+            future.get(5, TimeUnit.SECONDS).close();
+            // the release on the other node is announced, so the waiter doesn't wait for the next poll
+            Assertions.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        }
+    }
+
+    @Test
+    void testLeaseIsRenewed() throws Exception {
+        try (LockService shortLease = new LockService(client, null, 300)) {
+            LockService.Lock lock = shortLease.lock("lease-key");
+            Thread.sleep(1000);
+            Assertions.assertNull(service.tryLock("lease-key"));
+
+            lock.close();
+            Assertions.assertNotNull(service.tryLock("lease-key"));
+        }
+    }
+
+    @Test
+    void testLeaseExpiresWithoutWatchdog() {
+        LockService shortLease = new LockService(client, null, 300);
+        shortLease.lock("expired-key");
+        // the owner is gone, so nobody renews the lease
+        shortLease.close();
+
+        long start = System.nanoTime();
+        service.lock("expired-key").close();
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+}
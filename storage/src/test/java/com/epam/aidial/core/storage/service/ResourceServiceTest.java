@@ -0,0 +1,799 @@
+package com.epam.aidial.core.storage.service;
+
+import com.epam.aidial.core.storage.blobstore.BlobStorage;
+import com.epam.aidial.core.storage.blobstore.Storage;
+import com.epam.aidial.core.storage.data.FileMetadata;
+import com.epam.aidial.core.storage.data.MetadataBase;
+import com.epam.aidial.core.storage.data.ResourceFolderMetadata;
+import com.epam.aidial.core.storage.http.HttpException;
+import com.epam.aidial.core.storage.resource.ResourceDescriptor;
+import com.epam.aidial.core.storage.resource.ResourceType;
+import com.epam.aidial.core.storage.util.Compression;
+import com.epam.aidial.core.storage.util.EtagHeader;
+import com.epam.aidial.core.storage.util.RangeHeader;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.MutableBlobMetadata;
+import org.jclouds.blobstore.domain.internal.BlobBuilderImpl;
+import org.jclouds.blobstore.domain.internal.MutableBlobMetadataImpl;
+import org.jclouds.blobstore.domain.internal.PageSetImpl;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.redisson.Redisson;
+import org.redisson.api.RMap;
+import org.redisson.api.RScoredSortedSet;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.codec.CompositeCodec;
+import org.redisson.config.Config;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ResourceServiceTest {
+
+    private static final ResourceType TYPE = new ResourceType() {
+        @Override
+        public String name() {
+            return "COUNTER";
+        }
+
+        @Override
+        public String group() {
+            return "counters";
+        }
+
+        @Override
+        public boolean requireCompression() {
+            return false;
+        }
+    };
+
+    private static RedisServer server;
+    private static RedissonClient client;
+
+    private BlobStorage blobStorage;
+    private Runnable sync;
+    private ResourceService service;
+
+    @BeforeAll
+    static void init() throws IOException {
+        try {
+            server = RedisServer.newRedisServer()
+                    .port(16372)
+                    .bind("127.0.0.1")
+                    .setting("maxmemory 4M")
+                    .setting("maxmemory-policy volatile-lfu")
+                    .build();
+            server.start();
+
+            Config config = new Config();
+            config.useSingleServer().setAddress("redis://localhost:16372");
+
+            client = Redisson.create(config);
+        } catch (Throwable e) {
+            destroy();
+            throw e;
+        }
+    }
+
+    @AfterAll
+    static void destroy() throws IOException {
+        try {
+            if (client != null) {
+                client.shutdown();
+            }
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        client.getKeys().flushall();
+
+        blobStorage = mock(BlobStorage.class);
+        when(blobStorage.list(anyString(), any(), anyInt(), anyBoolean())).thenReturn(new PageSetImpl<>(List.of(), null));
+        TimerService timerService = mock(TimerService.class);
+        service = createService(timerService, 0);
+
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(timerService).scheduleWithFixedDelay(anyLong(), anyLong(), task.capture());
+        sync = task.getValue();
+    }
+
+    private ResourceService createService(TimerService timerService, long nearCacheSize) {
+        LockService lockService = new LockService(client, null);
+        ResourceService.Settings settings = settings().nearCacheSize(nearCacheSize).build();
+        return new ResourceService(timerService, client, blobStorage, lockService, settings, null);
+    }
+
+    /**
+     * The settings of the tests, the settings which are not set here are disabled.
+     */
+    private static ResourceService.Settings.SettingsBuilder settings() {
+        return ResourceService.Settings.builder()
+                .maxSize(1048576)
+                .maxSizeToCache(4096)
+                .syncPeriod(60000)
+                .syncBatch(256)
+                .cacheExpiration(300000)
+                .compressionMinSize(256)
+                .syncParallelism(4)
+                .syncShards(16);
+    }
+
+    @Test
+    void testConcurrentCompute() throws Exception {
+        ResourceDescriptor descriptor = new ResourceDescriptor(TYPE, "counter", List.of(), "bucket", "bucket/", false);
+        service.putResource(descriptor, "0", EtagHeader.ANY);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    for (int j = 0; j < 50; j++) {
+                        service.computeResource(descriptor, body -> String.valueOf(Long.parseLong(body) + 1));
+                    }
+                }, executor));
+            }
+
+            // the lock is taken by the background sync and the updates of the resource which is not cached
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (int j = 0; j < 50; j++) {
+                    sync.run();
+                }
+            }, executor));
+
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("400", service.getResource(descriptor));
+
+        sync.run();
+        verify(blobStorage, atLeastOnce()).store(eq("bucket/counters/counter"), anyString(), isNull(), anyMap(), eq("400".getBytes()));
+    }
+
+    @Test
+    void testComputeCachedResourceWithoutLock() throws Exception {
+        ResourceDescriptor descriptor = new ResourceDescriptor(TYPE, "counter", List.of(), "bucket", "bucket/", false);
+        service.putResource(descriptor, "1", EtagHeader.ANY);
+
+        try (LockService.Lock ignore = service.lockResource(descriptor)) {
+            CompletableFuture.runAsync(() -> service.computeResource(descriptor, body -> body + "2"))
+                    .get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals("12", service.getResource(descriptor));
+    }
+
+    @Test
+    void testComputeCreatesAndDeletesResource() {
+        ResourceDescriptor descriptor = new ResourceDescriptor(TYPE, "counter", List.of(), "bucket", "bucket/", false);
+
+        service.computeResource(descriptor, body -> body == null ? "1" : body + "2");
+        assertEquals("1", service.getResource(descriptor));
+
+        service.computeResource(descriptor, body -> body + "2");
+        assertEquals("12", service.getResource(descriptor));
+
+        service.computeResource(descriptor, body -> null);
+        verify(blobStorage).delete("bucket/counters/counter");
+        assertNull(service.getResource(descriptor));
+    }
+
+    @Test
+    void testShardedSync() {
+        for (int i = 0; i < 100; i++) {
+            ResourceDescriptor descriptor = new ResourceDescriptor(TYPE, "counter" + i, List.of(), "bucket", "bucket/", false);
+            service.putResource(descriptor, String.valueOf(i), EtagHeader.ANY);
+        }
+
+        assertTrue(client.getKeys().getKeysStreamByPattern("resource:queue:*").count() > 1);
+
+        sync.run();
+
+        for (int i = 0; i < 100; i++) {
+            verify(blobStorage).store(eq("bucket/counters/counter" + i), anyString(), isNull(), anyMap(), eq(String.valueOf(i).getBytes()));
+        }
+        assertEquals(0, service.getSyncBacklog());
+        assertEquals(0, service.getSyncLag());
+    }
+
+    @Test
+    void testSyncOfLegacyQueue() {
+        for (int i = 0; i < 100; i++) {
+            ResourceDescriptor descriptor = new ResourceDescriptor(TYPE, "counter" + i, List.of(), "bucket", "bucket/", false);
+            service.putResource(descriptor, String.valueOf(i), EtagHeader.ANY);
+        }
+
+        // the resources are queued by the nodes which don't shard the queue
+        RScoredSortedSet<String> legacy = client.getScoredSortedSet("resource:queue", StringCodec.INSTANCE);
+        client.getKeys().getKeysStreamByPattern("resource:queue:*").toList().forEach(queue -> {
+            RScoredSortedSet<String> shard = client.getScoredSortedSet(queue, StringCodec.INSTANCE);
+            shard.entryRange(0, -1).forEach(entry -> legacy.add(entry.getScore(), entry.getValue()));
+            shard.delete();
+        });
+        assertEquals(100, legacy.size());
+
+        // the resources are moved to their shards and synced there by the next run at the latest
+        sync.run();
+        sync.run();
+
+        for (int i = 0; i < 100; i++) {
+            verify(blobStorage).store(eq("bucket/counters/counter" + i), anyString(), isNull(), anyMap(), eq(String.valueOf(i).getBytes()));
+        }
+        assertEquals(0, service.getSyncBacklog());
+        assertEquals(0, legacy.size());
+    }
+
+    @Test
+    void testSyncBacklog() {
+        ResourceDescriptor descriptor = new ResourceDescriptor(TYPE, "counter", List.of(), "bucket", "bucket/", false);
+        service.putResource(descriptor, "1", EtagHeader.ANY);
+
+        try (LockService.Lock ignore = service.lockResource(descriptor)) {
+            sync.run();
+        }
+
+        verify(blobStorage, never()).store(anyString(), anyString(), any(), anyMap(), eq("1".getBytes()));
+        assertEquals(1, service.getSyncBacklog());
+    }
+
+    @Test
+    void testCompressionCodec() {
+        ResourceType type = new ResourceType() {
+            @Override
+            public String name() {
+                return "DOCUMENT";
+            }
+
+            @Override
+            public String group() {
+                return "documents";
+            }
+
+            @Override
+            public boolean requireCompression() {
+                return true;
+            }
+        };
+        ResourceService.Settings settings = settings().compressionCodecs(Map.of("DOCUMENT", "zstd")).build();
+        ResourceService documents = new ResourceService(mock(TimerService.class), client, blobStorage, new LockService(client, null), settings, null);
+        ResourceDescriptor descriptor = new ResourceDescriptor(type, "document", List.of(), "bucket", "bucket/", false);
+
+        // the resource is too big to be cached, so it's written to the blob store right away
+        String body = "{\"text\":\"%s\"}".formatted("text ".repeat(1000));
+        documents.putResource(descriptor, body, EtagHeader.ANY);
+
+        ArgumentCaptor<byte[]> bytes = ArgumentCaptor.forClass(byte[].class);
+        verify(blobStorage).store(eq("bucket/documents/document"), anyString(), eq("zstd"), anyMap(), bytes.capture());
+        assertEquals(body, new String(Compression.decompress("zstd", bytes.getValue())));
+    }
+
+    @Test
+    void testCacheCompression() throws Exception {
+        ResourceService.Settings settings = settings().cacheCompressionMinSize(256).cacheCompressionCodec("zstd").build();
+        ResourceService compressing = new ResourceService(mock(TimerService.class), client, blobStorage, new LockService(client, null), settings, null);
+        ResourceDescriptor descriptor = new ResourceDescriptor(TYPE, "counter", List.of(), "bucket", "bucket/", false);
+
+        String body = "1".repeat(1000);
+        compressing.putResource(descriptor, body, EtagHeader.ANY);
+
+        RMap<String, byte[]> map = client.getMap("counter:bucket/counters/counter", new CompositeCodec(StringCodec.INSTANCE, ByteArrayCodec.INSTANCE));
+        assertEquals("zstd", new String(map.get("encoding")));
+        assertTrue(map.get("body").length < body.length());
+
+        // the body is decompressed on read, even by the node which doesn't compress
+        assertEquals(body, compressing.getResource(descriptor));
+        assertEquals(body, service.getResource(descriptor));
+
+        try (ResourceService.ResourceStream stream = compressing.getResourceStream(descriptor, EtagHeader.ANY, Set.of("gzip"), RangeHeader.NONE)) {
+            assertNull(stream.contentEncoding());
+            assertEquals(body, new String(stream.inputStream().readAllBytes()));
+        }
+
+        // the compressed body is streamed as is to the client which accepts the encoding
+        try (ResourceService.ResourceStream stream = compressing.getResourceStream(descriptor, EtagHeader.ANY, Set.of("gzip", "zstd"), RangeHeader.NONE)) {
+            assertEquals("zstd", stream.contentEncoding());
+            byte[] bytes = stream.inputStream().readAllBytes();
+            assertEquals(bytes.length, stream.contentLength());
+            assertEquals(body, new String(Compression.decompress("zstd", bytes)));
+        }
+
+        // the small body is not compressed
+        compressing.putResource(descriptor, "1", EtagHeader.ANY);
+        assertEquals(0, map.get("encoding").length);
+        assertEquals("1", new String(map.get("body")));
+    }
+
+    @Test
+    void testCacheCompressionWithStorageEncoding() throws Exception {
+        ResourceService.Settings settings = settings().cacheCompressionMinSize(256).cacheCompressionCodec("lz4").build();
+        ResourceService compressing = new ResourceService(mock(TimerService.class), client, blobStorage, new LockService(client, null), settings, null);
+        ResourceDescriptor descriptor = new ResourceDescriptor(TYPE, "counter", List.of(), "bucket", "bucket/", false);
+
+        String body = "1".repeat(1000);
+        compressing.putResource(descriptor, body, EtagHeader.ANY);
+
+        RMap<String, byte[]> map = client.getMap("counter:bucket/counters/counter", new CompositeCodec(StringCodec.INSTANCE, ByteArrayCodec.INSTANCE));
+        assertEquals("lz4", new String(map.get("encoding")));
+
+        // lz4 is not an HTTP content coding, so the body is decoded even if the client asks for it
+        try (ResourceService.ResourceStream stream = compressing.getResourceStream(descriptor, EtagHeader.ANY, Set.of("lz4"), RangeHeader.NONE)) {
+            assertNull(stream.contentEncoding());
+            assertEquals(body, new String(stream.inputStream().readAllBytes()));
+        }
+    }
+
+    @Test
+    void testGetResources() {
+        List<ResourceDescriptor> descriptors = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            descriptors.add(new ResourceDescriptor(TYPE, "counter" + i, List.of(), "bucket", "bucket/", false));
+        }
+        service.putResource(descriptors.get(0), "0", EtagHeader.ANY);
+        service.putResource(descriptors.get(2), "2", EtagHeader.ANY);
+
+        Blob blob = new BlobBuilderImpl()
+                .name("bucket/counters/counter3")
+                .payload("3".getBytes())
+                .contentType("application/json")
+                .userMetadata(Map.of("etag", "3"))
+                .build();
+        when(blobStorage.load("bucket/counters/counter3")).thenReturn(blob);
+
+        assertEquals(Arrays.asList("0", null, "2", "3"), service.getResources(descriptors));
+        verify(blobStorage).load("bucket/counters/counter1");
+        verify(blobStorage).load("bucket/counters/counter3");
+
+        // the loaded resources are cached in Redis
+        assertEquals(Arrays.asList("0", null, "2", "3"), service.getResources(descriptors));
+        verify(blobStorage).load("bucket/counters/counter1");
+        verify(blobStorage).load("bucket/counters/counter3");
+    }
+
+    @Test
+    void testLocalFile() throws Exception {
+        for (String name : List.of("plain", "compressed")) {
+            Blob blob = new BlobBuilderImpl()
+                    .name("bucket/counters/" + name)
+                    .payload(new byte[8192])
+                    .contentType("application/octet-stream")
+                    .contentEncoding(name.equals("plain") ? null : "gzip")
+                    .userMetadata(Map.of("etag", name))
+                    .build();
+            when(blobStorage.load("bucket/counters/" + name)).thenReturn(blob);
+            when(blobStorage.getLocalFile("bucket/counters/" + name)).thenReturn(Path.of("data", name));
+        }
+
+        ResourceDescriptor plain = new ResourceDescriptor(TYPE, "plain", List.of(), "bucket", "bucket/", false);
+        try (ResourceService.ResourceStream stream = service.getResourceStream(plain, EtagHeader.ANY)) {
+            assertEquals(Path.of("data", "plain"), stream.file());
+            assertEquals(8192, stream.contentLength());
+        }
+
+        // the content of the compressed blob is not the resource as is, so it is not sent from the file
+        ResourceDescriptor compressed = new ResourceDescriptor(TYPE, "compressed", List.of(), "bucket", "bucket/", false);
+        try (ResourceService.ResourceStream stream = service.getResourceStream(compressed, EtagHeader.ANY)) {
+            assertNull(stream.file());
+        }
+    }
+
+    @Test
+    void testDiskCache(@TempDir Path dir) throws Exception {
+        byte[] content = new byte[8192];
+        Arrays.fill(content, (byte) 'x');
+        content[10] = 'y';
+        MutableBlobMetadata meta = new MutableBlobMetadataImpl();
+        meta.setName("bucket/counters/large");
+        meta.setUserMetadata(Map.of("etag", "1"));
+        meta.getContentMetadata().setContentType("application/octet-stream");
+        meta.getContentMetadata().setContentLength(8192L);
+        when(blobStorage.load("bucket/counters/large")).thenAnswer(invocation -> new BlobBuilderImpl()
+                .name("bucket/counters/large")
+                .userMetadata(meta.getUserMetadata())
+                .payload(content)
+                .contentType("application/octet-stream")
+                .build());
+
+        ResourceService.Settings settings = settings().diskCacheSize(1048576).diskCacheDirectory(dir.toString()).build();
+        ResourceService cached = new ResourceService(mock(TimerService.class), client, blobStorage, new LockService(client, null), settings, null);
+        ResourceDescriptor descriptor = new ResourceDescriptor(TYPE, "large", List.of(), "bucket", "bucket/", false);
+
+        // the resource is cached while it's downloaded
+        try (ResourceService.ResourceStream stream = cached.getResourceStream(descriptor, EtagHeader.ANY)) {
+            assertNull(stream.file());
+            assertArrayEquals(content, stream.inputStream().readAllBytes());
+        }
+
+        // the cached resource is served without the requests to the blob store
+        try (ResourceService.ResourceStream stream = cached.getResourceStream(descriptor, EtagHeader.ANY)) {
+            assertEquals(dir, stream.file().getParent());
+            assertEquals("1", stream.etag());
+            assertEquals("application/octet-stream", stream.contentType());
+            assertArrayEquals(content, stream.inputStream().readAllBytes());
+        }
+
+        RangeHeader range = RangeHeader.fromHeader("bytes=10-11", null);
+        try (ResourceService.ResourceStream stream = cached.getResourceStream(descriptor, EtagHeader.ANY, Set.of(), range)) {
+            assertArrayEquals("yx".getBytes(), stream.inputStream().readAllBytes());
+        }
+
+        assertThrows(HttpException.class, () -> cached.getResourceStream(descriptor, EtagHeader.fromHeader(null, "1", "GET")));
+
+        verify(blobStorage, times(1)).load("bucket/counters/large");
+        verify(blobStorage, never()).meta(anyString());
+        verify(blobStorage, never()).load(anyString(), anyLong(), anyLong());
+
+        // the changed resource is not served from the cache once the event is received,
+        // the file being sent is deleted once its stream is closed
+        ResourceService.ResourceStream sent = cached.getResourceStream(descriptor, EtagHeader.ANY);
+        meta.setUserMetadata(Map.of("etag", "2"));
+        cached.putResource(descriptor, new String(content), EtagHeader.ANY);
+        try (ResourceService.ResourceStream stream = cached.getResourceStream(descriptor, EtagHeader.ANY)) {
+            assertNull(stream.file());
+            assertEquals("2", stream.etag());
+            assertArrayEquals(content, stream.inputStream().readAllBytes());
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(sent.file()));
+        sent.close();
+        assertFalse(Files.exists(sent.file()));
+    }
+
+    @Test
+    void testNearCache() throws Exception {
+        // the resource is created before the nodes subscribe, so its notification doesn't invalidate the cache of the nodes
+        ResourceDescriptor descriptor = new ResourceDescriptor(TYPE, "counter", List.of(), "bucket", "bucket/", false);
+        service.putResource(descriptor, "1", EtagHeader.ANY);
+        ResourceService node1 = createService(mock(TimerService.class), 1048576);
+        ResourceService node2 = createService(mock(TimerService.class), 1048576);
+
+        assertEquals("1", node1.getResource(descriptor));
+        assertEquals("1", node1.getResource(descriptor));
+        assertEquals(0.5, node1.getNearCacheHitRatio());
+
+        // the node which makes the update sees it right away
+        node2.putResource(descriptor, "2", EtagHeader.ANY);
+        assertEquals("2", node2.getResource(descriptor));
+
+        // the other nodes see it once the notification is delivered
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"2".equals(node1.getResource(descriptor)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("2", node1.getResource(descriptor));
+
+        node2.deleteResource(descriptor, EtagHeader.ANY);
+        assertNull(node2.getResource(descriptor));
+        assertTrue(Double.isNaN(service.getNearCacheHitRatio()));
+    }
+
+    @Test
+    void testConditionalWriteBypassesNearCache() throws InterruptedException {
+        ResourceDescriptor descriptor = new ResourceDescriptor(TYPE, "counter", List.of(), "bucket", "bucket/", false);
+        ResourceService node = createService(mock(TimerService.class), 1048576);
+        node.putResource(descriptor, "1", EtagHeader.ANY);
+        String etag = service.getResourceMetadata(descriptor).getEtag();
+        RMap<String, String> cached = client.getMap("counter:bucket/counters/counter", StringCodec.INSTANCE);
+
+        // the resource is changed, but the node is not notified yet and serves the cached one,
+        // the resource read before the event of the update is delivered isn't cached, so it's read until it's cached
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            assertEquals("1", node.getResource(descriptor));
+            cached.put("etag", "changed");
+            if (etag.equals(node.getResourceMetadata(descriptor).getEtag()) || System.currentTimeMillis() > deadline) {
+                break;
+            }
+            cached.put("etag", etag);
+            Thread.sleep(10);
+        }
+        assertEquals(etag, node.getResourceMetadata(descriptor).getEtag());
+
+        EtagHeader ifMatch = EtagHeader.fromHeader(etag, null, "PUT");
+        assertThrows(HttpException.class, () -> node.putResource(descriptor, "2", ifMatch));
+        assertThrows(HttpException.class, () -> node.deleteResource(descriptor, ifMatch));
+        assertNotNull(node.putResource(descriptor, "2", EtagHeader.fromHeader("changed", null, "PUT")));
+    }
+
+    @Test
+    void testFolderListing() {
+        ResourceDescriptor root = new ResourceDescriptor(TYPE, null, List.of(), "bucket", "bucket/", true);
+        for (String path : List.of("a/b/c1", "a/b/c2", "a/d", "a.json", "e")) {
+            service.putResource(root.resolveByPath("bucket/counters/" + path), "1", EtagHeader.ANY);
+        }
+
+        // the new resources are not written to the blob store until they are synced
+        verify(blobStorage, never()).store(anyString(), anyString(), any(), anyMap(), any(byte[].class));
+
+        ResourceFolderMetadata folder = service.getFolderMetadata(root, null, 100, false);
+        assertEquals(List.of("counters/bucket/a.json", "counters/bucket/a/", "counters/bucket/e"), urls(folder));
+
+        List<String> urls = new ArrayList<>();
+        String token = null;
+        do {
+            folder = service.getFolderMetadata(root, token, 2, true);
+            urls.addAll(urls(folder));
+            token = folder.getNextToken();
+        } while (token != null);
+        assertEquals(List.of("counters/bucket/a.json", "counters/bucket/a/b/c1", "counters/bucket/a/b/c2",
+                "counters/bucket/a/d", "counters/bucket/e"), urls);
+
+        // the folders are indexed once when the first resources are added
+        verify(blobStorage, times(3)).list(anyString(), any(), anyInt(), eq(false));
+
+        service.deleteResource(root.resolveByPath("bucket/counters/a/b/c1"), EtagHeader.ANY);
+        service.deleteResource(root.resolveByPath("bucket/counters/a/b/c2"), EtagHeader.ANY);
+        assertNull(service.getFolderMetadata(root.resolveByPath("bucket/counters/a/b/"), null, 100, false));
+        assertEquals(List.of("counters/bucket/a/d"), urls(service.getFolderMetadata(root.resolveByPath("bucket/counters/a/"), null, 100, true)));
+    }
+
+    @Test
+    void testFolderIndexIsBuiltFromBlobStore() {
+        MutableBlobMetadata blob = new MutableBlobMetadataImpl();
+        blob.setName("bucket/counters/folder/counter");
+        blob.setSize(1L);
+        blob.setUserMetadata(Map.of("etag", "1", "created_at", "10", "updated_at", "20"));
+        blob.getContentMetadata().setContentType("application/json");
+        doReturn(new PageSetImpl<>(List.of(blob), null)).when(blobStorage).list(eq("bucket/counters/folder/"), any(), anyInt(), eq(false));
+
+        ResourceDescriptor folder = new ResourceDescriptor(TYPE, "folder", List.of(), "bucket", "bucket/", true);
+        for (int i = 0; i < 2; i++) {
+            ResourceFolderMetadata metadata = service.getFolderMetadata(folder, null, 100, false);
+            assertEquals(List.of("counters/bucket/folder/counter"), urls(metadata));
+            assertEquals(20L, ((FileMetadata) metadata.getItems().get(0)).getUpdatedAt());
+        }
+
+        verify(blobStorage, times(1)).list(anyString(), any(), anyInt(), anyBoolean());
+        assertNull(service.getFolderMetadata(new ResourceDescriptor(TYPE, "empty", List.of(), "bucket", "bucket/", true), null, 100, false));
+    }
+
+    @Test
+    void testFolderIndexIsBuiltAgainIfFolderIsChanged() {
+        ResourceDescriptor root = new ResourceDescriptor(TYPE, null, List.of(), "bucket", "bucket/", true);
+        ResourceDescriptor folder = root.resolveByPath("bucket/counters/folder/");
+        ResourceDescriptor other = root.resolveByPath("bucket/counters/folder/other");
+        MutableBlobMetadata blob = new MutableBlobMetadataImpl();
+        blob.setName("bucket/counters/folder/counter");
+        blob.setSize(1L);
+        blob.setUserMetadata(Map.of());
+
+        AtomicInteger listings = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (listings.incrementAndGet() > 1) {
+                return new PageSetImpl<>(List.of(), null);
+            }
+
+            // the folder is indexed, changed and becomes empty while the first listing is in progress, so the listing is stale
+            service.putResource(other, "1", EtagHeader.ANY);
+            service.deleteResource(other, EtagHeader.ANY);
+            return new PageSetImpl<>(List.of(blob), null);
+        }).when(blobStorage).list(eq("bucket/counters/folder/"), any(), anyInt(), eq(false));
+
+        assertNull(service.getFolderMetadata(folder, null, 100, false));
+        assertEquals(3, listings.get());
+    }
+
+    @Test
+    void testMissingResourceIsRemovedFromFolderIndex() throws Exception {
+        ResourceDescriptor root = new ResourceDescriptor(TYPE, null, List.of(), "bucket", "bucket/", true);
+        ResourceDescriptor folder = root.resolveByPath("bucket/counters/folder/");
+        MutableBlobMetadata blob = new MutableBlobMetadataImpl();
+        blob.setName("bucket/counters/folder/counter-1a2b");
+        blob.setSize(1L);
+        blob.setUserMetadata(Map.of());
+        doReturn(new PageSetImpl<>(List.of(blob), null)).when(blobStorage).list(eq("bucket/counters/folder/"), any(), anyInt(), eq(false));
+        service.putResource(root.resolveByPath("bucket/counters/folder/counter"), "1", EtagHeader.ANY);
+
+        // the listing of the blob store has the temporary blob of an upload which is never completed
+        ResourceFolderMetadata metadata = service.getFolderMetadata(folder, null, 100, false);
+        assertEquals(List.of("counters/bucket/folder/counter", "counters/bucket/folder/counter-1a2b"), urls(metadata));
+
+        // the missing resource is removed from the index once it's read
+        assertNull(service.getResourceStream(root.resolveByPath("bucket/counters/folder/counter-1a2b"), EtagHeader.ANY));
+        assertEquals(List.of("counters/bucket/folder/counter"), urls(service.getFolderMetadata(folder, null, 100, false)));
+        assertNull(service.getResource(root.resolveByPath("bucket/counters/folder/counter-1a2b")));
+        assertEquals("1", service.getResource(root.resolveByPath("bucket/counters/folder/counter")));
+    }
+
+    @Test
+    void testTemporaryFilesAreNotListed(@TempDir Path dir) throws Exception {
+        try (BlobStorage storage = createFileStorage(dir)) {
+            ResourceService.Settings settings = settings().build();
+            ResourceService files = new ResourceService(mock(TimerService.class), client, storage, new LockService(client, null), settings, null);
+            ResourceDescriptor root = new ResourceDescriptor(TYPE, null, List.of(), "bucket", "bucket/", true);
+            files.putFile(root.resolveByPath("bucket/counters/folder/counter"), "1".repeat(5000).getBytes(), EtagHeader.ANY, "text/plain", null);
+
+            // the file of the write in progress has no user metadata yet
+            Path folder = dir.resolve("test/bucket/counters/folder");
+            Files.writeString(folder.resolve("counter-" + UUID.randomUUID()), "1");
+            client.getKeys().flushall();
+
+            ResourceFolderMetadata metadata = files.getFolderMetadata(root.resolveByPath("bucket/counters/folder/"), null, 100, false);
+            assertEquals(List.of("counters/bucket/folder/counter"), urls(metadata));
+        }
+    }
+
+    @Test
+    void testBulkFolderOperations(@TempDir Path dir) {
+        try (BlobStorage storage = createFileStorage(dir)) {
+            ResourceService.Settings settings = settings().bulkParallelism(4).build();
+            ResourceService bulk = new ResourceService(mock(TimerService.class), client, storage, new LockService(client, null), settings, null);
+            ResourceDescriptor root = new ResourceDescriptor(TYPE, null, List.of(), "bucket", "bucket/", true);
+            ResourceDescriptor source = root.resolveByPath("bucket/counters/source/");
+            ResourceDescriptor target = root.resolveByPath("bucket/counters/target/");
+            for (int i = 0; i < 10; i++) {
+                bulk.putResource(source.resolveByPath("bucket/counters/source/" + i), Integer.toString(i), EtagHeader.ANY);
+            }
+
+            List<Integer> progress = new ArrayList<>();
+            ResourceService.BulkResult copied = bulk.copyFolder(source, target, false, progress::add);
+            assertEquals(10, copied.completed().size());
+            assertEquals(List.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), progress);
+            assertEquals("7", bulk.getResource(target.resolveByPath("bucket/counters/target/7")));
+
+            // the existing resources are skipped unless overwritten
+            bulk.putResource(source.resolveByPath("bucket/counters/source/7"), "8", EtagHeader.ANY);
+            ResourceService.BulkResult skipped = bulk.copyFolder(source, target, false, null);
+            assertEquals(10, skipped.skipped().size());
+            assertThrows(IllegalArgumentException.class, () -> bulk.copyFolder(source, target, false));
+            bulk.copyFolder(source, target, true);
+            assertEquals("8", bulk.getResource(target.resolveByPath("bucket/counters/target/7")));
+
+            ResourceService.BulkResult deleted = bulk.deleteFolder(target, null);
+            assertEquals(10, deleted.completed().size());
+            assertTrue(deleted.failures().isEmpty());
+            assertNull(bulk.deleteFolder(target, null));
+            assertNull(bulk.getFolderMetadata(target, null, 100, true));
+
+            ResourceService.BulkResult failed = bulk.runBulk(List.of("a", "b"), item -> item, item -> {
+                throw new IllegalStateException(item);
+            }, null);
+            assertEquals(Set.of("a", "b"), failed.failures().keySet());
+            assertEquals("a", assertThrows(IllegalStateException.class, failed::throwIfFailed).getMessage());
+        }
+    }
+
+    @Test
+    void testContentAddressedFiles(@TempDir Path dir) throws Exception {
+        try (BlobStorage storage = createFileStorage(dir)) {
+            ResourceService.Settings settings = settings().contentAddressed(true).build();
+            ResourceService files = new ResourceService(mock(TimerService.class), client, storage, new LockService(client, null), settings, null);
+            ResourceDescriptor root = new ResourceDescriptor(TYPE, null, List.of(), "bucket", "bucket/", true);
+            ResourceDescriptor first = root.resolveByPath("bucket/counters/first");
+            ResourceDescriptor second = root.resolveByPath("bucket/counters/second");
+            ResourceDescriptor copy = root.resolveByPath("bucket/counters/folder/copy");
+            Path content = dir.resolve("test/Content");
+
+            // the files are too big to be cached, so they are written to the blob store right away
+            byte[] body = "1".repeat(5000).getBytes();
+            files.putFile(first, body, EtagHeader.ANY, "text/plain", null);
+            files.putFile(second, body, EtagHeader.ANY, "text/plain", null);
+            assertTrue(files.copyResource(first, copy));
+
+            // the content is stored once and the blobs of the files refer to it
+            assertEquals(1, countFiles(content));
+            assertEquals(0, Files.size(dir.resolve("test/bucket/counters/folder/copy")));
+
+            try (ResourceService.ResourceStream stream = files.getResourceStream(copy, EtagHeader.ANY)) {
+                assertArrayEquals(body, stream.inputStream().readAllBytes());
+                assertEquals("text/plain", stream.contentType());
+            }
+
+            FileMetadata metadata = (FileMetadata) files.getResourceMetadata(copy);
+            assertEquals(5000, metadata.getContentLength());
+            ResourceFolderMetadata folder = files.getFolderMetadata(root.resolveByPath("bucket/counters/folder/"), null, 100, false);
+            assertEquals(5000, ((FileMetadata) folder.getItems().get(0)).getContentLength());
+
+            // the content is deleted with the last file which refers to it
+            files.putFile(first, "2".repeat(5000).getBytes(), EtagHeader.ANY, "text/plain", null);
+            files.deleteResource(second, EtagHeader.ANY);
+            assertEquals(2, countFiles(content));
+            files.deleteResource(copy, EtagHeader.ANY);
+            assertEquals(1, countFiles(content));
+            files.deleteResource(first, EtagHeader.ANY);
+            assertEquals(0, countFiles(content));
+        }
+    }
+
+    @Test
+    void testContentIsPinnedIfCountIsLost(@TempDir Path dir) throws Exception {
+        try (BlobStorage storage = createFileStorage(dir)) {
+            ResourceService.Settings settings = settings().contentAddressed(true).build();
+            ResourceService files = new ResourceService(mock(TimerService.class), client, storage, new LockService(client, null), settings, null);
+            ResourceDescriptor root = new ResourceDescriptor(TYPE, null, List.of(), "bucket", "bucket/", true);
+            ResourceDescriptor file = root.resolveByPath("bucket/counters/file");
+            ResourceDescriptor copy = root.resolveByPath("bucket/counters/copy");
+            Path content = dir.resolve("test/Content");
+
+            byte[] body = "1".repeat(5000).getBytes();
+            files.putFile(file, body, EtagHeader.ANY, "text/plain", null);
+            assertEquals(1, client.getKeys().deleteByPattern("content:*"));
+
+            // the content which count is lost is still copied and is never deleted
+            assertTrue(files.copyResource(file, copy));
+            try (ResourceService.ResourceStream stream = files.getResourceStream(copy, EtagHeader.ANY)) {
+                assertArrayEquals(body, stream.inputStream().readAllBytes());
+            }
+
+            files.deleteResource(file, EtagHeader.ANY);
+            files.deleteResource(copy, EtagHeader.ANY);
+            assertEquals(1, countFiles(content));
+        }
+    }
+
+    private static BlobStorage createFileStorage(Path dir) {
+        Storage config = new Storage();
+        config.setProvider("filesystem");
+        config.setBucket("test");
+        config.setCreateBucket(true);
+        Properties overrides = new Properties();
+        overrides.setProperty("jclouds.filesystem.basedir", dir.toString());
+        config.setOverrides(overrides);
+        return new BlobStorage(config);
+    }
+
+    private static List<String> urls(ResourceFolderMetadata folder) {
+        return folder.getItems().stream().map(MetadataBase::getUrl).toList();
+    }
+
+    private static long countFiles(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return 0;
+        }
+
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+}
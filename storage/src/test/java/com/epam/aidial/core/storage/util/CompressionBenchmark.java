@@ -0,0 +1,108 @@
+package com.epam.aidial.core.storage.util;
+
+import com.epam.aidial.core.storage.compression.CompressionCodec;
+import com.epam.aidial.core.storage.compression.ZstdDictionaryCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Compares the ratio and the throughput of the compression codecs on generated conversations.
+ * Run it with the main method, it is not a part of the test suite.
+ */
+public class CompressionBenchmark {
+
+    private static final String[] WORDS = ("the a of to and in is it you that for on with as this be are can your data "
+            + "model function return value list file user request response error java python code example following "
+            + "please explain how what why when which table query result time number string class method service "
+            + "implementation performance memory cache storage upload download token limit deployment application").split(" ");
+    private static final String[] MODELS = {"gpt-4o", "gpt-4-turbo", "claude-3-5-sonnet", "gemini-1.5-pro", "mistral-large"};
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            samples.add(conversation(random, 1 + random.nextInt(8)));
+        }
+
+        List<byte[]> conversations = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            conversations.add(conversation(random, 1 + random.nextInt(8)));
+        }
+
+        ZstdDictionaryCodec dictionary = new ZstdDictionaryCodec(ZstdDictionaryCodec.train(samples, 64 * 1024));
+        List<CompressionCodec> codecs = List.of(Compression.getCodec("gzip"), Compression.getCodec("zstd"),
+                Compression.getCodec("lz4"), dictionary);
+
+        for (int i = 0; i < 3; i++) {
+            for (CompressionCodec codec : codecs) {
+                run(codec, conversations, i == 2);
+            }
+        }
+    }
+
+    private static void run(CompressionCodec codec, List<byte[]> conversations, boolean print) {
+        long size = 0;
+        long compressedSize = 0;
+        long compressionTime = 0;
+        long decompressionTime = 0;
+
+        for (byte[] conversation : conversations) {
+            long start = System.nanoTime();
+            byte[] compressed = codec.compress(conversation);
+            long middle = System.nanoTime();
+            codec.decompress(compressed);
+            long end = System.nanoTime();
+
+            size += conversation.length;
+            compressedSize += compressed.length;
+            compressionTime += middle - start;
+            decompressionTime += end - middle;
+        }
+
+        if (print) {
+            System.out.printf("%-16s ratio: %5.2f compression: %7.1f MB/s decompression: %7.1f MB/s%n", codec.encoding(),
+                    (double) size / compressedSize, size * 1000.0 / compressionTime, size * 1000.0 / decompressionTime);
+        }
+    }
+
+    static byte[] conversation(Random random, int messages) {
+        StringBuilder json = new StringBuilder();
+        String model = MODELS[random.nextInt(MODELS.length)];
+        json.append("{\"id\":\"").append(model).append("__").append(UUID.randomUUID())
+                .append("\",\"name\":\"").append(text(random, 4))
+                .append("\",\"model\":{\"id\":\"").append(model)
+                .append("\"},\"prompt\":\"").append(text(random, 12))
+                .append("\",\"temperature\":").append(random.nextInt(10) / 10.0)
+                .append(",\"selectedAddons\":[],\"assistantModelId\":null,\"lastActivityDate\":").append(1700000000000L + random.nextInt(1000000000))
+                .append(",\"isPlayback\":false,\"isReplay\":false,\"messages\":[");
+
+        for (int i = 0; i < messages; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"role\":\"user\",\"content\":\"").append(text(random, 10 + random.nextInt(40)))
+                    .append("\",\"settings\":{\"prompt\":\"\",\"temperature\":1,\"selectedAddons\":[]}},")
+                    .append("{\"role\":\"assistant\",\"content\":\"").append(text(random, 50 + random.nextInt(300)))
+                    .append("\",\"model\":{\"id\":\"").append(model)
+                    .append("\"},\"responseId\":\"chatcmpl-").append(UUID.randomUUID())
+                    .append("\",\"custom_content\":{\"attachments\":[],\"state\":{}}}");
+        }
+
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(random.nextInt(12) == 0 ? ". " : " ");
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -1,9 +1,16 @@
 package com.epam.aidial.core.storage.util;
 
+import com.epam.aidial.core.storage.compression.CompressionCodec;
+import com.epam.aidial.core.storage.compression.ZstdDictionaryCodec;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -35,4 +42,48 @@ public class CompressionTest {
 
         assertEquals(content, actual);
     }
+
+    @Test
+    public void testCodecs() {
+        byte[] content = CompressionBenchmark.conversation(new Random(1), 3);
+
+        for (String type : List.of("gzip", "zstd", "lz4")) {
+            byte[] compressed = Compression.compress(type, content);
+            assertTrue(compressed.length < content.length, type);
+            assertArrayEquals(content, Compression.decompress(type, compressed), type);
+        }
+
+        assertTrue(Compression.isContentCoding("gzip"));
+        assertTrue(Compression.isContentCoding("zstd"));
+        assertFalse(Compression.isContentCoding("lz4"));
+    }
+
+    @Test
+    public void testInvalidZstdFrame() {
+        byte[] content = "not a zstd frame".getBytes();
+
+        assertThrows(IllegalArgumentException.class, () -> Compression.decompress("zstd", content));
+    }
+
+    @Test
+    public void testDictionary() {
+        Random random = new Random(1);
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            samples.add(CompressionBenchmark.conversation(random, 1));
+        }
+
+        CompressionCodec codec = new ZstdDictionaryCodec(ZstdDictionaryCodec.train(samples, 16 * 1024));
+        assertTrue(codec.encoding().startsWith("zstd-dict-"));
+
+        byte[] content = CompressionBenchmark.conversation(random, 1);
+        byte[] compressed = codec.compress(content);
+        assertTrue(compressed.length < Compression.compress("zstd", content).length);
+
+        assertThrows(IllegalArgumentException.class, () -> Compression.decompress(codec.encoding(), compressed));
+        Compression.register(codec);
+        assertArrayEquals(content, Compression.decompress(codec.encoding(), compressed));
+        assertFalse(Compression.isContentCoding(codec.encoding()));
+        assertThrows(IllegalArgumentException.class, () -> codec.decompress(content));
+    }
 }
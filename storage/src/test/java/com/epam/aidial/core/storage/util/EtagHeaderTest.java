@@ -96,4 +96,15 @@ class EtagHeaderTest {
         etag.validate("123");
     }
 
+    @Test
+    void testWeakEtag() {
+        EtagHeader etag = EtagHeader.fromHeader(null, "W/\"326\"", "GET");
+        HttpException error = assertThrows(HttpException.class, () -> etag.validate("326"));
+        assertEquals(HttpStatus.NOT_MODIFIED, error.getStatus());
+
+        // if-match uses the strong comparison
+        EtagHeader strong = EtagHeader.fromHeader("W/\"326\"", null, "POST");
+        assertThrows(HttpException.class, () -> strong.validate("326"));
+    }
+
 }
\ No newline at end of file
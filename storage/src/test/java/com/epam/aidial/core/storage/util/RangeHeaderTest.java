@@ -0,0 +1,50 @@
+package com.epam.aidial.core.storage.util;
+
+import com.epam.aidial.core.storage.http.HttpException;
+import com.epam.aidial.core.storage.http.HttpStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RangeHeaderTest {
+    @Test
+    void testRanges() {
+        RangeHeader range = RangeHeader.fromHeader("bytes=0-9, 90-, -5, 95-200", null);
+        assertEquals(List.of(new RangeHeader.Range(0, 9), new RangeHeader.Range(90, 99),
+                new RangeHeader.Range(95, 99), new RangeHeader.Range(95, 99)), range.resolve(100, "etag"));
+    }
+
+    @Test
+    void testNoRange() {
+        assertTrue(RangeHeader.fromHeader(null, null).isEmpty());
+        assertTrue(RangeHeader.fromHeader("items=0-9", null).isEmpty());
+        assertEquals(List.of(), RangeHeader.NONE.resolve(100, "etag"));
+    }
+
+    @Test
+    void testInvalidRange() {
+        assertTrue(RangeHeader.fromHeader("bytes=9-0", null).isEmpty());
+        assertTrue(RangeHeader.fromHeader("bytes=-", null).isEmpty());
+        assertTrue(RangeHeader.fromHeader("bytes=0-9,x", null).isEmpty());
+        assertTrue(RangeHeader.fromHeader("bytes=+1-9", null).isEmpty());
+        assertTrue(RangeHeader.fromHeader("bytes=" + "0-1,".repeat(17), null).isEmpty());
+    }
+
+    @Test
+    void testUnsatisfiableRange() {
+        RangeHeader range = RangeHeader.fromHeader("bytes=100-, -0", null);
+        HttpException error = assertThrows(HttpException.class, () -> range.resolve(100, "etag"));
+        assertEquals(HttpStatus.RANGE_NOT_SATISFIABLE, error.getStatus());
+        assertEquals("bytes */100", error.getHeaders().get("content-range"));
+    }
+
+    @Test
+    void testIfRange() {
+        assertEquals(List.of(new RangeHeader.Range(0, 9)), RangeHeader.fromHeader("bytes=0-9", "\"etag\"").resolve(100, "etag"));
+        assertEquals(List.of(), RangeHeader.fromHeader("bytes=0-9", "\"other\"").resolve(100, "etag"));
+    }
+}